@@ -0,0 +1,81 @@
+package com.example.pkcs11.benchmark;
+
+import com.example.pkcs11.audit.AuditJournal;
+import com.example.pkcs11.config.Pkcs11Properties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What recording a signature in the audit journal costs the request thread
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuditJournalBenchmark {
+
+    /**
+     * Input size in bytes: a SHA-256 digest and a small document
+     */
+    @Param({"32", "1024"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean force;
+
+    /**
+     * Whether the request thread waits for its entry to be on disk
+     */
+    @Param({"false", "true"})
+    public boolean awaitCommit;
+
+    private Path file;
+
+    private AuditJournal auditJournal;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() throws Exception {
+        file = Files.createTempFile("audit", ".journal");
+        Pkcs11Properties properties = new Pkcs11Properties();
+        properties.getAudit().setFile(file.toString());
+        properties.getAudit().setForce(force);
+        properties.getAudit().setAwaitCommit(awaitCommit);
+        auditJournal = new AuditJournal();
+        ReflectionTestUtils.setField(auditJournal, "pkcs11Properties", properties);
+        auditJournal.open();
+
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        auditJournal.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void record() {
+        auditJournal.record("rsa-2048", "RSA", null, data, "jmh", 1_000_000, AuditJournal.OUTCOME_SUCCESS);
+    }
+}
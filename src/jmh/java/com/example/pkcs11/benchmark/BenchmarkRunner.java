@@ -0,0 +1,46 @@
+package com.example.pkcs11.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the benchmarks once per thread count, writing one JSON result file per run so results
+ * can be compared between commits.
+ * <p>
+ * Configured with system properties: {@code jmh.include} (benchmark regexp), {@code jmh.threads}
+ * (comma separated thread counts), {@code jmh.results} (output directory), {@code benchmark.token}
+ * ({@code software} or {@code softhsm}) and {@code benchmark.coalescing}. Forked benchmark JVMs inherit
+ * these properties.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String include = System.getProperty("jmh.include", ".*");
+        String[] threadCounts = System.getProperty("jmh.threads", "1,4,16").split(",");
+        File resultsDir = new File(System.getProperty("jmh.results", "target/jmh"));
+        String token = System.getProperty("benchmark.token", SigningState.SOFTWARE);
+        String variant = Boolean.getBoolean("benchmark.coalescing") ? token + "-coalescing" : token;
+        if (!resultsDir.isDirectory() && !resultsDir.mkdirs()) {
+            throw new IllegalStateException("Cannot create results directory: " + resultsDir);
+        }
+
+        for (String threadCount : threadCounts) {
+            int threads = Integer.parseInt(threadCount.trim());
+            File result = new File(resultsDir, "jmh-" + variant + "-t" + threads + ".json");
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(result.getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
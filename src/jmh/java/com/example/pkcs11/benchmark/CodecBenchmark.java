@@ -0,0 +1,80 @@
+package com.example.pkcs11.benchmark;
+
+import com.example.pkcs11.dto.SignRequest;
+import com.example.pkcs11.dto.SignResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request and response encoding around a signature: base64 and JSON (de)serialization
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    /**
+     * Payload size in bytes: a SHA-256 digest, a small document and a large one
+     */
+    @Param({"32", "1024", "65536"})
+    public int size;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private byte[] data;
+
+    private String base64Data;
+
+    private String requestJson;
+
+    private SignResponse response;
+
+    @Setup
+    public void setUp() throws Exception {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        base64Data = Base64.getEncoder().encodeToString(data);
+        requestJson = objectMapper.writeValueAsString(new SignRequest("rsa-2048", "RSA", base64Data, "jmh"));
+        // An RSA-2048 signature
+        byte[] signature = new byte[256];
+        new Random(7).nextBytes(signature);
+        response = new SignResponse(Base64.getEncoder().encodeToString(signature));
+    }
+
+    @Benchmark
+    public byte[] base64Decode() {
+        return Base64.getDecoder().decode(base64Data);
+    }
+
+    @Benchmark
+    public String base64Encode() {
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    @Benchmark
+    public SignRequest readSignRequest() throws Exception {
+        return objectMapper.readValue(requestJson, SignRequest.class);
+    }
+
+    @Benchmark
+    public String writeSignResponse() throws Exception {
+        return objectMapper.writeValueAsString(response);
+    }
+}
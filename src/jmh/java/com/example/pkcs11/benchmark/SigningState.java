@@ -0,0 +1,186 @@
+package com.example.pkcs11.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.example.pkcs11.audit.AuditJournal;
+import com.example.pkcs11.config.Pkcs11Config;
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.scheduling.FairScheduler;
+import com.example.pkcs11.service.ConcurrencyLimiterRegistry;
+import com.example.pkcs11.service.KeyIndex;
+import com.example.pkcs11.service.Pkcs11ProviderService;
+import com.example.pkcs11.service.Pkcs11Token;
+import com.example.pkcs11.service.SignatureCache;
+import com.example.pkcs11.service.SignatureEnginePool;
+import com.example.pkcs11.service.SigningCoalescer;
+import com.example.pkcs11.service.SigningDispatcher;
+import com.example.pkcs11.service.SigningHedger;
+import com.example.pkcs11.service.SigningMetrics;
+import com.example.pkcs11.service.SigningRequestLog;
+import com.example.pkcs11.service.SigningService;
+import com.example.pkcs11.service.TokenRecovery;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The signing service wired by hand, without a Spring context.
+ * <p>
+ * With {@code -Dbenchmark.token=software} (the default) keys are generated in memory and signed with the
+ * JDK's SunRsaSign and SunEC providers, which isolates the service's own overhead. With {@code softhsm} the
+ * tokens are built the same way as in production from the {@code PKCS11_*} environment variables and the
+ * {@code rsa-2048} / {@code ecc-256} keys created by {@code softhsm/Makefile}. {@code -Dbenchmark.coalescing=true}
+ * turns on request coalescing.
+ */
+@State(Scope.Benchmark)
+public class SigningState {
+
+    public static final String SOFTWARE = "software";
+
+    @Param({"RSA", "EC"})
+    public String algorithm;
+
+    public String keyLabel;
+
+    public String base64Data;
+
+    public SigningService signingService;
+
+    public Pkcs11ProviderService pkcs11ProviderService;
+
+    private SigningDispatcher signingDispatcher;
+
+    @Setup(org.openjdk.jmh.annotations.Level.Trial)
+    public void setUp() throws Exception {
+        // The INFO line per signature would otherwise dominate the measurement
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        Pkcs11Properties properties = new Pkcs11Properties();
+        List<Pkcs11Token> tokens;
+        if (SOFTWARE.equals(System.getProperty("benchmark.token", SOFTWARE))) {
+            keyLabel = "RSA".equals(algorithm) ? "rsa-2048" : "ecc-256";
+            tokens = Collections.singletonList(softwareToken());
+        } else {
+            keyLabel = System.getProperty("benchmark.key-label", "RSA".equals(algorithm) ? "rsa-2048" : "ecc-256");
+            tokens = softHsmTokens(properties);
+        }
+
+        SignatureEnginePool signatureEnginePool = new SignatureEnginePool();
+        ReflectionTestUtils.setField(signatureEnginePool, "pkcs11Properties", properties);
+        signingDispatcher = new SigningDispatcher();
+        ReflectionTestUtils.setField(signingDispatcher, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(signingDispatcher, "signatureEnginePool", signatureEnginePool);
+        ConcurrencyLimiterRegistry concurrencyLimiters = new ConcurrencyLimiterRegistry();
+        ReflectionTestUtils.setField(concurrencyLimiters, "pkcs11Properties", properties);
+        SigningMetrics signingMetrics = new SigningMetrics();
+        ReflectionTestUtils.setField(signingMetrics, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(signingMetrics, "signatureEnginePool", signatureEnginePool);
+        ReflectionTestUtils.setField(signingMetrics, "signingDispatcher", signingDispatcher);
+        ReflectionTestUtils.setField(signingMetrics, "pkcs11Tokens", tokens);
+        signingMetrics.registerGauges();
+        properties.getCoalescing().setEnabled(Boolean.getBoolean("benchmark.coalescing"));
+        SigningCoalescer signingCoalescer = new SigningCoalescer();
+        ReflectionTestUtils.setField(signingCoalescer, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(signingCoalescer, "signatureEnginePool", signatureEnginePool);
+        ReflectionTestUtils.setField(signingCoalescer, "signingMetrics", signingMetrics);
+        // Disabled, as by default; the benchmarks sign the same data over and over, which it would answer from memory
+        SignatureCache signatureCache = new SignatureCache();
+        ReflectionTestUtils.setField(signatureCache, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(signatureCache, "signingMetrics", signingMetrics);
+        // Never started; it only acts once a token reports a lost session
+        TokenRecovery tokenRecovery = new TokenRecovery();
+        ReflectionTestUtils.setField(tokenRecovery, "pkcs11Tokens", tokens);
+        ReflectionTestUtils.setField(tokenRecovery, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(tokenRecovery, "signatureEnginePool", signatureEnginePool);
+        ReflectionTestUtils.setField(tokenRecovery, "signatureCache", signatureCache);
+        // Disabled, as by default; it only pays off against tokens that stall
+        SigningHedger signingHedger = new SigningHedger();
+        ReflectionTestUtils.setField(signingHedger, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(signingHedger, "signingMetrics", signingMetrics);
+        // Never opened, so nothing is journaled; AuditJournalBenchmark measures the journal on its own
+        FairScheduler fairScheduler = new FairScheduler();
+        ReflectionTestUtils.setField(fairScheduler, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(fairScheduler, "signingMetrics", signingMetrics);
+
+        AuditJournal auditJournal = new AuditJournal();
+        ReflectionTestUtils.setField(auditJournal, "pkcs11Properties", properties);
+        SigningRequestLog signingRequestLog = new SigningRequestLog();
+        ReflectionTestUtils.setField(signingRequestLog, "pkcs11Properties", properties);
+
+        pkcs11ProviderService = new Pkcs11ProviderService();
+        ReflectionTestUtils.setField(pkcs11ProviderService, "pkcs11Tokens", tokens);
+        ReflectionTestUtils.setField(pkcs11ProviderService, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(pkcs11ProviderService, "signatureEnginePool", signatureEnginePool);
+        ReflectionTestUtils.setField(pkcs11ProviderService, "signatureCache", signatureCache);
+
+        signingService = new SigningService();
+        ReflectionTestUtils.setField(signingService, "pkcs11ProviderService", pkcs11ProviderService);
+        ReflectionTestUtils.setField(signingService, "signatureEnginePool", signatureEnginePool);
+        ReflectionTestUtils.setField(signingService, "signingDispatcher", signingDispatcher);
+        ReflectionTestUtils.setField(signingService, "signingCoalescer", signingCoalescer);
+        ReflectionTestUtils.setField(signingService, "tokenRecovery", tokenRecovery);
+        ReflectionTestUtils.setField(signingService, "signingHedger", signingHedger);
+        ReflectionTestUtils.setField(signingService, "fairScheduler", fairScheduler);
+        ReflectionTestUtils.setField(signingService, "signatureCache", signatureCache);
+        ReflectionTestUtils.setField(signingService, "concurrencyLimiters", concurrencyLimiters);
+        ReflectionTestUtils.setField(signingService, "signingMetrics", signingMetrics);
+        ReflectionTestUtils.setField(signingService, "signingRequestLog", signingRequestLog);
+        ReflectionTestUtils.setField(signingService, "auditJournal", auditJournal);
+
+        base64Data = Base64.getEncoder().encodeToString("Hello, World!".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(org.openjdk.jmh.annotations.Level.Trial)
+    public void tearDown() {
+        signingDispatcher.shutdown();
+    }
+
+    private Pkcs11Token softwareToken() throws Exception {
+        KeyPair keyPair;
+        String provider;
+        if ("RSA".equals(algorithm)) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            keyPair = generator.generateKeyPair();
+            provider = "SunRsaSign";
+        } else {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            keyPair = generator.generateKeyPair();
+            provider = "SunEC";
+        }
+
+        Pkcs11Token token = new Pkcs11Token("software", Security.getProvider(provider), "1234",
+                3, Duration.ofSeconds(30));
+        // Skip the PKCS11 KeyStore, which software providers do not have
+        ReflectionTestUtils.setField(token, "keyIndex",
+                KeyIndex.of(Collections.singletonList(new KeyIndex.Entry(keyLabel, keyPair.getPrivate(), null))));
+        return token;
+    }
+
+    private static List<Pkcs11Token> softHsmTokens(Pkcs11Properties properties) throws Exception {
+        properties.setLibrary(System.getenv().getOrDefault("PKCS11_LIBRARY", "/usr/lib/softhsm/libsofthsm2.so"));
+        properties.setSlot(Integer.parseInt(System.getenv().getOrDefault("PKCS11_SLOT", "-1")));
+        properties.setProviderName(System.getenv().getOrDefault("PKCS11_PROVIDER_NAME", "SoftHSM-Provider"));
+        properties.setPin(System.getenv().getOrDefault("PKCS11_PIN", "1234"));
+
+        Pkcs11Config pkcs11Config = new Pkcs11Config();
+        ReflectionTestUtils.setField(pkcs11Config, "pkcs11Properties", properties);
+        return pkcs11Config.pkcs11Tokens();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.pkcs11.audit;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+
+/**
+ * Line format and hash chain of the audit journal.
+ * <p>
+ * Each entry is one tab-separated line:
+ * <pre>
+ * sequence  time  keyLabel  algorithm  digestAlgorithm  inputDigest  name  latencyMicros  outcome  previousHash  hash
+ * </pre>
+ * where {@code hash} is the hex SHA-256 of everything before it on the line, including the previous entry's hash.
+ * Changing, removing or reordering any entry therefore breaks the chain from that entry on.
+ * Only JDK classes are used so the verifier runs without the application on the classpath.
+ */
+final class AuditChain {
+
+    static final String GENESIS_HASH = "0".repeat(64);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private AuditChain() {
+    }
+
+    /**
+     * Formats everything but the entry's own hash, which is computed over this text
+     */
+    static String content(long sequence, AuditEntry entry, String previousHash) {
+        StringBuilder line = new StringBuilder(256);
+        line.append(sequence).append('\t')
+                .append(Instant.ofEpochMilli(entry.getTimestampMillis())).append('\t');
+        escape(entry.getKeyLabel(), line).append('\t');
+        escape(entry.getAlgorithm(), line).append('\t');
+        escape(entry.getDigestAlgorithm(), line).append('\t')
+                .append(hex(entry.getInputDigest())).append('\t');
+        escape(entry.getName(), line).append('\t')
+                .append(entry.getLatencyNanos() / 1_000).append('\t');
+        escape(entry.getOutcome(), line).append('\t')
+                .append(previousHash);
+        return line.toString();
+    }
+
+    static String hash(String content) {
+        return hex(sha256().digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String line(String content, String hash) {
+        return content + '\t' + hash + '\n';
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        if (bytes == null) {
+            return "-";
+        }
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Escapes the separators so caller supplied text cannot forge fields or lines
+     */
+    private static StringBuilder escape(String value, StringBuilder out) {
+        if (value == null) {
+            return out.append('-');
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.pkcs11.audit;
+
+/**
+ * One signing operation as handed from the request thread to the journal writer
+ */
+public final class AuditEntry {
+
+    private final long timestampMillis;
+    private final String keyLabel;
+    private final String algorithm;
+    private final String digestAlgorithm;
+    private final byte[] inputDigest;
+    private final String name;
+    private final long latencyNanos;
+    private final String outcome;
+
+    public AuditEntry(long timestampMillis, String keyLabel, String algorithm, String digestAlgorithm,
+                      byte[] inputDigest, String name, long latencyNanos, String outcome) {
+        this.timestampMillis = timestampMillis;
+        this.keyLabel = keyLabel;
+        this.algorithm = algorithm;
+        this.digestAlgorithm = digestAlgorithm;
+        this.inputDigest = inputDigest;
+        this.name = name;
+        this.latencyNanos = latencyNanos;
+        this.outcome = outcome;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public String getKeyLabel() {
+        return keyLabel;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * The hash the input digest was computed with; for pre-hashed requests this is the caller's digest algorithm
+     */
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    public byte[] getInputDigest() {
+        return inputDigest;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+}
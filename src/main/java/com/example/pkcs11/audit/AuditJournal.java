@@ -0,0 +1,364 @@
+package com.example.pkcs11.audit;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.SigningException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Append-only, hash-chained journal of every signing operation.
+ * <p>
+ * Request threads only hash their input and enqueue an entry. A single writer thread drains whatever has
+ * queued up, chains and formats the entries, writes them with one NIO write and forces the batch to disk
+ * (group commit), so the cost of an fsync is shared by every entry that arrived while the previous one ran.
+ * With {@code await-commit} the request thread also waits for its entry to be on disk.
+ * <p>
+ * A batch that cannot be written is cut off the file and retried, and the chain only moves on once it is on disk.
+ * Recording never fails the request that is being recorded; while the journal cannot be written, new signing
+ * requests are refused instead.
+ */
+@Slf4j
+@Component
+public class AuditJournal {
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_FAILURE = "failure";
+    public static final String OUTCOME_REJECTED = "rejected";
+    public static final String OUTCOME_CACHED = "cached";
+
+    private static final ThreadLocal<MessageDigest> INPUT_DIGEST = ThreadLocal.withInitial(AuditChain::sha256);
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 5_000;
+
+    private BlockingQueue<Pending> queue;
+
+    private FileChannel channel;
+
+    private Thread writer;
+
+    private volatile boolean running;
+
+    // Set while the writer is retrying a batch it could not write
+    private volatile boolean failing;
+
+    // The last entry on disk, owned by the writer thread
+    private long sequence;
+
+    private String previousHash = AuditChain.GENESIS_HASH;
+
+    // Length of the file up to the last entry on disk, owned by the writer thread
+    private long committedSize;
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+
+    @PostConstruct
+    public void open() throws IOException {
+        Pkcs11Properties.Audit config = pkcs11Properties.getAudit();
+        if (!config.isEnabled()) {
+            log.info("Audit journal disabled");
+            return;
+        }
+
+        Path file = Paths.get(config.getFile());
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recoverTail();
+        committedSize = channel.size();
+        channel.position(committedSize);
+
+        queue = new ArrayBlockingQueue<>(Math.max(1, config.getQueueCapacity()));
+        running = true;
+        writer = new Thread(this::runWriter, "audit-journal");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Audit journal {} opened at sequence {}", file, sequence);
+    }
+
+    public boolean isEnabled() {
+        return running;
+    }
+
+    /**
+     * Refuses a signing request up front while the journal cannot be written
+     */
+    public void checkWritable() {
+        if (failing) {
+            throw new SigningException("Audit journal cannot be written; signing is suspended");
+        }
+    }
+
+    /**
+     * Records a signing operation, waiting until it is on disk when {@code await-commit} is set. The input is
+     * hashed here; a pre-hashed input is recorded as given. Never throws, as it runs once the request is decided.
+     */
+    public void record(String keyLabel, String algorithm, String digestAlgorithm, byte[] input, String name,
+                       long latencyNanos, String outcome) {
+        if (!running) {
+            return;
+        }
+        byte[] inputDigest;
+        String inputDigestAlgorithm;
+        if (digestAlgorithm != null) {
+            inputDigest = input;
+            inputDigestAlgorithm = digestAlgorithm;
+        } else {
+            inputDigest = input == null ? null : INPUT_DIGEST.get().digest(input);
+            inputDigestAlgorithm = "SHA-256";
+        }
+        Pending pending = new Pending(new AuditEntry(System.currentTimeMillis(), keyLabel, algorithm,
+                inputDigestAlgorithm, inputDigest, name, latencyNanos, outcome));
+
+        boolean interrupted = false;
+        if (!queue.offer(pending)) {
+            // Never drop an audit record; wait for the writer to catch up instead
+            waits.increment();
+            while (true) {
+                try {
+                    queue.put(pending);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        Pkcs11Properties.Audit config = pkcs11Properties.getAudit();
+        try {
+            if (config.isAwaitCommit() && !interrupted) {
+                pending.written.get(config.getCommitTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } catch (ExecutionException | TimeoutException e) {
+            // Later requests are refused by checkWritable while the writer is failing
+            log.warn("Audit entry for key: {} is not on disk yet: {}", keyLabel, e.toString());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runWriter() {
+        int maxBatch = Math.max(1, pkcs11Properties.getAudit().getMaxBatchSize());
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        StringBuilder text = new StringBuilder(256 * maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+
+                // Chained on local copies; the chain only moves on once the batch is on disk
+                long batchSequence = sequence;
+                String batchHash = previousHash;
+                for (Pending pending : batch) {
+                    String content = AuditChain.content(batchSequence + 1, pending.entry, batchHash);
+                    batchHash = AuditChain.hash(content);
+                    text.append(AuditChain.line(content, batchHash));
+                    batchSequence++;
+                }
+                if (!commitWithRetry(text, batch.size())) {
+                    log.error("Audit journal closed with {} entries unwritten", batch.size() + queue.size());
+                    failing = true;
+                    fail(batch, new IOException("Audit journal closed before the entries were written"));
+                    return;
+                }
+                sequence = batchSequence;
+                previousHash = batchHash;
+                appended.add(batch.size());
+                for (Pending pending : batch) {
+                    pending.written.complete(null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Audit journal writer interrupted with {} entries queued", queue.size());
+                failing = true;
+                fail(batch, e);
+                return;
+            } finally {
+                batch.clear();
+                text.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Writes a batch, cutting a failed attempt off the file and trying again until it succeeds or the journal closes
+     *
+     * @return false if the journal closed before the batch could be written
+     */
+    private boolean commitWithRetry(CharSequence text, int entries) throws InterruptedException {
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(text.toString());
+        long delay = 50;
+        while (true) {
+            try {
+                // Cut off whatever a failed attempt left behind
+                if (channel.size() > committedSize) {
+                    channel.truncate(committedSize);
+                }
+                channel.position(committedSize);
+                buffer.rewind();
+                commit(buffer);
+                committedSize = channel.position();
+                if (failing) {
+                    log.info("Audit journal writable again; wrote {} held entries", entries);
+                    failing = false;
+                }
+                return true;
+            } catch (IOException | RuntimeException e) {
+                writeFailures.increment();
+                failing = true;
+                if (!running) {
+                    return false;
+                }
+                log.error("Failed to write {} audit entries, retrying in {} ms: {}", entries, delay, e.getMessage(), e);
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, MAX_RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private void commit(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (pkcs11Properties.getAudit().isForce()) {
+            channel.force(false);
+        }
+        commits.increment();
+    }
+
+    private void fail(List<Pending> batch, Exception cause) {
+        for (Pending pending : batch) {
+            pending.written.completeExceptionally(cause);
+        }
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.written.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Picks up the chain from the last complete line, cutting off a line left half written by a crash
+     */
+    private void recoverTail() throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return;
+        }
+        int tailSize = (int) Math.min(size, 64 * 1024);
+        byte[] tail = new byte[tailSize];
+        channel.read(ByteBuffer.wrap(tail), size - tailSize);
+
+        // Byte offsets, since names may hold multi-byte characters
+        int end = lastNewline(tail, tailSize - 1);
+        if (end < 0 && size > tailSize) {
+            throw new IllegalStateException("No complete audit entry in the last " + tailSize + " bytes of the journal");
+        }
+        if (end < tailSize - 1) {
+            long validSize = size - (tailSize - (end + 1));
+            log.warn("Truncating incomplete audit journal entry at byte {}", validSize);
+            channel.truncate(validSize);
+        }
+        if (end < 0) {
+            return;
+        }
+        int start = lastNewline(tail, end - 1) + 1;
+        String[] fields = new String(tail, start, end - start, StandardCharsets.UTF_8).split("\t");
+        sequence = Long.parseLong(fields[0]);
+        previousHash = fields[fields.length - 1];
+    }
+
+    private static int lastNewline(byte[] bytes, int from) {
+        for (int i = from; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the journal's sequence and write counters
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", running);
+        if (running) {
+            stats.put("file", pkcs11Properties.getAudit().getFile());
+            stats.put("appended", appended.sum());
+            stats.put("commits", commits.sum());
+            stats.put("queueDepth", queue.size());
+            stats.put("producerWaits", waits.sum());
+            stats.put("failing", failing);
+            stats.put("writeFailures", writeFailures.sum());
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        // No interrupt: it would close the FileChannel mid-write. The writer drains the queue and exits.
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.force(true);
+        channel.close();
+        log.info("Audit journal closed at sequence {}", sequence);
+    }
+
+    /**
+     * An entry waiting for the writer, completed once it is on disk
+     */
+    private static final class Pending {
+
+        final AuditEntry entry;
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        Pending(AuditEntry entry) {
+            this.entry = entry;
+        }
+    }
+}
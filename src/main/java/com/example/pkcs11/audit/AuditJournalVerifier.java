@@ -0,0 +1,105 @@
+package com.example.pkcs11.audit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Checks an audit journal's hash chain.
+ * <p>
+ * Usage: {@code java -cp target/classes com.example.pkcs11.audit.AuditJournalVerifier __logs/audit.journal}.
+ * Exits with 0 when every entry is intact and 1 at the first entry that was changed, removed or reordered.
+ */
+public final class AuditJournalVerifier {
+
+    private AuditJournalVerifier() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: AuditJournalVerifier <journal file>");
+            System.exit(2);
+        }
+        Result result = verify(Paths.get(args[0]));
+        if (result.isValid()) {
+            System.out.println("OK: " + result.getEntries() + " entries, last hash " + result.getLastHash());
+        } else {
+            System.out.println("BROKEN at line " + result.getEntries() + ": " + result.getError());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Recomputes the chain; on failure the entry count is the line number of the first bad entry
+     */
+    public static Result verify(Path journal) throws IOException {
+        String previousHash = AuditChain.GENESIS_HASH;
+        long expectedSequence = 1;
+        long lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int hashStart = line.lastIndexOf('\t');
+                int previousHashStart = hashStart <= 0 ? -1 : line.lastIndexOf('\t', hashStart - 1);
+                if (previousHashStart < 0) {
+                    return Result.broken(lineNumber, "malformed entry");
+                }
+                String content = line.substring(0, hashStart);
+                String hash = line.substring(hashStart + 1);
+                String sequence = line.substring(0, line.indexOf('\t'));
+
+                if (!sequence.equals(Long.toString(expectedSequence))) {
+                    return Result.broken(lineNumber, "expected sequence " + expectedSequence + " but found " + sequence);
+                }
+                if (!line.substring(previousHashStart + 1, hashStart).equals(previousHash)) {
+                    return Result.broken(lineNumber, "previous hash does not match the preceding entry");
+                }
+                if (!AuditChain.hash(content).equals(hash)) {
+                    return Result.broken(lineNumber, "entry hash does not match its content");
+                }
+                previousHash = hash;
+                expectedSequence++;
+            }
+        }
+        return new Result(true, lineNumber, previousHash, null);
+    }
+
+    public static final class Result {
+
+        private final boolean valid;
+        private final long entries;
+        private final String lastHash;
+        private final String error;
+
+        private Result(boolean valid, long entries, String lastHash, String error) {
+            this.valid = valid;
+            this.entries = entries;
+            this.lastHash = lastHash;
+            this.error = error;
+        }
+
+        private static Result broken(long lineNumber, String error) {
+            return new Result(false, lineNumber, null, error);
+        }
+
+        public boolean isValid() {
+            return valid;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        public String getLastHash() {
+            return lastHash;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
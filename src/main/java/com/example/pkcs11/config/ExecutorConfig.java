@@ -0,0 +1,81 @@
+package com.example.pkcs11.config;
+
+import com.example.pkcs11.service.Pkcs11Token;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Configuration
+@EnableScheduling
+public class ExecutorConfig {
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    /**
+     * Worker pool used to spread batch items across token sessions
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService batchSigningExecutor() {
+        int parallelism = Math.max(1, pkcs11Properties.getBatch().getParallelism());
+        log.info("Initializing batch signing executor with {} threads", parallelism);
+        return Executors.newFixedThreadPool(parallelism, new CustomizableThreadFactory("batch-sign-"));
+    }
+
+    /**
+     * CPU-bound pool for batch verification; verification runs in software, so it is sized to the cores
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService verificationExecutor() {
+        int parallelism = pkcs11Properties.getVerify().resolveParallelism();
+        log.info("Initializing verification executor with {} threads", parallelism);
+        return Executors.newFixedThreadPool(parallelism, new CustomizableThreadFactory("verify-"));
+    }
+
+    /**
+     * Threads running hedges; the first attempt stays on the request thread. Nothing is queued: when every thread
+     * is busy the hedge is rejected and the request is not hedged.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService hedgingExecutor() {
+        int threads = Math.max(1, pkcs11Properties.getHedging().getMaxConcurrent());
+        return new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new CustomizableThreadFactory("hedge-"), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Threads running gRPC calls, sized to the tokens' sessions
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService grpcExecutor(List<Pkcs11Token> pkcs11Tokens) {
+        int threads = Math.max(1, pkcs11Properties.getGrpc().getThreadsPerToken() * pkcs11Tokens.size());
+        log.info("Initializing gRPC executor with {} threads", threads);
+        return Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("grpc-sign-"));
+    }
+
+    /**
+     * Threads that make the blocking token calls in reactive mode, sized to the tokens' sessions
+     */
+    @Bean(destroyMethod = "dispose")
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public Scheduler hsmScheduler(List<Pkcs11Token> pkcs11Tokens) {
+        int threads = Math.max(1, pkcs11Properties.getReactive().getThreadsPerToken() * pkcs11Tokens.size());
+        int queueCapacity = Math.max(1, pkcs11Properties.getReactive().getQueueCapacity());
+        log.info("Initializing HSM scheduler with {} threads and {} queued tasks", threads, queueCapacity);
+        return Schedulers.newBoundedElastic(threads, queueCapacity, "hsm", 60, true);
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.pkcs11.config;
 
+import com.example.pkcs11.service.Pkcs11Token;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -11,6 +12,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.Provider;
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 @Slf4j
 @Configuration
@@ -20,31 +24,73 @@ public class Pkcs11Config {
     @Autowired
     private Pkcs11Properties pkcs11Properties;
 
+    /**
+     * Creates one SunPKCS11 provider and token per configured slot
+     */
     @Bean
-    public Provider pkcs11Provider() throws Exception {
-        log.info("Initializing PKCS#11 provider with library: {}", pkcs11Properties.getLibrary());
+    public List<Pkcs11Token> pkcs11Tokens() throws Exception {
+        List<Pkcs11Properties.Token> slots = resolveTokens();
+        List<Pkcs11Token> tokens = new ArrayList<>(slots.size());
+        for (Pkcs11Properties.Token slot : slots) {
+            log.info("Initializing PKCS#11 provider {} with library: {}", slot.getName(), slot.getLibrary());
 
-        // Create PKCS#11 configuration content
-        String configContent = createPkcs11Config();
-        log.debug("PKCS#11 configuration: {}", configContent);
+            // Create PKCS#11 configuration content
+            String configContent = createPkcs11Config(slot);
+            log.debug("PKCS#11 configuration: {}", configContent);
 
-        // Create SunPKCS11 provider
-        Provider provider = createSunPkcs11Provider(configContent);
+            // Create SunPKCS11 provider
+            Provider provider = createSunPkcs11Provider(configContent);
 
-        // Register provider with Security
-        Security.addProvider(provider);
-        log.info("PKCS#11 provider '{}' registered successfully", provider.getName());
+            // Register provider with Security
+            Security.addProvider(provider);
+            log.info("PKCS#11 provider '{}' registered successfully", provider.getName());
 
-        return provider;
+            tokens.add(new Pkcs11Token(slot.getName(), provider, slot.getPin(),
+                    pkcs11Properties.getFailover().getFailureThreshold(),
+                    pkcs11Properties.getFailover().getQuarantine()));
+        }
+        return tokens;
+    }
+
+    /**
+     * The provider of the first token, kept for code that works with a single provider
+     */
+    @Bean
+    public Provider pkcs11Provider() throws Exception {
+        return pkcs11Tokens().get(0).getProvider();
     }
 
+    /**
+     * Resolves the configured slots, filling unset values from the top-level properties
+     */
+    private List<Pkcs11Properties.Token> resolveTokens() {
+        List<Pkcs11Properties.Token> configured = pkcs11Properties.getTokens();
+        if (configured.isEmpty()) {
+            configured = Collections.singletonList(new Pkcs11Properties.Token());
+        }
+
+        List<Pkcs11Properties.Token> resolved = new ArrayList<>(configured.size());
+        for (int i = 0; i < configured.size(); i++) {
+            Pkcs11Properties.Token token = configured.get(i);
+            Pkcs11Properties.Token slot = new Pkcs11Properties.Token();
+            String defaultName = configured.size() == 1
+                    ? pkcs11Properties.getProviderName()
+                    : pkcs11Properties.getProviderName() + "-" + i;
+            slot.setName(token.getName() != null ? token.getName() : defaultName);
+            slot.setLibrary(token.getLibrary() != null ? token.getLibrary() : pkcs11Properties.getLibrary());
+            slot.setSlot(token.getSlot() != null ? token.getSlot() : pkcs11Properties.getSlot());
+            slot.setPin(token.getPin() != null ? token.getPin() : pkcs11Properties.getPin());
+            resolved.add(slot);
+        }
+        return resolved;
+    }
 
-    private String createPkcs11Config() {
+    private String createPkcs11Config(Pkcs11Properties.Token slot) {
         StringBuilder config = new StringBuilder();
-        config.append("name = ").append(pkcs11Properties.getProviderName()).append("\n");
-        config.append("library = ").append(pkcs11Properties.getLibrary()).append("\n");
-        if (pkcs11Properties.getSlot() >= 0)
-            config.append("slot = ").append(pkcs11Properties.getSlot()).append("\n");
+        config.append("name = ").append(slot.getName()).append("\n");
+        config.append("library = ").append(slot.getLibrary()).append("\n");
+        if (slot.getSlot() >= 0)
+            config.append("slot = ").append(slot.getSlot()).append("\n");
         config.append("attributes = compatibility").append("\n");
         config.append("showInfo = false").append("\n");
         return config.toString();
@@ -1,10 +1,17 @@
 package com.example.pkcs11.config;
 
+import com.example.pkcs11.scheduling.Lane;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
 import javax.validation.constraints.NotBlank;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @Data
 @Component
@@ -21,4 +28,615 @@ public class Pkcs11Properties {
 
     @NotBlank
     private String pin;
-}
\ No newline at end of file
+
+    /**
+     * Additional slots or libraries; when empty a single token is built from the properties above
+     */
+    private List<Token> tokens = new ArrayList<>();
+
+    private Failover failover = new Failover();
+
+    private Recovery recovery = new Recovery();
+
+    private Hedging hedging = new Hedging();
+
+    private SignaturePool signaturePool = new SignaturePool();
+
+    private SignatureCache signatureCache = new SignatureCache();
+
+    private Batch batch = new Batch();
+
+    private Verify verify = new Verify();
+
+    private Merkle merkle = new Merkle();
+
+    private Binary binary = new Binary();
+
+    private Streaming streaming = new Streaming();
+
+    private RequestLogging requestLogging = new RequestLogging();
+
+    private Audit audit = new Audit();
+
+    private Jobs jobs = new Jobs();
+
+    private Timing timing = new Timing();
+
+    private Reactive reactive = new Reactive();
+
+    private Grpc grpc = new Grpc();
+
+    private Dispatcher dispatcher = new Dispatcher();
+
+    private Coalescing coalescing = new Coalescing();
+
+    private KeyIndex keyIndex = new KeyIndex();
+
+    private Warmup warmup = new Warmup();
+
+    private ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit();
+
+    private Scheduling scheduling = new Scheduling();
+
+    /**
+     * One slot of a multi-token setup; unset values fall back to the top-level properties
+     */
+    @Data
+    public static class Token {
+
+        private String name;
+
+        private String library;
+
+        private Integer slot;
+
+        private String pin;
+    }
+
+    /**
+     * Health tracking used to take failing tokens out of rotation
+     */
+    @Data
+    public static class Failover {
+
+        /**
+         * Consecutive failed operations after which a token is taken out of rotation
+         */
+        private int failureThreshold = 3;
+
+        /**
+         * How long a failing token stays out of rotation before it is tried again
+         */
+        private Duration quarantine = Duration.ofSeconds(30);
+    }
+
+    /**
+     * Re-login and key re-resolution after a token loses its session, e.g. after an HSM restart or re-insertion
+     */
+    @Data
+    public static class Recovery {
+
+        private boolean enabled = true;
+
+        /**
+         * Longest a request waits for a recovery in progress before failing with 503
+         */
+        private Duration await = Duration.ofSeconds(2);
+
+        /**
+         * Wait before retrying a failed recovery, doubled after each further failure up to max-backoff
+         */
+        private Duration initialBackoff = Duration.ofSeconds(1);
+
+        private Duration maxBackoff = Duration.ofSeconds(60);
+
+        /**
+         * How often tokens idle for at least this long are touched to keep their session open; 0 disables it
+         */
+        private Duration keepAliveInterval = Duration.ofMinutes(5);
+    }
+
+    /**
+     * Hedging of slow requests for keys replicated on several tokens: a second attempt goes to another token
+     */
+    @Data
+    public static class Hedging {
+
+        private boolean enabled = false;
+
+        /**
+         * Fixed wait before hedging; when unset the percentile of the key's recent latencies is used
+         */
+        private Duration delay;
+
+        private double percentile = 0.95;
+
+        /**
+         * Shortest adaptive delay, so fast keys are not hedged on scheduling noise
+         */
+        private Duration minDelay = Duration.ofMillis(2);
+
+        /**
+         * Hedges earned per request, i.e. the largest share of requests that may be sent twice
+         */
+        private double budget = 0.05;
+
+        /**
+         * Hedges that can be saved up while the tokens are fast, for a burst of stalls
+         */
+        private int budgetBurst = 10;
+
+        /**
+         * Threads for the attempts of hedged requests; a request that finds them all busy signs on its own
+         * thread without a hedge
+         */
+        private int maxConcurrent = 64;
+    }
+
+    /**
+     * Pool of initialized Signature engines, kept per key label and algorithm
+     */
+    @Data
+    public static class SignaturePool {
+
+        private boolean enabled = true;
+
+        /**
+         * Maximum number of idle engines retained for a single key and algorithm on a token
+         */
+        private int maxIdlePerKey = 32;
+    }
+
+    /**
+     * Limits for the batch signing endpoint
+     */
+    @Data
+    public static class Batch {
+
+        private int maxItems = 1000;
+
+        /**
+         * Number of items signed concurrently, ideally the number of sessions the token allows
+         */
+        private int parallelism = 8;
+    }
+
+    /**
+     * Software verification with the public keys of the tokens' certificates
+     */
+    @Data
+    public static class Verify {
+
+        private int maxItems = 10000;
+
+        /**
+         * Threads verifying batch items; 0 uses one per available processor
+         */
+        private int parallelism = 0;
+
+        public int resolveParallelism() {
+            return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    /**
+     * Merkle batch signing: documents arriving close together share one signature over a Merkle root
+     */
+    @Data
+    public static class Merkle {
+
+        /**
+         * Documents per tree; a full batch is signed at once
+         */
+        private int maxBatchSize = 1024;
+
+        /**
+         * How long the first document of a batch waits for others
+         */
+        private Duration maxWait = Duration.ofMillis(10);
+
+        /**
+         * Threads closing batches and signing their roots
+         */
+        private int threads = 4;
+    }
+
+    /**
+     * Signing of application/octet-stream request bodies
+     */
+    @Data
+    public static class Binary {
+
+        /**
+         * Largest body accepted; it is held in memory once while signing
+         */
+        private DataSize maxBodySize = DataSize.ofMegabytes(10);
+    }
+
+    /**
+     * Streaming signing of large documents, hashed locally in chunks
+     */
+    @Data
+    public static class Streaming {
+
+        /**
+         * Size of the chunk buffer the document is read through
+         */
+        private DataSize bufferSize = DataSize.ofKilobytes(64);
+    }
+
+    /**
+     * How successful signatures are logged; failures are always logged
+     */
+    @Data
+    public static class RequestLogging {
+
+        private SuccessLogging success = SuccessLogging.ALL;
+
+        /**
+         * Share of successes logged in SAMPLED mode, between 0 and 1
+         */
+        private double sampleRate = 0.01;
+
+        /**
+         * Period of the per key summary line in AGGREGATED mode
+         */
+        private Duration aggregateInterval = Duration.ofSeconds(10);
+    }
+
+    public enum SuccessLogging {
+        ALL, SAMPLED, AGGREGATED, NONE
+    }
+
+    /**
+     * Hash-chained journal of every signing operation
+     */
+    @Data
+    public static class Audit {
+
+        private boolean enabled = true;
+
+        private String file = "__logs/audit.journal";
+
+        /**
+         * Entries waiting for the writer before signing threads have to wait
+         */
+        private int queueCapacity = 65536;
+
+        /**
+         * Most entries written and forced to disk as one group commit
+         */
+        private int maxBatchSize = 4096;
+
+        /**
+         * Whether each group commit is forced to disk; without it a crash may lose the entries still in the page cache
+         */
+        private boolean force = true;
+
+        /**
+         * Whether a signing request waits for its entry to be on disk before it is answered
+         */
+        private boolean awaitCommit = false;
+
+        /**
+         * With {@code awaitCommit}, the longest a signing request waits for its entry to be written
+         */
+        private Duration commitTimeout = Duration.ofSeconds(10);
+    }
+
+    /**
+     * Asynchronous signing jobs, kept under a local directory so they survive restarts
+     */
+    @Data
+    public static class Jobs {
+
+        private boolean enabled = true;
+
+        private String directory = "__logs/jobs";
+
+        /**
+         * Threads signing job items; enough to keep every token session busy
+         */
+        private int workers = 16;
+
+        /**
+         * Results written before the result file is forced to disk; it is always forced when a job completes
+         */
+        private int forceEvery = 1000;
+
+        /**
+         * How long a completed job and its results are kept
+         */
+        private Duration retention = Duration.ofDays(7);
+    }
+
+    /**
+     * Cache of recent signatures, so repeated requests to sign the same data with the same key skip the token
+     */
+    @Data
+    public static class SignatureCache {
+
+        private boolean enabled = false;
+
+        /**
+         * Most signatures kept; the least recently used is evicted first
+         */
+        private int maxEntries = 10000;
+
+        /**
+         * How long a signature is served from the cache
+         */
+        private Duration ttl = Duration.ofMinutes(10);
+
+        /**
+         * Overrides per key alias on the token
+         */
+        private Map<String, KeyCache> keys = new LinkedHashMap<>();
+    }
+
+    /**
+     * Signature cache overrides for one key; unset values fall back to the defaults
+     */
+    @Data
+    public static class KeyCache {
+
+        private Boolean enabled;
+
+        private Duration ttl;
+    }
+
+    /**
+     * Reactive serving mode (spring.main.web-application-type=reactive): token calls run on a bounded
+     * scheduler while connections are held by a few event loop threads
+     */
+    @Data
+    public static class Reactive {
+
+        /**
+         * Scheduler threads per token, ideally the number of sessions the token allows
+         */
+        private int threadsPerToken = 16;
+
+        /**
+         * Signing tasks waiting for a scheduler thread before new ones are rejected
+         */
+        private int queueCapacity = 10000;
+    }
+
+    /**
+     * gRPC signing API (pkcs11.v1.SigningService), served next to the REST endpoints
+     */
+    @Data
+    public static class Grpc {
+
+        private boolean enabled = true;
+
+        private int port = 9085;
+
+        /**
+         * Threads running gRPC calls per token, and with them the token calls; ideally the token's session count
+         */
+        private int threadsPerToken = 16;
+
+        /**
+         * Requests one SignStream may have in flight before the server stops reading from it
+         */
+        private int maxInFlightPerStream = 32;
+
+        private DataSize maxMessageSize = DataSize.ofMegabytes(10);
+
+        /**
+         * How long running calls may take to finish on shutdown
+         */
+        private Duration shutdownGracePeriod = Duration.ofSeconds(10);
+    }
+
+    /**
+     * Per-phase request timing; phases are always emitted as Flight Recorder events
+     */
+    @Data
+    public static class Timing {
+
+        /**
+         * Whether responses carry a Server-Timing header with the phase breakdown
+         */
+        private boolean serverTiming = false;
+    }
+
+    /**
+     * Index of the token's private keys
+     */
+    @Data
+    public static class KeyIndex {
+
+        /**
+         * How often the token is re-scanned for added or removed keys; zero disables the refresh
+         */
+        private Duration refreshInterval = Duration.ZERO;
+    }
+
+    /**
+     * Key preloading and signing warm-up run before the application reports ready
+     */
+    @Data
+    public static class Warmup {
+
+        private boolean enabled = true;
+
+        /**
+         * Labels of the keys to preload; all keys on the token when empty
+         */
+        private List<String> keyLabels = new ArrayList<>();
+
+        /**
+         * Warm-up signatures per key and signing algorithm
+         */
+        private int iterations = 10;
+    }
+
+    /**
+     * Session-affine dispatch: signing jobs are queued to a fixed set of workers per token
+     * instead of every request thread calling into the provider
+     */
+    @Data
+    public static class Dispatcher {
+
+        private boolean enabled = false;
+
+        /**
+         * Workers per token, ideally the number of sessions the token allows
+         */
+        private int workersPerToken = 16;
+
+        /**
+         * Jobs waiting per token before new ones are rejected
+         */
+        private int queueCapacity = 1000;
+
+        /**
+         * Longest a request waits for its job to complete
+         */
+        private Duration timeout = Duration.ofSeconds(10);
+    }
+
+    /**
+     * Coalescing of concurrent requests for the same key into batches signed on one engine and session.
+     * Ignored when the dispatcher is enabled, since its workers already keep their own engines.
+     */
+    @Data
+    public static class Coalescing {
+
+        private boolean enabled = false;
+
+        /**
+         * How long the first request of a batch waits for others
+         */
+        private Duration window = Duration.ofNanos(200_000);
+
+        private int maxBatchSize = 32;
+
+        /**
+         * Longest a request waits for its batch to be signed
+         */
+        private Duration timeout = Duration.ofSeconds(10);
+    }
+
+    /**
+     * Adaptive per key label concurrency limit; requests above it are rejected with 429
+     */
+    @Data
+    public static class ConcurrencyLimit {
+
+        private boolean enabled = false;
+
+        /**
+         * Limit a key starts with before any latency has been observed
+         */
+        private int initialLimit = 20;
+
+        private int minLimit = 4;
+
+        private int maxLimit = 200;
+
+        /**
+         * How far recent latency may rise above the baseline before the limit shrinks
+         */
+        private double rttTolerance = 1.5;
+
+        /**
+         * Weight given to each adjustment, between 0 and 1
+         */
+        private double smoothing = 0.2;
+
+        /**
+         * Value of the Retry-After header on rejected requests
+         */
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        /**
+         * Overrides per key alias on the token
+         */
+        private Map<String, KeyLimit> keys = new LinkedHashMap<>();
+    }
+
+    /**
+     * Concurrency limit overrides for one key; unset values fall back to the defaults
+     */
+    @Data
+    public static class KeyLimit {
+
+        private Boolean enabled;
+
+        private Integer initialLimit;
+
+        private Integer minLimit;
+
+        private Integer maxLimit;
+    }
+
+    /**
+     * Fair scheduling of signing operations across tenants, with per-tenant quotas and priority lanes
+     */
+    @Data
+    public static class Scheduling {
+
+        private boolean enabled = false;
+
+        /**
+         * Signing operations allowed on the tokens at once, ideally their total session count
+         */
+        private int permits = 16;
+
+        /**
+         * Permits bulk requests may never take, kept free for interactive ones
+         */
+        private int interactiveReserved = 2;
+
+        /**
+         * Requests that may wait for a permit before new ones are rejected with 429
+         */
+        private int maxQueue = 1000;
+
+        /**
+         * Longest a request waits for a permit before it is rejected with 429
+         */
+        private Duration queueTimeout = Duration.ofSeconds(5);
+
+        /**
+         * Settings of requests from callers that are not listed under tenants
+         */
+        private Tenant defaultTenant = new Tenant();
+
+        /**
+         * Known tenants by name, as sent in the X-Tenant-Id header or the request name
+         */
+        private Map<String, Tenant> tenants = new LinkedHashMap<>();
+    }
+
+    /**
+     * Share, quota and default lane of one tenant
+     */
+    @Data
+    public static class Tenant {
+
+        /**
+         * Share of the permits relative to other tenants waiting in the same lane
+         */
+        private double weight = 1;
+
+        /**
+         * Lane used when the request does not ask for one with X-Priority
+         */
+        private Lane lane = Lane.INTERACTIVE;
+
+        /**
+         * Sustained requests per second; 0 means no quota
+         */
+        private double rate = 0;
+
+        /**
+         * Requests that may be made at once on top of the rate
+         */
+        private int burst = 10;
+    }
+}
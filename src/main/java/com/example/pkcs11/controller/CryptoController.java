@@ -1,43 +1,102 @@
 package com.example.pkcs11.controller;
 
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.dto.BatchSignRequest;
+import com.example.pkcs11.dto.BatchSignResponse;
+import com.example.pkcs11.dto.BatchVerifyRequest;
+import com.example.pkcs11.dto.BatchVerifyResponse;
+import com.example.pkcs11.dto.JobStatus;
+import com.example.pkcs11.dto.MerkleSignResponse;
+import com.example.pkcs11.dto.MerkleVerifyRequest;
 import com.example.pkcs11.dto.SignRequest;
 import com.example.pkcs11.dto.SignResponse;
+import com.example.pkcs11.dto.VerifyRequest;
+import com.example.pkcs11.dto.VerifyResponse;
+import com.example.pkcs11.exception.OverloadedException;
+import com.example.pkcs11.jobs.SigningJobService;
+import com.example.pkcs11.merkle.MerkleBatcher;
+import com.example.pkcs11.service.BatchSigningService;
+import com.example.pkcs11.service.DigestAlgorithm;
 import com.example.pkcs11.service.SigningService;
+import com.example.pkcs11.service.StreamingSigningService;
+import com.example.pkcs11.service.VerificationService;
+import com.example.pkcs11.timing.RequestTimings;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.util.Map;
 
 @Slf4j
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/v1/crypto")
 public class CryptoController {
 
+    static final String HEADER_KEY_LABEL = "X-Key-Label";
+    static final String HEADER_ALGORITHM = "X-Algorithm";
+    static final String HEADER_DIGEST_ALGORITHM = "X-Digest-Algorithm";
+    static final String HEADER_NAME = "X-Request-Name";
+    static final String HEADER_HASH_ALGORITHM = "X-Hash-Algorithm";
+    static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+    static final MediaType PEM_CERTIFICATE_CHAIN = MediaType.parseMediaType("application/pem-certificate-chain");
+
     @Autowired
     private SigningService signingService;
 
+    @Autowired
+    private BatchSigningService batchSigningService;
+
+    @Autowired
+    private StreamingSigningService streamingSigningService;
+
+    @Autowired
+    private VerificationService verificationService;
+
+    @Autowired
+    private MerkleBatcher merkleBatcher;
+
+    @Autowired
+    private SigningJobService signingJobService;
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private ServiceInfo serviceInfo;
+
     /**
      * Signs data using PKCS#11 token
      */
     @PostMapping("/sign")
-    public ResponseEntity<SignResponse> signData(@Valid @RequestBody SignRequest request) {
+    public ResponseEntity<SignResponse> signData(
+            @Valid @RequestBody SignRequest request,
+            @RequestHeader(value = HEADER_IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        RequestTimings.endRead(request.getKeyLabel());
         log.debug("Received signing request for key: {}, algorithm: {}",
                    request.getKeyLabel(), request.getAlgorithm());
         
         try {
             // Validate input data format
-            signingService.validateInputData(request.getData());
+            signingService.validateInputData(request.getData(), request.getDigestAlgorithm());
             
             // Perform signing operation
             String signature = signingService.signData(
                 request.getKeyLabel(),
                 request.getAlgorithm(),
                 request.getData(),
-                request.getName()
+                request.getDigestAlgorithm(),
+                request.getName(),
+                idempotencyKey
             );
             
             SignResponse response = new SignResponse(signature);
@@ -45,22 +104,258 @@ public class CryptoController {
             log.debug("Successfully completed signing request for key: {}", request.getKeyLabel());
             return ResponseEntity.ok(response);
             
+        } catch (OverloadedException e) {
+            // Shed requests are expected under load; skip the stack trace
+            throw e;
         } catch (Exception e) {
-            log.error("Failed to process signing request for key: {}", request.getKeyLabel(), e);
+            log.error("Failed to process signing request for key: {}: {}", request.getKeyLabel(), e.getMessage());
             throw e; // Let GlobalExceptionHandler handle it
         }
     }
 
+    /**
+     * Signs a raw request body with the key label and algorithm taken from headers, returning the raw signature.
+     * Skips JSON and base64 entirely; the body is read once into a buffer sized from Content-Length.
+     */
+    @PostMapping(value = "/sign", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> signBinary(
+            @RequestHeader(value = HEADER_KEY_LABEL, required = false) String keyLabel,
+            @RequestHeader(value = HEADER_ALGORITHM, required = false) String algorithm,
+            @RequestHeader(value = HEADER_DIGEST_ALGORITHM, required = false) String digestAlgorithm,
+            @RequestHeader(value = HEADER_NAME, required = false) String name,
+            @RequestHeader(value = HEADER_IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            HttpServletRequest request) throws IOException {
+        return signRawBody(keyLabel, algorithm, digestAlgorithm, name, idempotencyKey, request);
+    }
+
+    /**
+     * Signs a raw request body with the key label and algorithm taken from the path, returning the raw signature
+     */
+    @PostMapping(value = "/sign/{keyLabel}/{algorithm}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> signBinaryPath(
+            @PathVariable String keyLabel,
+            @PathVariable String algorithm,
+            @RequestHeader(value = HEADER_DIGEST_ALGORITHM, required = false) String digestAlgorithm,
+            @RequestHeader(value = HEADER_NAME, required = false) String name,
+            @RequestHeader(value = HEADER_IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            HttpServletRequest request) throws IOException {
+        return signRawBody(keyLabel, algorithm, digestAlgorithm, name, idempotencyKey, request);
+    }
+
+    private ResponseEntity<byte[]> signRawBody(String keyLabel, String algorithm, String digestAlgorithm, String name,
+                                               String idempotencyKey, HttpServletRequest request) throws IOException {
+        log.debug("Received binary signing request for key: {}, algorithm: {}", keyLabel, algorithm);
+        if (keyLabel == null || keyLabel.isBlank()) {
+            throw new IllegalArgumentException("Key label is required");
+        }
+        if (!"RSA".equals(algorithm) && !"EC".equals(algorithm)) {
+            throw new IllegalArgumentException("Algorithm must be either 'RSA' or 'EC'");
+        }
+
+        byte[] data = readBody(request, pkcs11Properties.getBinary().getMaxBodySize().toBytes());
+        RequestTimings.endRead(keyLabel);
+        if (digestAlgorithm != null) {
+            DigestAlgorithm.fromName(digestAlgorithm).validateDigest(data);
+        }
+
+        byte[] signature = signingService.signBytes(keyLabel, algorithm, data, digestAlgorithm,
+                name == null ? "binary" : name, idempotencyKey);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(signature);
+    }
+
+    /**
+     * Signs a document of any size, streamed as the request body. It is hashed locally in chunks
+     * (SHA-256 unless X-Hash-Algorithm says otherwise) and only the digest is signed on the token.
+     */
+    @PostMapping(value = "/sign/stream/{keyLabel}/{algorithm}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> signStream(
+            @PathVariable String keyLabel,
+            @PathVariable String algorithm,
+            @RequestHeader(value = HEADER_HASH_ALGORITHM, required = false) String hashAlgorithm,
+            @RequestHeader(value = HEADER_NAME, required = false) String name,
+            HttpServletRequest request) throws IOException {
+        // The body is read while it is hashed
+        RequestTimings.endRead(keyLabel);
+        log.debug("Received streaming signing request for key: {}, algorithm: {}", keyLabel, algorithm);
+        if (!"RSA".equals(algorithm) && !"EC".equals(algorithm)) {
+            throw new IllegalArgumentException("Algorithm must be either 'RSA' or 'EC'");
+        }
+
+        byte[] signature;
+        try (InputStream body = request.getInputStream()) {
+            signature = streamingSigningService.signStream(keyLabel, algorithm, hashAlgorithm, body,
+                    name == null ? "stream" : name);
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(signature);
+    }
+
+    /**
+     * Signs a JSON request like /sign, but decodes and hashes the base64 data as it is parsed,
+     * so large documents never sit in memory as a String
+     */
+    @PostMapping(value = "/sign/stream", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<SignResponse> signJsonStream(HttpServletRequest request) throws IOException {
+        RequestTimings.endRead(null);
+        try (InputStream body = request.getInputStream()) {
+            return ResponseEntity.ok(streamingSigningService.signJsonStream(body));
+        }
+    }
+
+    /**
+     * Reads the request body straight into a byte array, without an intermediate String
+     */
+    private static byte[] readBody(HttpServletRequest request, long maxBytes) throws IOException {
+        long contentLength = request.getContentLengthLong();
+        if (contentLength > maxBytes) {
+            throw new IllegalArgumentException(
+                    String.format("Request body of %d bytes exceeds the maximum of %d bytes", contentLength, maxBytes));
+        }
+
+        byte[] data;
+        try (InputStream body = request.getInputStream()) {
+            if (contentLength >= 0) {
+                data = body.readNBytes((int) contentLength);
+            } else {
+                // Chunked upload: read one byte past the limit to detect oversized bodies
+                data = body.readNBytes((int) Math.min(Integer.MAX_VALUE - 8, maxBytes + 1));
+                if (data.length > maxBytes) {
+                    throw new IllegalArgumentException("Request body exceeds the maximum of " + maxBytes + " bytes");
+                }
+            }
+        }
+        if (data.length == 0) {
+            throw new IllegalArgumentException("Input data cannot be null or empty");
+        }
+        return data;
+    }
+
+    /**
+     * Signs a batch of items, possibly for different keys, in a single round trip
+     */
+    @PostMapping("/sign/batch")
+    public ResponseEntity<BatchSignResponse> signBatch(@Valid @RequestBody BatchSignRequest request) {
+        RequestTimings.endRead(null);
+        log.debug("Received batch signing request with {} items", request.getItems().size());
+        return ResponseEntity.ok(batchSigningService.signBatch(request.getItems()));
+    }
+
+    /**
+     * Submits a batch as an asynchronous job; poll /jobs/{id} for its progress
+     */
+    @PostMapping(value = "/jobs", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatus> submitJob(@Valid @RequestBody BatchSignRequest request) {
+        RequestTimings.endRead(null);
+        log.debug("Received signing job with {} items", request.getItems().size());
+        return accepted(signingJobService.submit(request.getItems()));
+    }
+
+    /**
+     * Submits a job of any size as newline-delimited sign requests; the body is copied to disk as it arrives
+     */
+    @PostMapping(value = "/jobs", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<JobStatus> submitJobStream(HttpServletRequest request) throws IOException {
+        RequestTimings.endRead(null);
+        try (InputStream body = request.getInputStream()) {
+            return accepted(signingJobService.submit(body));
+        }
+    }
+
+    /**
+     * Gets the progress of a signing job
+     */
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<JobStatus> jobStatus(@PathVariable String id) {
+        return ResponseEntity.ok(signingJobService.getStatus(id));
+    }
+
+    /**
+     * Streams the results a signing job has so far, one JSON line per item in completion order
+     */
+    @GetMapping("/jobs/{id}/results")
+    public ResponseEntity<InputStreamResource> jobResults(@PathVariable String id) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(new InputStreamResource(signingJobService.openResults(id)));
+    }
+
+    static ResponseEntity<JobStatus> accepted(JobStatus status) {
+        return ResponseEntity.accepted()
+                .location(URI.create("/v1/crypto/jobs/" + status.getId()))
+                .body(status);
+    }
+
+    /**
+     * Verifies a signature in software with the key's certificate; the token is not involved
+     */
+    @PostMapping("/verify")
+    public ResponseEntity<VerifyResponse> verify(@Valid @RequestBody VerifyRequest request) {
+        RequestTimings.endRead(request.getKeyLabel());
+        log.debug("Received verification request for key: {}, algorithm: {}",
+                request.getKeyLabel(), request.getAlgorithm());
+        boolean valid = verificationService.verify(
+                request.getKeyLabel(),
+                request.getAlgorithm(),
+                VerificationService.decode(request.getData(), "Input data"),
+                request.getDigestAlgorithm(),
+                VerificationService.decode(request.getSignature(), "Signature"));
+        return ResponseEntity.ok(new VerifyResponse(valid));
+    }
+
+    /**
+     * Verifies a batch of signatures, spread over all cores
+     */
+    @PostMapping("/verify/batch")
+    public ResponseEntity<BatchVerifyResponse> verifyBatch(@Valid @RequestBody BatchVerifyRequest request) {
+        RequestTimings.endRead(null);
+        log.debug("Received batch verification request with {} items", request.getItems().size());
+        return ResponseEntity.ok(verificationService.verifyBatch(request.getItems()));
+    }
+
+    /**
+     * Signs a document as a leaf of a Merkle tree shared with the documents arriving within the batch window.
+     * The response holds the signature over the root and the document's inclusion proof.
+     */
+    @PostMapping("/sign/merkle")
+    public ResponseEntity<MerkleSignResponse> signMerkle(@Valid @RequestBody SignRequest request) {
+        RequestTimings.endRead(request.getKeyLabel());
+        log.debug("Received Merkle signing request for key: {}, algorithm: {}",
+                request.getKeyLabel(), request.getAlgorithm());
+        return ResponseEntity.ok(merkleBatcher.sign(
+                request.getKeyLabel(),
+                request.getAlgorithm(),
+                VerificationService.decode(request.getData(), "Input data"),
+                request.getDigestAlgorithm()));
+    }
+
+    /**
+     * Verifies a document's Merkle inclusion proof and the signature over the root
+     */
+    @PostMapping("/verify/merkle")
+    public ResponseEntity<VerifyResponse> verifyMerkle(@Valid @RequestBody MerkleVerifyRequest request) {
+        RequestTimings.endRead(request.getKeyLabel());
+        return ResponseEntity.ok(new VerifyResponse(verificationService.verifyMerkle(request)));
+    }
+
+    /**
+     * Gets the certificate chain of a key as PEM
+     */
+    @GetMapping("/keys/{keyLabel}/certificate")
+    public ResponseEntity<String> certificateChain(@PathVariable String keyLabel) {
+        return ResponseEntity.ok()
+                .contentType(PEM_CERTIFICATE_CHAIN)
+                .body(verificationService.getCertificateChainPem(keyLabel));
+    }
+
     /**
      * Health check endpoint
      */
     @GetMapping("/health")
     public ResponseEntity<Map<String, String>> health() {
-        Map<String, String> status = new HashMap<>();
-        status.put("status", "UP");
-        status.put("service", "PKCS#11 Signing Service");
-        status.put("info", signingService.getSigningInfo());
-        return ResponseEntity.ok(status);
+        return ResponseEntity.ok(serviceInfo.health());
     }
 
     /**
@@ -68,16 +363,6 @@ public class CryptoController {
      */
     @GetMapping("/info")
     public ResponseEntity<Map<String, Object>> info() {
-        Map<String, Object> info = new HashMap<>();
-        info.put("service", "PKCS#11 Signing Service");
-        info.put("version", "1.0.0");
-        info.put("description", "REST API for signing data using PKCS#11 tokens");
-        info.put("supportedAlgorithms", new String[]{"RSA", "EC"});
-        info.put("endpoints", Map.of(
-            "sign", "POST /v1/crypto/sign",
-            "health", "GET /v1/crypto/health",
-            "info", "GET /v1/crypto/info"
-        ));
-        return ResponseEntity.ok(info);
+        return ResponseEntity.ok(serviceInfo.info());
     }
 }
\ No newline at end of file
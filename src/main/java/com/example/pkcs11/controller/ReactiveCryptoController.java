@@ -0,0 +1,428 @@
+package com.example.pkcs11.controller;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.dto.BatchSignRequest;
+import com.example.pkcs11.dto.BatchSignResponse;
+import com.example.pkcs11.dto.BatchVerifyRequest;
+import com.example.pkcs11.dto.BatchVerifyResponse;
+import com.example.pkcs11.dto.JobStatus;
+import com.example.pkcs11.dto.MerkleSignResponse;
+import com.example.pkcs11.dto.MerkleVerifyRequest;
+import com.example.pkcs11.dto.SignRequest;
+import com.example.pkcs11.dto.SignResponse;
+import com.example.pkcs11.dto.VerifyRequest;
+import com.example.pkcs11.dto.VerifyResponse;
+import com.example.pkcs11.exception.OverloadedException;
+import com.example.pkcs11.jobs.SigningJobService;
+import com.example.pkcs11.merkle.MerkleBatcher;
+import com.example.pkcs11.scheduling.TenantContext;
+import com.example.pkcs11.service.BatchSigningService;
+import com.example.pkcs11.service.DigestAlgorithm;
+import com.example.pkcs11.service.SigningService;
+import com.example.pkcs11.service.StreamingSigningService;
+import com.example.pkcs11.service.VerificationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.example.pkcs11.controller.CryptoController.HEADER_ALGORITHM;
+import static com.example.pkcs11.controller.CryptoController.HEADER_DIGEST_ALGORITHM;
+import static com.example.pkcs11.controller.CryptoController.HEADER_HASH_ALGORITHM;
+import static com.example.pkcs11.controller.CryptoController.HEADER_IDEMPOTENCY_KEY;
+import static com.example.pkcs11.controller.CryptoController.HEADER_KEY_LABEL;
+import static com.example.pkcs11.controller.CryptoController.HEADER_NAME;
+import static com.example.pkcs11.controller.CryptoController.PEM_CERTIFICATE_CHAIN;
+
+/**
+ * Non-blocking equivalent of {@link CryptoController}, active when the application runs as a reactive web app.
+ * <p>
+ * Request bodies are read on the event loop; every call that reaches the token is moved to the bounded
+ * {@code hsmScheduler}, so waiting connections hold no threads and token concurrency stays at its session count.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/v1/crypto")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveCryptoController {
+
+    @Autowired
+    private SigningService signingService;
+
+    @Autowired
+    private BatchSigningService batchSigningService;
+
+    @Autowired
+    private StreamingSigningService streamingSigningService;
+
+    @Autowired
+    private VerificationService verificationService;
+
+    @Autowired
+    private MerkleBatcher merkleBatcher;
+
+    @Autowired
+    private SigningJobService signingJobService;
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private ServiceInfo serviceInfo;
+
+    @Autowired
+    @Qualifier("hsmScheduler")
+    private Scheduler hsmScheduler;
+
+    /**
+     * Signs data using PKCS#11 token
+     */
+    @PostMapping("/sign")
+    public Mono<ResponseEntity<SignResponse>> signData(
+            @Valid @RequestBody SignRequest request,
+            @RequestHeader(value = HEADER_IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        log.debug("Received signing request for key: {}, algorithm: {}",
+                request.getKeyLabel(), request.getAlgorithm());
+        signingService.validateInputData(request.getData(), request.getDigestAlgorithm());
+
+        return onToken(() -> signingService.signData(
+                request.getKeyLabel(),
+                request.getAlgorithm(),
+                request.getData(),
+                request.getDigestAlgorithm(),
+                request.getName(),
+                idempotencyKey))
+                .map(signature -> ResponseEntity.ok(new SignResponse(signature)));
+    }
+
+    /**
+     * Signs a raw request body with the key label and algorithm taken from headers, returning the raw signature
+     */
+    @PostMapping(value = "/sign", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<ResponseEntity<byte[]>> signBinary(
+            @RequestHeader(value = HEADER_KEY_LABEL, required = false) String keyLabel,
+            @RequestHeader(value = HEADER_ALGORITHM, required = false) String algorithm,
+            @RequestHeader(value = HEADER_DIGEST_ALGORITHM, required = false) String digestAlgorithm,
+            @RequestHeader(value = HEADER_NAME, required = false) String name,
+            @RequestHeader(value = HEADER_IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            ServerHttpRequest request) {
+        return signRawBody(keyLabel, algorithm, digestAlgorithm, name, idempotencyKey, request);
+    }
+
+    /**
+     * Signs a raw request body with the key label and algorithm taken from the path, returning the raw signature
+     */
+    @PostMapping(value = "/sign/{keyLabel}/{algorithm}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<ResponseEntity<byte[]>> signBinaryPath(
+            @PathVariable String keyLabel,
+            @PathVariable String algorithm,
+            @RequestHeader(value = HEADER_DIGEST_ALGORITHM, required = false) String digestAlgorithm,
+            @RequestHeader(value = HEADER_NAME, required = false) String name,
+            @RequestHeader(value = HEADER_IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            ServerHttpRequest request) {
+        return signRawBody(keyLabel, algorithm, digestAlgorithm, name, idempotencyKey, request);
+    }
+
+    private Mono<ResponseEntity<byte[]>> signRawBody(String keyLabel, String algorithm, String digestAlgorithm,
+                                                     String name, String idempotencyKey, ServerHttpRequest request) {
+        log.debug("Received binary signing request for key: {}, algorithm: {}", keyLabel, algorithm);
+        if (keyLabel == null || keyLabel.isBlank()) {
+            throw new IllegalArgumentException("Key label is required");
+        }
+        validateAlgorithm(algorithm);
+
+        return readBody(request, pkcs11Properties.getBinary().getMaxBodySize().toBytes())
+                .flatMap(data -> {
+                    if (digestAlgorithm != null) {
+                        DigestAlgorithm.fromName(digestAlgorithm).validateDigest(data);
+                    }
+                    return onToken(() -> signingService.signBytes(keyLabel, algorithm, data, digestAlgorithm,
+                            name == null ? "binary" : name, idempotencyKey));
+                })
+                .map(ReactiveCryptoController::binaryResponse);
+    }
+
+    /**
+     * Signs a document of any size, hashing each chunk of the body as it arrives; only the digest is signed on the token
+     */
+    @PostMapping(value = "/sign/stream/{keyLabel}/{algorithm}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<ResponseEntity<byte[]>> signStream(
+            @PathVariable String keyLabel,
+            @PathVariable String algorithm,
+            @RequestHeader(value = HEADER_HASH_ALGORITHM, required = false) String hashAlgorithm,
+            @RequestHeader(value = HEADER_NAME, required = false) String name,
+            ServerHttpRequest request) {
+        log.debug("Received streaming signing request for key: {}, algorithm: {}", keyLabel, algorithm);
+        validateAlgorithm(algorithm);
+        DigestAlgorithm digestAlgorithm = StreamingSigningService.resolveHashAlgorithm(hashAlgorithm);
+        MessageDigest messageDigest = digestAlgorithm.newMessageDigest();
+
+        return request.getBody()
+                .reduce(0L, (total, buffer) -> {
+                    try {
+                        int length = buffer.readableByteCount();
+                        messageDigest.update(buffer.asByteBuffer());
+                        return total + length;
+                    } finally {
+                        DataBufferUtils.release(buffer);
+                    }
+                })
+                .flatMap(total -> {
+                    if (total == 0) {
+                        return Mono.error(new IllegalArgumentException("Input data cannot be null or empty"));
+                    }
+                    log.debug("Hashed {} bytes with {} for key: {}", total, digestAlgorithm.getJcaName(), keyLabel);
+                    return onToken(() -> signingService.signBytes(keyLabel, algorithm, messageDigest.digest(),
+                            digestAlgorithm.getJcaName(), name == null ? "stream" : name));
+                })
+                .map(ReactiveCryptoController::binaryResponse);
+    }
+
+    /**
+     * Signs a JSON request like /sign. The body is collected up to the binary size limit and then parsed
+     * and hashed on the HSM scheduler.
+     */
+    @PostMapping(value = "/sign/stream", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<SignResponse>> signJsonStream(ServerHttpRequest request) {
+        return join(request, pkcs11Properties.getBinary().getMaxBodySize().toBytes())
+                .flatMap(body -> onToken(() -> streamingSigningService.signJsonStream(body.asInputStream(true))))
+                .map(ResponseEntity::ok);
+    }
+
+    /**
+     * Signs a batch of items, possibly for different keys, in a single round trip
+     */
+    @PostMapping("/sign/batch")
+    public Mono<ResponseEntity<BatchSignResponse>> signBatch(@Valid @RequestBody BatchSignRequest request) {
+        log.debug("Received batch signing request with {} items", request.getItems().size());
+        return onToken(() -> batchSigningService.signBatch(request.getItems()))
+                .map(ResponseEntity::ok);
+    }
+
+    /**
+     * Submits a batch as an asynchronous job; poll /jobs/{id} for its progress
+     */
+    @PostMapping(value = "/jobs", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<JobStatus>> submitJob(@Valid @RequestBody BatchSignRequest request) {
+        log.debug("Received signing job with {} items", request.getItems().size());
+        return onFiles(() -> signingJobService.submit(request.getItems()))
+                .map(CryptoController::accepted);
+    }
+
+    /**
+     * Submits a job of any size as newline-delimited sign requests. The body is spooled to a temporary
+     * file as it arrives and then stored as a job off the event loop.
+     */
+    @PostMapping(value = "/jobs", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<JobStatus>> submitJobStream(ServerHttpRequest request) {
+        return Mono.using(() -> Files.createTempFile("signing-job-", ".jsonl"),
+                        upload -> DataBufferUtils.write(request.getBody(), upload, StandardOpenOption.WRITE)
+                                .then(onFiles(() -> {
+                                    try (InputStream body = Files.newInputStream(upload)) {
+                                        return signingJobService.submit(body);
+                                    }
+                                })),
+                        ReactiveCryptoController::deleteUpload)
+                .map(CryptoController::accepted);
+    }
+
+    /**
+     * Gets the progress of a signing job
+     */
+    @GetMapping("/jobs/{id}")
+    public Mono<ResponseEntity<JobStatus>> jobStatus(@PathVariable String id) {
+        return Mono.fromCallable(() -> ResponseEntity.ok(signingJobService.getStatus(id)));
+    }
+
+    /**
+     * Streams the results a signing job has so far, one JSON line per item in completion order
+     */
+    @GetMapping("/jobs/{id}/results")
+    public ResponseEntity<Flux<DataBuffer>> jobResults(@PathVariable String id) {
+        // Fails with 404 before the response starts
+        signingJobService.getStatus(id);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(DataBufferUtils.readInputStream(() -> signingJobService.openResults(id),
+                                DefaultDataBufferFactory.sharedInstance, 8192)
+                        .subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    private static void deleteUpload(Path upload) {
+        try {
+            Files.deleteIfExists(upload);
+        } catch (IOException e) {
+            log.warn("Failed to delete job upload {}: {}", upload, e.getMessage());
+        }
+    }
+
+    /**
+     * Verifies a signature in software with the key's certificate. It never reaches the token, so it runs
+     * on the CPU-bound parallel scheduler instead of the HSM scheduler.
+     */
+    @PostMapping("/verify")
+    public Mono<ResponseEntity<VerifyResponse>> verify(@Valid @RequestBody VerifyRequest request) {
+        log.debug("Received verification request for key: {}, algorithm: {}",
+                request.getKeyLabel(), request.getAlgorithm());
+        return Mono.fromCallable(() -> verificationService.verify(
+                        request.getKeyLabel(),
+                        request.getAlgorithm(),
+                        VerificationService.decode(request.getData(), "Input data"),
+                        request.getDigestAlgorithm(),
+                        VerificationService.decode(request.getSignature(), "Signature")))
+                .subscribeOn(Schedulers.parallel())
+                .map(valid -> ResponseEntity.ok(new VerifyResponse(valid)));
+    }
+
+    /**
+     * Verifies a batch of signatures, spread over all cores; only the wait for the batch blocks
+     */
+    @PostMapping("/verify/batch")
+    public Mono<ResponseEntity<BatchVerifyResponse>> verifyBatch(@Valid @RequestBody BatchVerifyRequest request) {
+        log.debug("Received batch verification request with {} items", request.getItems().size());
+        return Mono.fromCallable(() -> verificationService.verifyBatch(request.getItems()))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(ResponseEntity::ok);
+    }
+
+    /**
+     * Signs a document as a leaf of a Merkle tree shared with the documents arriving within the batch window.
+     * Waiting for the batch holds no thread; the root is signed on the Merkle scheduler.
+     */
+    @PostMapping("/sign/merkle")
+    public Mono<ResponseEntity<MerkleSignResponse>> signMerkle(@Valid @RequestBody SignRequest request) {
+        log.debug("Received Merkle signing request for key: {}, algorithm: {}",
+                request.getKeyLabel(), request.getAlgorithm());
+        return Mono.fromCallable(() -> MerkleBatcher.documentDigest(
+                        VerificationService.decode(request.getData(), "Input data"), request.getDigestAlgorithm()))
+                .flatMap(digest -> Mono.fromFuture(
+                        merkleBatcher.submit(request.getKeyLabel(), request.getAlgorithm(), digest)))
+                .map(ResponseEntity::ok);
+    }
+
+    /**
+     * Verifies a document's Merkle inclusion proof and the signature over the root
+     */
+    @PostMapping("/verify/merkle")
+    public Mono<ResponseEntity<VerifyResponse>> verifyMerkle(@Valid @RequestBody MerkleVerifyRequest request) {
+        return Mono.fromCallable(() -> verificationService.verifyMerkle(request))
+                .subscribeOn(Schedulers.parallel())
+                .map(valid -> ResponseEntity.ok(new VerifyResponse(valid)));
+    }
+
+    /**
+     * Gets the certificate chain of a key as PEM
+     */
+    @GetMapping("/keys/{keyLabel}/certificate")
+    public Mono<ResponseEntity<String>> certificateChain(@PathVariable String keyLabel) {
+        return Mono.fromCallable(() -> ResponseEntity.ok()
+                .contentType(PEM_CERTIFICATE_CHAIN)
+                .body(verificationService.getCertificateChainPem(keyLabel)));
+    }
+
+    /**
+     * Health check endpoint
+     */
+    @GetMapping("/health")
+    public Mono<ResponseEntity<Map<String, String>>> health() {
+        return Mono.fromSupplier(() -> ResponseEntity.ok(serviceInfo.health()));
+    }
+
+    /**
+     * Get service information
+     */
+    @GetMapping("/info")
+    public Mono<ResponseEntity<Map<String, Object>>> info() {
+        return Mono.fromSupplier(() -> ResponseEntity.ok(serviceInfo.info()));
+    }
+
+    /**
+     * Runs a blocking token call on the HSM scheduler, as the tenant bound to the request. When the scheduler's
+     * queue is full the request is shed with a 429.
+     */
+    private <T> Mono<T> onToken(Callable<T> call) {
+        return Mono.deferContextual(context -> Mono.fromCallable(
+                        TenantContext.wrap(context.getOrDefault(TenantContext.class, null), call)))
+                .subscribeOn(hsmScheduler)
+                .onErrorMap(RejectedExecutionException.class, e -> new OverloadedException(
+                        "HSM scheduler queue full", pkcs11Properties.getConcurrencyLimit().getRetryAfter()));
+    }
+
+    /**
+     * Runs a blocking file operation on the bounded elastic scheduler, as the tenant bound to the request
+     */
+    private <T> Mono<T> onFiles(Callable<T> call) {
+        return Mono.deferContextual(context -> Mono.fromCallable(
+                        TenantContext.wrap(context.getOrDefault(TenantContext.class, null), call)))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Collects the request body into a single byte array of at most maxBytes
+     */
+    private static Mono<byte[]> readBody(ServerHttpRequest request, long maxBytes) {
+        return join(request, maxBytes).map(buffer -> {
+            try {
+                byte[] data = new byte[buffer.readableByteCount()];
+                buffer.read(data);
+                return data;
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        });
+    }
+
+    private static Mono<DataBuffer> join(ServerHttpRequest request, long maxBytes) {
+        long contentLength = request.getHeaders().getContentLength();
+        if (contentLength > maxBytes) {
+            return Mono.error(new IllegalArgumentException(
+                    String.format("Request body of %d bytes exceeds the maximum of %d bytes", contentLength, maxBytes)));
+        }
+        return DataBufferUtils.join(request.getBody(), (int) Math.min(Integer.MAX_VALUE - 8, maxBytes))
+                .onErrorMap(DataBufferLimitException.class,
+                        e -> new IllegalArgumentException("Request body exceeds the maximum of " + maxBytes + " bytes"))
+                .filter(buffer -> {
+                    if (buffer.readableByteCount() == 0) {
+                        DataBufferUtils.release(buffer);
+                        return false;
+                    }
+                    return true;
+                })
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Input data cannot be null or empty")));
+    }
+
+    private static void validateAlgorithm(String algorithm) {
+        if (!"RSA".equals(algorithm) && !"EC".equals(algorithm)) {
+            throw new IllegalArgumentException("Algorithm must be either 'RSA' or 'EC'");
+        }
+    }
+
+    private static ResponseEntity<byte[]> binaryResponse(byte[] signature) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(signature);
+    }
+}
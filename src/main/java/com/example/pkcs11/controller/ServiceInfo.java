@@ -0,0 +1,68 @@
+package com.example.pkcs11.controller;
+
+import com.example.pkcs11.jobs.SigningJobService;
+import com.example.pkcs11.merkle.MerkleBatcher;
+import com.example.pkcs11.service.SigningService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Health and info responses, shared by the servlet and reactive controllers
+ */
+@Component
+public class ServiceInfo {
+
+    @Autowired
+    private SigningService signingService;
+
+    @Autowired
+    private MerkleBatcher merkleBatcher;
+
+    @Autowired
+    private SigningJobService signingJobService;
+
+    public Map<String, String> health() {
+        Map<String, String> status = new HashMap<>();
+        status.put("status", "UP");
+        status.put("service", "PKCS#11 Signing Service");
+        status.put("info", signingService.getSigningInfo());
+        return status;
+    }
+
+    public Map<String, Object> info() {
+        Map<String, Object> info = new HashMap<>();
+        info.put("service", "PKCS#11 Signing Service");
+        info.put("version", "1.0.0");
+        info.put("description", "REST API for signing data using PKCS#11 tokens");
+        info.put("supportedAlgorithms", new String[]{"RSA", "EC"});
+        info.put("supportedDigestAlgorithms", new String[]{"SHA-256", "SHA-384", "SHA-512"});
+        info.put("signatureEnginePool", signingService.getEngineStatistics());
+        info.put("dispatcher", signingService.getDispatcherStatistics());
+        info.put("coalescing", signingService.getCoalescingStatistics());
+        info.put("recovery", signingService.getRecoveryStatistics());
+        info.put("hedging", signingService.getHedgingStatistics());
+        info.put("scheduling", signingService.getSchedulingStatistics());
+        info.put("signatureCache", signingService.getSignatureCacheStatistics());
+        info.put("concurrencyLimit", signingService.getConcurrencyLimitStatistics());
+        info.put("audit", signingService.getAuditStatistics());
+        info.put("merkle", merkleBatcher.getStatistics());
+        info.put("jobs", signingJobService.getStatistics());
+        info.put("endpoints", Map.ofEntries(
+            Map.entry("sign", "POST /v1/crypto/sign"),
+            Map.entry("signBinary", "POST /v1/crypto/sign/{keyLabel}/{algorithm} (application/octet-stream)"),
+            Map.entry("signStream", "POST /v1/crypto/sign/stream or /v1/crypto/sign/stream/{keyLabel}/{algorithm}"),
+            Map.entry("signBatch", "POST /v1/crypto/sign/batch"),
+            Map.entry("jobs", "POST /v1/crypto/jobs, GET /v1/crypto/jobs/{id} and /v1/crypto/jobs/{id}/results"),
+            Map.entry("verify", "POST /v1/crypto/verify or /v1/crypto/verify/batch"),
+            Map.entry("merkle", "POST /v1/crypto/sign/merkle and /v1/crypto/verify/merkle"),
+            Map.entry("certificate", "GET /v1/crypto/keys/{keyLabel}/certificate"),
+            Map.entry("health", "GET /v1/crypto/health"),
+            Map.entry("info", "GET /v1/crypto/info"),
+            Map.entry("grpc", "pkcs11.v1.SigningService/Sign, SignStream, Verify")
+        ));
+        return info;
+    }
+}
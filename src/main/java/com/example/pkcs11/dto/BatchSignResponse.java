@@ -0,0 +1,19 @@
+package com.example.pkcs11.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchSignResponse {
+
+    private int succeeded;
+
+    private int failed;
+
+    private List<BatchSignResult> results;
+}
@@ -0,0 +1,38 @@
+package com.example.pkcs11.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchSignResult {
+
+    private int index;
+
+    private String signature;
+
+    private String error;
+
+    private String message;
+
+    public static BatchSignResult success(int index, String signature) {
+        return new BatchSignResult(index, signature, null, null);
+    }
+
+    public static BatchSignResult failure(int index, String error, String message) {
+        return new BatchSignResult(index, null, error, message);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchSignResult{" +
+                "index=" + index +
+                ", signature='" + (signature == null ? null : "[REDACTED]") + '\'' +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
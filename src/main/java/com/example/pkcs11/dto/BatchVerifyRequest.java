@@ -0,0 +1,26 @@
+package com.example.pkcs11.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchVerifyRequest {
+
+    @NotEmpty(message = "At least one item is required")
+    @Valid
+    private List<VerifyRequest> items;
+
+    @Override
+    public String toString() {
+        return "BatchVerifyRequest{" +
+                "items=" + (items == null ? 0 : items.size()) +
+                '}';
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.pkcs11.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchVerifyResponse {
+
+    private int valid;
+
+    private int invalid;
+
+    private int failed;
+
+    private List<BatchVerifyResult> results;
+}
@@ -0,0 +1,29 @@
+package com.example.pkcs11.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchVerifyResult {
+
+    private int index;
+
+    private Boolean valid;
+
+    private String error;
+
+    private String message;
+
+    public static BatchVerifyResult of(int index, boolean valid) {
+        return new BatchVerifyResult(index, valid, null, null);
+    }
+
+    public static BatchVerifyResult failure(int index, String error, String message) {
+        return new BatchVerifyResult(index, null, error, message);
+    }
+}
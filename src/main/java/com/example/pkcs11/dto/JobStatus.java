@@ -0,0 +1,32 @@
+package com.example.pkcs11.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JobStatus {
+
+    private String id;
+
+    /**
+     * queued, running or completed
+     */
+    private String state;
+
+    private int total;
+
+    private int succeeded;
+
+    private int failed;
+
+    private Instant createdAt;
+
+    private Instant finishedAt;
+}
@@ -0,0 +1,27 @@
+package com.example.pkcs11.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.Pattern;
+
+/**
+ * One level of a Merkle inclusion proof: the sibling's hash and which side of the path it sits on
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MerkleProofStep {
+
+    public static final String LEFT = "left";
+    public static final String RIGHT = "right";
+
+    @NotBlank(message = "Proof hash is required")
+    private String hash;
+
+    @NotBlank(message = "Proof side is required")
+    @Pattern(regexp = "left|right", message = "Proof side must be either 'left' or 'right'")
+    private String side;
+}
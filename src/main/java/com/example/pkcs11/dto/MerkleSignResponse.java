@@ -0,0 +1,40 @@
+package com.example.pkcs11.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MerkleSignResponse {
+
+    /**
+     * Signature over the root, made as a signature of a SHA-256 digest
+     */
+    private String signature;
+
+    private String root;
+
+    /**
+     * Leaf hash of the caller's document digest
+     */
+    private String leaf;
+
+    private int leafIndex;
+
+    private int treeSize;
+
+    private List<MerkleProofStep> proof;
+
+    @Override
+    public String toString() {
+        return "MerkleSignResponse{" +
+                "leafIndex=" + leafIndex +
+                ", treeSize=" + treeSize +
+                ", signature='[REDACTED]'" +
+                '}';
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.pkcs11.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MerkleVerifyRequest {
+
+    @NotBlank(message = "Key label is required")
+    private String keyLabel;
+
+    @NotBlank(message = "Algorithm is required")
+    @Pattern(regexp = "RSA|EC", message = "Algorithm must be either 'RSA' or 'EC'")
+    private String algorithm;
+
+    @NotBlank(message = "Data is required")
+    private String data;
+
+    /**
+     * When set, data is the base64 encoded digest of the document computed with this algorithm
+     */
+    @Pattern(regexp = "SHA-256|SHA-384|SHA-512", message = "Digest algorithm must be one of 'SHA-256', 'SHA-384' or 'SHA-512'")
+    private String digestAlgorithm;
+
+    @NotBlank(message = "Signature is required")
+    private String signature;
+
+    @NotBlank(message = "Root is required")
+    private String root;
+
+    /**
+     * Sibling hashes from the leaf up; empty when the tree held a single document
+     */
+    @NotNull(message = "Proof is required")
+    @Valid
+    private List<MerkleProofStep> proof;
+
+    @Override
+    public String toString() {
+        return "MerkleVerifyRequest{" +
+                "keyLabel='" + keyLabel + '\'' +
+                ", algorithm='" + algorithm + '\'' +
+                ", digestAlgorithm='" + digestAlgorithm + '\'' +
+                ", proof=" + (proof == null ? 0 : proof.size()) +
+                ", data='[REDACTED]'" +
+                '}';
+    }
+}
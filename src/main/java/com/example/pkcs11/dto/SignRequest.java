@@ -27,12 +27,23 @@ public class SignRequest {
     @NotNull(message = "additional info to include in the log")
     private String name = "";
 
+    /**
+     * When set, data is the base64 encoded digest of the document computed with this algorithm
+     */
+    @Pattern(regexp = "SHA-256|SHA-384|SHA-512", message = "Digest algorithm must be one of 'SHA-256', 'SHA-384' or 'SHA-512'")
+    private String digestAlgorithm;
+
+    public SignRequest(String keyLabel, String algorithm, String data, String name) {
+        this(keyLabel, algorithm, data, name, null);
+    }
+
     @Override
     public String toString() {
         return "SignRequest{" +
                 "keyLabel='" + keyLabel + '\'' +
                 ", algorithm='" + algorithm + '\'' +
                 ", name='" + name + '\'' +
+                ", digestAlgorithm='" + digestAlgorithm + '\'' +
                 ", data='[REDACTED]'" +
                 '}';
     }
@@ -0,0 +1,43 @@
+package com.example.pkcs11.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.Pattern;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VerifyRequest {
+
+    @NotBlank(message = "Key label is required")
+    private String keyLabel;
+
+    @NotBlank(message = "Algorithm is required")
+    @Pattern(regexp = "RSA|EC", message = "Algorithm must be either 'RSA' or 'EC'")
+    private String algorithm;
+
+    @NotBlank(message = "Data is required")
+    private String data;
+
+    /**
+     * When set, data is the base64 encoded digest of the document computed with this algorithm
+     */
+    @Pattern(regexp = "SHA-256|SHA-384|SHA-512", message = "Digest algorithm must be one of 'SHA-256', 'SHA-384' or 'SHA-512'")
+    private String digestAlgorithm;
+
+    @NotBlank(message = "Signature is required")
+    private String signature;
+
+    @Override
+    public String toString() {
+        return "VerifyRequest{" +
+                "keyLabel='" + keyLabel + '\'' +
+                ", algorithm='" + algorithm + '\'' +
+                ", digestAlgorithm='" + digestAlgorithm + '\'' +
+                ", data='[REDACTED]'" +
+                '}';
+    }
+}
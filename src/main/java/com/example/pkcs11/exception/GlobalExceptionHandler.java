@@ -1,12 +1,16 @@
 package com.example.pkcs11.exception;
 
+import com.example.pkcs11.service.SigningMetrics;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.bind.support.WebExchangeBindException;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -15,28 +19,78 @@ import java.util.Map;
 @RestControllerAdvice
 public class GlobalExceptionHandler {
 
+    @Autowired
+    private SigningMetrics signingMetrics;
+
     @ExceptionHandler(KeyNotFoundException.class)
     public ResponseEntity<Map<String, String>> handleKeyNotFoundException(KeyNotFoundException ex) {
         log.error("Key not found: {}", ex.getMessage());
+        signingMetrics.recordError(ex);
         Map<String, String> error = new HashMap<>();
         error.put("error", "Key not found");
         error.put("message", ex.getMessage());
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(error);
     }
 
+    @ExceptionHandler(JobNotFoundException.class)
+    public ResponseEntity<Map<String, String>> handleJobNotFoundException(JobNotFoundException ex) {
+        log.warn("Job not found: {}", ex.getMessage());
+        Map<String, String> error = new HashMap<>();
+        error.put("error", "Job not found");
+        error.put("message", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(error);
+    }
+
+    @ExceptionHandler(IdempotencyConflictException.class)
+    public ResponseEntity<Map<String, String>> handleIdempotencyConflictException(IdempotencyConflictException ex) {
+        log.warn("Idempotency key conflict: {}", ex.getMessage());
+        signingMetrics.recordError(ex);
+        Map<String, String> error = new HashMap<>();
+        error.put("error", "Idempotency key conflict");
+        error.put("message", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(error);
+    }
+
     @ExceptionHandler(SigningException.class)
     public ResponseEntity<Map<String, String>> handleSigningException(SigningException ex) {
         log.error("Signing operation failed: {}", ex.getMessage(), ex);
+        signingMetrics.recordError(ex);
         Map<String, String> error = new HashMap<>();
         error.put("error", "Signing failed");
         error.put("message", ex.getMessage());
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
     }
 
+    @ExceptionHandler(TokenUnavailableException.class)
+    public ResponseEntity<Map<String, String>> handleTokenUnavailableException(TokenUnavailableException ex) {
+        log.warn("Token unavailable: {}", ex.getMessage());
+        signingMetrics.recordError(ex);
+        Map<String, String> error = new HashMap<>();
+        error.put("error", "Token unavailable");
+        error.put("message", ex.getMessage());
+        long retryAfterSeconds = Math.max(1, (ex.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(error);
+    }
+
+    @ExceptionHandler(OverloadedException.class)
+    public ResponseEntity<Map<String, String>> handleOverloadedException(OverloadedException ex) {
+        log.warn("Request rejected: {}", ex.getMessage());
+        signingMetrics.recordError(ex);
+        Map<String, String> error = new HashMap<>();
+        error.put("error", "Too many requests");
+        error.put("message", ex.getMessage());
+        long retryAfterSeconds = Math.max(1, (ex.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(error);
+    }
 
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public ResponseEntity<Map<String, String>> handleValidationExceptions(MethodArgumentNotValidException ex) {
         log.error("Validation failed: {}", ex.getMessage());
+        signingMetrics.recordError(ex);
         Map<String, String> errors = new HashMap<>();
         ex.getBindingResult().getAllErrors().forEach((error) -> {
             String fieldName = ((FieldError) error).getField();
@@ -46,9 +100,19 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(errors);
     }
 
+    @ExceptionHandler(WebExchangeBindException.class)
+    public ResponseEntity<Map<String, String>> handleReactiveValidationExceptions(WebExchangeBindException ex) {
+        log.error("Validation failed: {}", ex.getMessage());
+        signingMetrics.recordError(ex);
+        Map<String, String> errors = new HashMap<>();
+        ex.getBindingResult().getFieldErrors().forEach(error -> errors.put(error.getField(), error.getDefaultMessage()));
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(errors);
+    }
+
     @ExceptionHandler(IllegalArgumentException.class)
     public ResponseEntity<Map<String, String>> handleIllegalArgumentException(IllegalArgumentException ex) {
         log.error("Invalid argument: {}", ex.getMessage());
+        signingMetrics.recordError(ex);
         Map<String, String> error = new HashMap<>();
         error.put("error", "Invalid request");
         error.put("message", ex.getMessage());
@@ -58,6 +122,7 @@ public class GlobalExceptionHandler {
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String, String>> handleGenericException(Exception ex) {
         log.error("Unexpected error occurred: {}", ex.getMessage(), ex);
+        signingMetrics.recordError(ex);
         Map<String, String> error = new HashMap<>();
         error.put("error", "Internal server error");
         error.put("message", "An unexpected error occurred");
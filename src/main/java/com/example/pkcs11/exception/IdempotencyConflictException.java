@@ -0,0 +1,11 @@
+package com.example.pkcs11.exception;
+
+/**
+ * Thrown when an idempotency key is sent again with a different request than the one it was first used for
+ */
+public class IdempotencyConflictException extends RuntimeException {
+
+    public IdempotencyConflictException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.pkcs11.exception;
+
+public class JobNotFoundException extends RuntimeException {
+
+    public JobNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.pkcs11.exception;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a request is shed because the token is already at its concurrency limit
+ */
+public class OverloadedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public OverloadedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
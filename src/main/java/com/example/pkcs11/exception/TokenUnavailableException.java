@@ -0,0 +1,20 @@
+package com.example.pkcs11.exception;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a token's session is being re-established, or its recovery is backing off after failing
+ */
+public class TokenUnavailableException extends SigningException {
+
+    private final Duration retryAfter;
+
+    public TokenUnavailableException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
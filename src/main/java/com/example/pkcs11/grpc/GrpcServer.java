@@ -0,0 +1,84 @@
+package com.example.pkcs11.grpc;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import io.grpc.Server;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the gRPC server next to the web server, started and stopped with the application context
+ */
+@Slf4j
+@Component
+public class GrpcServer implements SmartLifecycle {
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private GrpcSigningService grpcSigningService;
+
+    @Autowired
+    @Qualifier("grpcExecutor")
+    private ExecutorService grpcExecutor;
+
+    private volatile Server server;
+
+    @Override
+    public void start() {
+        Pkcs11Properties.Grpc config = pkcs11Properties.getGrpc();
+        if (!config.isEnabled()) {
+            log.info("gRPC server disabled");
+            return;
+        }
+        try {
+            server = NettyServerBuilder.forPort(config.getPort())
+                    .executor(grpcExecutor)
+                    .maxInboundMessageSize((int) config.getMaxMessageSize().toBytes())
+                    .addService(grpcSigningService)
+                    .build()
+                    .start();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to start gRPC server on port " + config.getPort(), e);
+        }
+        log.info("gRPC server listening on port {}", server.getPort());
+    }
+
+    @Override
+    public void stop() {
+        Server running = server;
+        if (running == null) {
+            return;
+        }
+        running.shutdown();
+        try {
+            if (!running.awaitTermination(pkcs11Properties.getGrpc().getShutdownGracePeriod().toMillis(),
+                    TimeUnit.MILLISECONDS)) {
+                log.warn("gRPC calls still running after grace period, cancelling them");
+                running.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running.shutdownNow();
+        }
+        server = null;
+        log.info("gRPC server stopped");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return server != null;
+    }
+
+    public int getPort() {
+        return server == null ? -1 : server.getPort();
+    }
+}
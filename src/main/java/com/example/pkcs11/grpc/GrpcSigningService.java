@@ -0,0 +1,260 @@
+package com.example.pkcs11.grpc;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.KeyNotFoundException;
+import com.example.pkcs11.exception.OverloadedException;
+import com.example.pkcs11.exception.SigningException;
+import com.example.pkcs11.exception.TokenUnavailableException;
+import com.example.pkcs11.grpc.v1.SignError;
+import com.example.pkcs11.grpc.v1.SignRequest;
+import com.example.pkcs11.grpc.v1.SignResponse;
+import com.example.pkcs11.grpc.v1.SigningServiceGrpc;
+import com.example.pkcs11.grpc.v1.VerifyRequest;
+import com.example.pkcs11.grpc.v1.VerifyResponse;
+import com.example.pkcs11.service.DigestAlgorithm;
+import com.example.pkcs11.service.SigningMetrics;
+import com.example.pkcs11.service.SigningService;
+import com.example.pkcs11.service.VerificationService;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * gRPC front end of {@link SigningService}: raw bytes in and out, no JSON or base64.
+ * <p>
+ * Calls run on the {@code grpcExecutor}, which is sized to the tokens' sessions. SignStream reads at most
+ * {@code max-in-flight-per-stream} requests ahead and asks for the next one only when a signature has been
+ * sent and the client is ready for more, so a stream never queues more work than the HSM can take.
+ */
+@Slf4j
+@Component
+public class GrpcSigningService extends SigningServiceGrpc.SigningServiceImplBase {
+
+    @Autowired
+    private SigningService signingService;
+
+    @Autowired
+    private VerificationService verificationService;
+
+    @Autowired
+    private SigningMetrics signingMetrics;
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    @Qualifier("grpcExecutor")
+    private ExecutorService grpcExecutor;
+
+    @Override
+    public void sign(SignRequest request, StreamObserver<SignResponse> responseObserver) {
+        try {
+            responseObserver.onNext(SignResponse.newBuilder()
+                    .setRequestId(request.getRequestId())
+                    .setSignature(signRequest(request))
+                    .build());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(toStatus(e, request.getKeyLabel()).asRuntimeException());
+        }
+    }
+
+    @Override
+    public StreamObserver<SignRequest> signStream(StreamObserver<SignResponse> responseObserver) {
+        ServerCallStreamObserver<SignResponse> call = (ServerCallStreamObserver<SignResponse>) responseObserver;
+        SignStream stream = new SignStream(call);
+        call.disableAutoRequest();
+        call.setOnCancelHandler(stream::cancel);
+        call.setOnReadyHandler(stream::resume);
+        call.request(Math.max(1, pkcs11Properties.getGrpc().getMaxInFlightPerStream()));
+        return stream;
+    }
+
+    @Override
+    public void verify(VerifyRequest request, StreamObserver<VerifyResponse> responseObserver) {
+        try {
+            validate(request.getKeyLabel(), request.getAlgorithm(), request.getData());
+            if (request.getSignature().isEmpty()) {
+                throw new IllegalArgumentException("Signature is required");
+            }
+            boolean valid = verificationService.verify(request.getKeyLabel(), request.getAlgorithm(),
+                    request.getData().toByteArray(), emptyToNull(request.getDigestAlgorithm()),
+                    request.getSignature().toByteArray());
+            responseObserver.onNext(VerifyResponse.newBuilder().setValid(valid).build());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(toStatus(e, request.getKeyLabel()).asRuntimeException());
+        }
+    }
+
+    private ByteString signRequest(SignRequest request) {
+        validate(request.getKeyLabel(), request.getAlgorithm(), request.getData());
+        byte[] data = request.getData().toByteArray();
+        String digestAlgorithm = emptyToNull(request.getDigestAlgorithm());
+        if (digestAlgorithm != null) {
+            DigestAlgorithm.fromName(digestAlgorithm).validateDigest(data);
+        }
+        byte[] signature = signingService.signBytes(request.getKeyLabel(), request.getAlgorithm(), data,
+                digestAlgorithm, request.getName().isEmpty() ? "grpc" : request.getName());
+        // The signature array is not touched again, so it can back the response without a copy
+        return UnsafeByteOperations.unsafeWrap(signature);
+    }
+
+    private static void validate(String keyLabel, String algorithm, ByteString data) {
+        if (keyLabel.isBlank()) {
+            throw new IllegalArgumentException("Key label is required");
+        }
+        if (!"RSA".equals(algorithm) && !"EC".equals(algorithm)) {
+            throw new IllegalArgumentException("Algorithm must be either 'RSA' or 'EC'");
+        }
+        if (data.isEmpty()) {
+            throw new IllegalArgumentException("Input data cannot be null or empty");
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Maps a failure to the gRPC status matching the HTTP status GlobalExceptionHandler would return
+     */
+    private Status toStatus(Exception e, String keyLabel) {
+        signingMetrics.recordError(e);
+        if (e instanceof OverloadedException) {
+            log.warn("gRPC request rejected for key: {}: {}", keyLabel, e.getMessage());
+            return Status.RESOURCE_EXHAUSTED.withDescription(e.getMessage());
+        }
+        if (e instanceof TokenUnavailableException) {
+            log.warn("gRPC request failed fast for key: {}: {}", keyLabel, e.getMessage());
+            return Status.UNAVAILABLE.withDescription(e.getMessage());
+        }
+        if (e instanceof KeyNotFoundException || e.getCause() instanceof KeyNotFoundException) {
+            log.error("Key not found: {}", e.getMessage());
+            return Status.NOT_FOUND.withDescription(e.getMessage());
+        }
+        if (e instanceof IllegalArgumentException) {
+            log.error("Invalid argument: {}", e.getMessage());
+            return Status.INVALID_ARGUMENT.withDescription(e.getMessage());
+        }
+        if (e instanceof SigningException) {
+            log.error("Signing operation failed: {}", e.getMessage(), e);
+            return Status.INTERNAL.withDescription(e.getMessage());
+        }
+        log.error("Unexpected error occurred: {}", e.getMessage(), e);
+        return Status.UNKNOWN.withDescription("An unexpected error occurred");
+    }
+
+    /**
+     * One SignStream call. Requests are signed concurrently on the executor; every use of the call object is
+     * synchronized on it, since gRPC calls are not thread-safe.
+     */
+    private final class SignStream implements StreamObserver<SignRequest> {
+
+        private final ServerCallStreamObserver<SignResponse> call;
+
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private volatile boolean halfClosed;
+
+        private volatile boolean cancelled;
+
+        /**
+         * Requests owed to the client while it was not ready to receive responses
+         */
+        private int deferred;
+
+        private SignStream(ServerCallStreamObserver<SignResponse> call) {
+            this.call = call;
+        }
+
+        @Override
+        public void onNext(SignRequest request) {
+            pending.incrementAndGet();
+            grpcExecutor.execute(() -> {
+                SignResponse response;
+                try {
+                    response = SignResponse.newBuilder()
+                            .setRequestId(request.getRequestId())
+                            .setSignature(signRequest(request))
+                            .build();
+                } catch (Exception e) {
+                    Status status = toStatus(e, request.getKeyLabel());
+                    response = SignResponse.newBuilder()
+                            .setRequestId(request.getRequestId())
+                            .setError(SignError.newBuilder()
+                                    .setCode(status.getCode().value())
+                                    .setMessage(String.valueOf(status.getDescription())))
+                            .build();
+                }
+                send(response);
+            });
+        }
+
+        private void send(SignResponse response) {
+            synchronized (call) {
+                if (!cancelled) {
+                    call.onNext(response);
+                    if (call.isReady()) {
+                        call.request(1);
+                    } else {
+                        deferred++;
+                    }
+                }
+            }
+            pending.decrementAndGet();
+            completeIfDone();
+        }
+
+        /**
+         * Asks for the requests held back while the client was not reading its responses
+         */
+        private void resume() {
+            synchronized (call) {
+                if (deferred > 0 && !cancelled) {
+                    call.request(deferred);
+                    deferred = 0;
+                }
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            log.debug("SignStream cancelled by client with {} requests in flight", pending.get());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            cancelled = true;
+            log.debug("SignStream closed by client: {}", t.getMessage());
+        }
+
+        @Override
+        public void onCompleted() {
+            halfClosed = true;
+            completeIfDone();
+        }
+
+        private void completeIfDone() {
+            if (halfClosed && pending.get() == 0 && completed.compareAndSet(false, true)) {
+                synchronized (call) {
+                    if (!cancelled) {
+                        call.onCompleted();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.pkcs11.jobs;
+
+import com.example.pkcs11.dto.BatchSignResult;
+import com.example.pkcs11.dto.JobStatus;
+import com.example.pkcs11.scheduling.Lane;
+import com.example.pkcs11.scheduling.TenantContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.BitSet;
+
+/**
+ * One signing job on disk: its items as submitted, one JSON line each, and their results appended as they finish.
+ * Which items are done is rebuilt from the result file, so a restarted job only signs the items it has no result for.
+ */
+@Slf4j
+final class SigningJob {
+
+    static final String STATE_QUEUED = "queued";
+    static final String STATE_RUNNING = "running";
+    static final String STATE_COMPLETED = "completed";
+
+    static final String METADATA_FILE = "job.json";
+    static final String INPUT_FILE = "input.jsonl";
+    static final String RESULTS_FILE = "results.jsonl";
+
+    private final String id;
+    private final String tenant;
+    private final int total;
+    private final Instant createdAt;
+    private final Path directory;
+
+    private volatile Instant finishedAt;
+
+    // Input cursor, guarded by the service's claim lock
+    private BufferedReader input;
+    private int nextIndex;
+    private boolean exhausted;
+
+    private volatile boolean started;
+
+    // Result file, guarded by this
+    private final BitSet done = new BitSet();
+    private FileChannel results;
+    private int sinceForce;
+
+    private volatile long committedSize;
+    private volatile int succeeded;
+    private volatile int failed;
+
+    SigningJob(String id, String tenant, int total, Instant createdAt, Path directory) {
+        this.id = id;
+        this.tenant = tenant;
+        this.total = total;
+        this.createdAt = createdAt;
+        this.directory = directory;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getTenant() {
+        return tenant;
+    }
+
+    int getTotal() {
+        return total;
+    }
+
+    Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    int getSucceeded() {
+        return succeeded;
+    }
+
+    int getFailed() {
+        return failed;
+    }
+
+    long getCommittedSize() {
+        return committedSize;
+    }
+
+    boolean isFinished() {
+        return finishedAt != null;
+    }
+
+    boolean isComplete() {
+        return succeeded + failed >= total;
+    }
+
+    /**
+     * Items of a job run in the bulk lane, as its submitter's tenant
+     */
+    TenantContext tenantContext() {
+        return new TenantContext(tenant, Lane.BULK);
+    }
+
+    JobStatus status() {
+        String state;
+        if (finishedAt != null) {
+            state = STATE_COMPLETED;
+        } else {
+            state = started || succeeded + failed > 0 ? STATE_RUNNING : STATE_QUEUED;
+        }
+        return new JobStatus(id, state, total, succeeded, failed, createdAt, finishedAt);
+    }
+
+    /**
+     * Marks a job recovered from disk as finished, with the counts it finished with
+     */
+    void restoreFinished(Instant finishedAt, int succeeded, int failed) throws IOException {
+        this.finishedAt = finishedAt;
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.committedSize = Files.size(directory.resolve(RESULTS_FILE));
+    }
+
+    /**
+     * Opens the result file for appending, cutting off a line left half written by a crash and
+     * marking every item that already has a result as done
+     */
+    synchronized void openResults(ObjectMapper objectMapper) throws IOException {
+        Path file = directory.resolve(RESULTS_FILE);
+        results = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            truncateIncompleteLine();
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    BatchSignResult result = objectMapper.readValue(line, BatchSignResult.class);
+                    if (!done.get(result.getIndex())) {
+                        done.set(result.getIndex());
+                        count(result);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            results.close();
+            throw e;
+        }
+        results.position(results.size());
+        committedSize = results.size();
+    }
+
+    private void truncateIncompleteLine() throws IOException {
+        long size = results.size();
+        long validSize = 0;
+        // Scan back a chunk at a time for the last newline; everything up to it is complete results
+        ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(size, 64 * 1024));
+        long chunkEnd = size;
+        while (chunkEnd > 0 && validSize == 0) {
+            long chunkStart = Math.max(0, chunkEnd - chunk.capacity());
+            chunk.clear().limit((int) (chunkEnd - chunkStart));
+            while (chunk.hasRemaining() && results.read(chunk, chunkStart + chunk.position()) > 0) {
+                // Keep reading until the chunk is full
+            }
+            for (int i = chunk.position() - 1; i >= 0; i--) {
+                if (chunk.get(i) == '\n') {
+                    validSize = chunkStart + i + 1;
+                    break;
+                }
+            }
+            chunkEnd = chunkStart;
+        }
+        if (validSize < size) {
+            log.warn("Truncating incomplete result of signing job {} at byte {}", id, validSize);
+            results.truncate(validSize);
+        }
+    }
+
+    /**
+     * Gets the next item without a result, or null once every item has been handed out
+     */
+    Item next() throws IOException {
+        if (exhausted) {
+            return null;
+        }
+        if (input == null) {
+            input = Files.newBufferedReader(directory.resolve(INPUT_FILE), StandardCharsets.UTF_8);
+            started = true;
+        }
+        String line;
+        while ((line = input.readLine()) != null) {
+            int index = nextIndex++;
+            if (!isDone(index)) {
+                return new Item(this, index, line);
+            }
+        }
+        exhausted = true;
+        input.close();
+        input = null;
+        return null;
+    }
+
+    private synchronized boolean isDone(int index) {
+        return done.get(index);
+    }
+
+    /**
+     * Appends one result line, forcing the file to disk every forceEvery results and when the last one is written
+     *
+     * @return true if this was the job's last result
+     */
+    synchronized boolean append(BatchSignResult result, byte[] line, int forceEvery) throws IOException {
+        if (done.get(result.getIndex())) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(line);
+        while (buffer.hasRemaining()) {
+            results.write(buffer);
+        }
+        done.set(result.getIndex());
+        count(result);
+        committedSize = results.position();
+
+        if (isComplete()) {
+            finish();
+            return true;
+        }
+        if (++sinceForce >= forceEvery) {
+            results.force(false);
+            sinceForce = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Forces and closes the result file once every item has its result
+     */
+    synchronized void finish() throws IOException {
+        results.force(false);
+        results.close();
+        finishedAt = Instant.now();
+    }
+
+    private void count(BatchSignResult result) {
+        if (result.getError() == null) {
+            succeeded++;
+        } else {
+            failed++;
+        }
+    }
+
+    /**
+     * Opens the results written so far; a result still being appended is not included
+     */
+    InputStream openCommittedResults() throws IOException {
+        long limit = committedSize;
+        return new BoundedInputStream(Files.newInputStream(directory.resolve(RESULTS_FILE)), limit);
+    }
+
+    synchronized void close() throws IOException {
+        if (input != null) {
+            input.close();
+            input = null;
+        }
+        if (results != null && results.isOpen()) {
+            results.force(false);
+            results.close();
+        }
+    }
+
+    /**
+     * Forces a directory's entries to disk, so a file renamed into it survives a crash
+     */
+    static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * An item handed to a worker
+     */
+    static final class Item {
+
+        final SigningJob job;
+        final int index;
+        final String line;
+
+        Item(SigningJob job, int index, String line) {
+            this.job = job;
+            this.index = index;
+            this.line = line;
+        }
+    }
+
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
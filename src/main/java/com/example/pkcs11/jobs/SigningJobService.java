@@ -0,0 +1,509 @@
+package com.example.pkcs11.jobs;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.dto.BatchSignResult;
+import com.example.pkcs11.dto.JobStatus;
+import com.example.pkcs11.dto.SignRequest;
+import com.example.pkcs11.exception.JobNotFoundException;
+import com.example.pkcs11.exception.OverloadedException;
+import com.example.pkcs11.exception.SigningException;
+import com.example.pkcs11.exception.TokenUnavailableException;
+import com.example.pkcs11.scheduling.TenantContext;
+import com.example.pkcs11.service.BatchSigningService;
+import com.example.pkcs11.service.SigningService;
+import com.example.pkcs11.service.VerificationService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Asynchronous signing jobs for large offline batches.
+ * <p>
+ * A submitted job is written to its own directory under {@code directory} and forced to disk before it is
+ * acknowledged. A fixed set of workers takes the items of the oldest job one line at a time, signs them in the
+ * bulk lane through {@link SigningService}, and appends each result to the job's result file as it completes.
+ * Items rejected for overload or an unavailable token are retried rather than failed. After a restart every
+ * unfinished job is queued again and only its items without a result are signed.
+ */
+@Slf4j
+@Service
+public class SigningJobService {
+
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private SigningService signingService;
+
+    @Autowired
+    private BatchSigningService batchSigningService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    private final ConcurrentMap<String, SigningJob> jobs = new ConcurrentHashMap<>();
+
+    private final Object claimLock = new Object();
+
+    // Unfinished jobs with items left to hand out, oldest first; guarded by claimLock
+    private final Deque<SigningJob> queue = new ArrayDeque<>();
+
+    private Path directory;
+
+    private ExecutorService workers;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() throws IOException {
+        Pkcs11Properties.Jobs config = pkcs11Properties.getJobs();
+        if (!config.isEnabled()) {
+            log.info("Signing jobs disabled");
+            return;
+        }
+        directory = Paths.get(config.getDirectory());
+        Files.createDirectories(directory);
+        recover();
+
+        running = true;
+        int threads = Math.max(1, config.getWorkers());
+        workers = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("signing-job-"));
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::runWorker);
+        }
+        taskScheduler.scheduleWithFixedDelay(this::purge, Duration.ofHours(1));
+        log.info("Signing jobs started with {} workers, {} jobs in {}", threads, jobs.size(), directory);
+    }
+
+    public boolean isEnabled() {
+        return running;
+    }
+
+    /**
+     * Stores a job of the given items and queues it for signing
+     */
+    public JobStatus submit(List<SignRequest> items) {
+        return create(out -> {
+            for (SignRequest item : items) {
+                writeItem(out, item);
+            }
+            return items.size();
+        });
+    }
+
+    /**
+     * Stores a job read from newline-delimited JSON, one sign request per line, and queues it for signing.
+     * The items are copied to disk as they are read, so a job may be far larger than memory.
+     */
+    public JobStatus submit(InputStream ndjson) {
+        return create(out -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8));
+            int count = 0;
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                SignRequest item;
+                try {
+                    item = objectMapper.readValue(line, SignRequest.class);
+                } catch (JsonProcessingException e) {
+                    throw new IllegalArgumentException(
+                            "Invalid job item on line " + lineNumber + ": " + e.getOriginalMessage(), e);
+                }
+                writeItem(out, item);
+                count++;
+            }
+            return count;
+        });
+    }
+
+    private JobStatus create(Items items) {
+        if (!running) {
+            throw new IllegalArgumentException("Signing jobs are disabled");
+        }
+        TenantContext caller = TenantContext.current();
+        String id = UUID.randomUUID().toString();
+        // Written under a temporary name, so a submission cut short by a crash is never taken for a job
+        Path staging = directory.resolve(id + ".tmp");
+        try {
+            Files.createDirectories(staging);
+            int total;
+            try (FileOutputStream file = new FileOutputStream(staging.resolve(SigningJob.INPUT_FILE).toFile());
+                 BufferedWriter out = new BufferedWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8))) {
+                total = items.writeTo(out);
+                out.flush();
+                file.getFD().sync();
+            }
+            if (total == 0) {
+                throw new IllegalArgumentException("At least one item is required");
+            }
+
+            SigningJob job = new SigningJob(id, caller == null ? null : caller.getTenant(), total, Instant.now(),
+                    directory.resolve(id));
+            writeMetadata(staging, job);
+            Files.move(staging, job.getDirectory(), StandardCopyOption.ATOMIC_MOVE);
+            SigningJob.forceDirectory(directory);
+            job.openResults(objectMapper);
+            jobs.put(id, job);
+            synchronized (claimLock) {
+                queue.add(job);
+                claimLock.notifyAll();
+            }
+            log.info("Submitted signing job {} with {} items", id, total);
+            return job.status();
+        } catch (IOException e) {
+            deleteQuietly(staging);
+            throw new SigningException("Failed to store signing job: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            deleteQuietly(staging);
+            throw e;
+        }
+    }
+
+    private void writeItem(BufferedWriter out, SignRequest item) throws IOException {
+        out.write(objectMapper.writeValueAsString(item));
+        out.write('\n');
+    }
+
+    /**
+     * Gets a job's progress
+     */
+    public JobStatus getStatus(String id) {
+        return job(id).status();
+    }
+
+    /**
+     * Opens the results a job has written so far, one JSON result line per item in completion order
+     */
+    public InputStream openResults(String id) {
+        try {
+            return job(id).openCommittedResults();
+        } catch (IOException e) {
+            throw new SigningException("Failed to read results of signing job " + id + ": " + e.getMessage(), e);
+        }
+    }
+
+    private SigningJob job(String id) {
+        SigningJob job = id == null ? null : jobs.get(id);
+        if (job == null) {
+            throw new JobNotFoundException("Signing job not found: " + id);
+        }
+        return job;
+    }
+
+    private void runWorker() {
+        while (running) {
+            SigningJob.Item item;
+            try {
+                item = claim();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (item != null) {
+                BatchSignResult result = signItem(item);
+                if (result != null) {
+                    complete(item.job, result);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the next item of the oldest job, waiting while there is none
+     *
+     * @return the item, or null once the service stops
+     */
+    private SigningJob.Item claim() throws InterruptedException {
+        synchronized (claimLock) {
+            while (running) {
+                SigningJob job = queue.peek();
+                if (job == null) {
+                    claimLock.wait();
+                    continue;
+                }
+                try {
+                    SigningJob.Item item = job.next();
+                    if (item != null) {
+                        return item;
+                    }
+                } catch (IOException e) {
+                    // The job stays unfinished and is picked up again on the next start
+                    log.error("Failed to read items of signing job {}: {}", job.getId(), e.getMessage(), e);
+                }
+                // Every item handed out; the job completes when the last of them is written
+                queue.poll();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Signs one item, waiting out overload and token outages instead of failing the item
+     *
+     * @return the result, or null if the service stopped first
+     */
+    private BatchSignResult signItem(SigningJob.Item item) {
+        TenantContext.bind(item.job.tenantContext());
+        try {
+            SignRequest request = objectMapper.readValue(item.line, SignRequest.class);
+            byte[] data = request.getData() == null ? null : VerificationService.decode(request.getData(), "Input data");
+            if (data == null || data.length == 0) {
+                throw new IllegalArgumentException("Input data cannot be null or empty");
+            }
+            String name = request.getName() == null ? "job" : request.getName();
+            while (running) {
+                try {
+                    byte[] signature = signingService.signBytes(request.getKeyLabel(), request.getAlgorithm(), data,
+                            request.getDigestAlgorithm(), name);
+                    return BatchSignResult.success(item.index, Base64.getEncoder().encodeToString(signature));
+                } catch (OverloadedException e) {
+                    backOff(e.getRetryAfter());
+                } catch (TokenUnavailableException e) {
+                    backOff(e.getRetryAfter());
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            log.warn("Failed to sign item {} of job {}: {}", item.index, item.job.getId(), e.getMessage());
+            return batchSigningService.toFailure(item.index, e);
+        } finally {
+            TenantContext.clear();
+        }
+    }
+
+    private static void backOff(Duration retryAfter) throws InterruptedException {
+        Thread.sleep(Math.max(10, retryAfter.toMillis()));
+    }
+
+    private void complete(SigningJob job, BatchSignResult result) {
+        try {
+            byte[] line = (objectMapper.writeValueAsString(result) + '\n').getBytes(StandardCharsets.UTF_8);
+            if (job.append(result, line, Math.max(1, pkcs11Properties.getJobs().getForceEvery()))) {
+                finished(job);
+            }
+        } catch (IOException e) {
+            // The item has no result on disk, so it is signed again on the next start
+            log.error("Failed to write result {} of signing job {}: {}", result.getIndex(), job.getId(),
+                    e.getMessage(), e);
+        }
+    }
+
+    private void finished(SigningJob job) throws IOException {
+        writeMetadata(job.getDirectory(), job);
+        log.info("Signing job {} completed: {} signed, {} failed, {} ms", job.getId(), job.getSucceeded(),
+                job.getFailed(), Duration.between(job.getCreatedAt(), job.getFinishedAt()).toMillis());
+    }
+
+    /**
+     * Reloads every job on disk and queues the unfinished ones again, oldest first
+     */
+    private void recover() throws IOException {
+        List<SigningJob> recovered = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (!Files.isDirectory(entry)) {
+                    continue;
+                }
+                if (!Files.exists(entry.resolve(SigningJob.METADATA_FILE))) {
+                    log.warn("Removing incomplete signing job submission {}", entry.getFileName());
+                    deleteQuietly(entry);
+                    continue;
+                }
+                try {
+                    recovered.add(load(entry));
+                } catch (IOException | RuntimeException e) {
+                    log.error("Failed to recover signing job {}: {}", entry.getFileName(), e.getMessage(), e);
+                }
+            }
+        }
+        recovered.sort(Comparator.comparing(SigningJob::getCreatedAt));
+        int resumed = 0;
+        for (SigningJob job : recovered) {
+            jobs.put(job.getId(), job);
+            if (!job.isFinished()) {
+                queue.add(job);
+                resumed++;
+            }
+        }
+        if (resumed > 0) {
+            log.info("Resuming {} unfinished signing jobs", resumed);
+        }
+    }
+
+    private SigningJob load(Path jobDirectory) throws IOException {
+        Map<String, Object> metadata = objectMapper.readValue(
+                jobDirectory.resolve(SigningJob.METADATA_FILE).toFile(), METADATA_TYPE);
+        SigningJob job = new SigningJob((String) metadata.get("id"), (String) metadata.get("tenant"),
+                ((Number) metadata.get("total")).intValue(), Instant.parse((String) metadata.get("createdAt")),
+                jobDirectory);
+        if (metadata.get("finishedAt") != null) {
+            job.restoreFinished(Instant.parse((String) metadata.get("finishedAt")),
+                    ((Number) metadata.get("succeeded")).intValue(), ((Number) metadata.get("failed")).intValue());
+            return job;
+        }
+        job.openResults(objectMapper);
+        if (job.isComplete()) {
+            // Every result was written, but not the completion itself
+            job.finish();
+            finished(job);
+        }
+        return job;
+    }
+
+    private void writeMetadata(Path jobDirectory, SigningJob job) throws IOException {
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("id", job.getId());
+        metadata.put("tenant", job.getTenant());
+        metadata.put("total", job.getTotal());
+        metadata.put("createdAt", job.getCreatedAt().toString());
+        if (job.getFinishedAt() != null) {
+            metadata.put("finishedAt", job.getFinishedAt().toString());
+            metadata.put("succeeded", job.getSucceeded());
+            metadata.put("failed", job.getFailed());
+        }
+        Path temp = jobDirectory.resolve(SigningJob.METADATA_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+            out.write(objectMapper.writeValueAsBytes(metadata));
+            out.getFD().sync();
+        }
+        Files.move(temp, jobDirectory.resolve(SigningJob.METADATA_FILE),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        SigningJob.forceDirectory(jobDirectory);
+    }
+
+    /**
+     * Deletes jobs that finished longer than the retention period ago
+     */
+    void purge() {
+        Instant cutoff = Instant.now().minus(pkcs11Properties.getJobs().getRetention());
+        jobs.values().removeIf(job -> {
+            if (job.isFinished() && job.getFinishedAt().isBefore(cutoff)) {
+                deleteQuietly(job.getDirectory());
+                log.info("Deleted signing job {} finished at {}", job.getId(), job.getFinishedAt());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the number of jobs and the items still to sign
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", running);
+        if (running) {
+            int active = 0;
+            long pendingItems = 0;
+            for (SigningJob job : jobs.values()) {
+                if (!job.isFinished()) {
+                    active++;
+                    pendingItems += job.getTotal() - job.getSucceeded() - job.getFailed();
+                }
+            }
+            stats.put("jobs", jobs.size());
+            stats.put("active", active);
+            stats.put("pendingItems", pendingItems);
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        synchronized (claimLock) {
+            claimLock.notifyAll();
+        }
+        // Items being signed finish and are written; items waiting out a back-off are signed on the next start
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        for (SigningJob job : jobs.values()) {
+            try {
+                job.close();
+            } catch (IOException e) {
+                log.warn("Failed to close signing job {}: {}", job.getId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes a job's items, one JSON line each, and counts them
+     */
+    @FunctionalInterface
+    private interface Items {
+
+        int writeTo(BufferedWriter out) throws IOException;
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.pkcs11.merkle;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.dto.MerkleProofStep;
+import com.example.pkcs11.dto.MerkleSignResponse;
+import com.example.pkcs11.exception.SigningException;
+import com.example.pkcs11.service.DigestAlgorithm;
+import com.example.pkcs11.service.SigningMetrics;
+import com.example.pkcs11.service.SigningService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects document digests per key and signs them as one Merkle tree.
+ * <p>
+ * The first digest for a key opens a batch that is closed after {@code max-wait} or once it holds
+ * {@code max-batch-size} digests, whichever comes first. Only the tree's root is signed on the token, as a
+ * SHA-256 digest through {@link SigningService}; every caller gets that signature with its own inclusion
+ * proof, so one HSM operation covers the whole batch.
+ */
+@Slf4j
+@Component
+public class MerkleBatcher {
+
+    @Autowired
+    private SigningService signingService;
+
+    @Autowired
+    private SigningMetrics signingMetrics;
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    private ScheduledExecutorService merkleScheduler;
+
+    private final Object lock = new Object();
+
+    // Open batches keyed by key label and algorithm, guarded by lock
+    private final Map<String, Batch> open = new HashMap<>();
+
+    private final LongAdder signedBatches = new LongAdder();
+    private final LongAdder signedDocuments = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+
+    /**
+     * Starts the threads that close batches and sign their roots. They are owned here rather than exposed as a
+     * bean, since a ScheduledExecutorService bean would replace Spring's own task scheduler.
+     */
+    @PostConstruct
+    public void start() {
+        int threads = Math.max(1, pkcs11Properties.getMerkle().getThreads());
+        merkleScheduler = Executors.newScheduledThreadPool(threads, new CustomizableThreadFactory("merkle-"));
+        log.info("Started {} Merkle batch signing threads", threads);
+    }
+
+    /**
+     * Adds a document digest to the key's open batch. The future completes when the batch's root is signed.
+     */
+    public CompletableFuture<MerkleSignResponse> submit(String keyLabel, String algorithm, byte[] documentDigest) {
+        Leaf leaf = new Leaf(MerkleTree.leafHash(documentDigest));
+        String batchKey = keyLabel + '\u0000' + algorithm;
+        Batch full = null;
+        synchronized (lock) {
+            Batch batch = open.get(batchKey);
+            if (batch == null) {
+                batch = new Batch(keyLabel, algorithm);
+                Batch scheduled = batch;
+                batch.timer = merkleScheduler.schedule(() -> close(batchKey, scheduled),
+                        pkcs11Properties.getMerkle().getMaxWait().toNanos(), TimeUnit.NANOSECONDS);
+                open.put(batchKey, batch);
+            }
+            batch.leaves.add(leaf);
+            if (batch.leaves.size() >= Math.max(1, pkcs11Properties.getMerkle().getMaxBatchSize())) {
+                open.remove(batchKey);
+                batch.timer.cancel(false);
+                full = batch;
+            }
+        }
+        if (full != null) {
+            Batch batch = full;
+            merkleScheduler.execute(() -> sign(batch));
+        }
+        return leaf.result;
+    }
+
+    /**
+     * Submits a document, or its digest when a digest algorithm is given, and waits for the batch to be signed
+     */
+    public MerkleSignResponse sign(String keyLabel, String algorithm, byte[] data, String digestAlgorithm) {
+        try {
+            return submit(keyLabel, algorithm, documentDigest(data, digestAlgorithm)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SigningException("Merkle batch signing failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Gets the digest a document enters the tree with: the given digest, or the document's SHA-256
+     */
+    public static byte[] documentDigest(byte[] data, String digestAlgorithm) {
+        if (digestAlgorithm == null) {
+            return DigestAlgorithm.SHA256.newMessageDigest().digest(data);
+        }
+        DigestAlgorithm.fromName(digestAlgorithm).validateDigest(data);
+        return data;
+    }
+
+    private void close(String batchKey, Batch batch) {
+        synchronized (lock) {
+            // A batch that filled up was already taken out and handed to a signer
+            if (!open.remove(batchKey, batch)) {
+                return;
+            }
+        }
+        sign(batch);
+    }
+
+    private void sign(Batch batch) {
+        List<byte[]> leafHashes = new ArrayList<>(batch.leaves.size());
+        for (Leaf leaf : batch.leaves) {
+            leafHashes.add(leaf.hash);
+        }
+        try {
+            MerkleTree tree = MerkleTree.build(leafHashes);
+            byte[] root = tree.getRoot();
+            byte[] signature = signingService.signBytes(batch.keyLabel, batch.algorithm, root,
+                    DigestAlgorithm.SHA256.getJcaName(), "merkle:" + tree.size());
+            signedBatches.increment();
+            signedDocuments.add(tree.size());
+            signingMetrics.recordMerkleBatch(tree.size());
+            log.debug("Signed Merkle root over {} documents for key: {}", tree.size(), batch.keyLabel);
+
+            Base64.Encoder encoder = Base64.getEncoder();
+            String encodedSignature = encoder.encodeToString(signature);
+            String encodedRoot = encoder.encodeToString(root);
+            for (int index = 0; index < batch.leaves.size(); index++) {
+                Leaf leaf = batch.leaves.get(index);
+                List<MerkleProofStep> proof = new ArrayList<>();
+                for (MerkleTree.Step step : tree.proof(index)) {
+                    proof.add(new MerkleProofStep(encoder.encodeToString(step.getHash()),
+                            step.isLeft() ? MerkleProofStep.LEFT : MerkleProofStep.RIGHT));
+                }
+                leaf.result.complete(new MerkleSignResponse(encodedSignature, encodedRoot,
+                        encoder.encodeToString(leaf.hash), index, tree.size(), proof));
+            }
+        } catch (Exception e) {
+            failedBatches.increment();
+            log.warn("Failed to sign Merkle root over {} documents for key: {}: {}",
+                    batch.leaves.size(), batch.keyLabel, e.getMessage());
+            batch.leaves.forEach(leaf -> leaf.result.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Gets the number of signed batches and how many documents each signature covered on average
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long batches = signedBatches.sum();
+        long documents = signedDocuments.sum();
+        stats.put("batches", batches);
+        stats.put("documents", documents);
+        stats.put("documentsPerSignature", batches == 0 ? 0.0 : (double) documents / batches);
+        stats.put("failedBatches", failedBatches.sum());
+        synchronized (lock) {
+            stats.put("openBatches", open.size());
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        merkleScheduler.shutdown();
+    }
+
+    private static final class Batch {
+
+        private final String keyLabel;
+        private final String algorithm;
+        private final List<Leaf> leaves = new ArrayList<>();
+        private ScheduledFuture<?> timer;
+
+        private Batch(String keyLabel, String algorithm) {
+            this.keyLabel = keyLabel;
+            this.algorithm = algorithm;
+        }
+    }
+
+    private static final class Leaf {
+
+        private final byte[] hash;
+        private final CompletableFuture<MerkleSignResponse> result = new CompletableFuture<>();
+
+        private Leaf(byte[] hash) {
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.pkcs11.merkle;
+
+import com.example.pkcs11.service.DigestAlgorithm;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SHA-256 Merkle tree over document digests.
+ * <p>
+ * Leaves and interior nodes are hashed with distinct prefixes (0x00 and 0x01, as in RFC 6962), so a leaf can
+ * never be passed off as a node. A node without a sibling is promoted to the next level unchanged.
+ */
+public final class MerkleTree {
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    private static final ThreadLocal<MessageDigest> SHA256 =
+            ThreadLocal.withInitial(DigestAlgorithm.SHA256::newMessageDigest);
+
+    // levels.get(0) holds the leaf hashes, the last level holds the root
+    private final List<byte[][]> levels;
+
+    private MerkleTree(List<byte[][]> levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * Builds a tree from leaf hashes, see {@link #leafHash(byte[])}
+     */
+    public static MerkleTree build(List<byte[]> leafHashes) {
+        if (leafHashes.isEmpty()) {
+            throw new IllegalArgumentException("A Merkle tree needs at least one leaf");
+        }
+        List<byte[][]> levels = new ArrayList<>();
+        byte[][] level = leafHashes.toArray(new byte[0][]);
+        levels.add(level);
+        while (level.length > 1) {
+            byte[][] parent = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < level.length; i += 2) {
+                parent[i / 2] = i + 1 < level.length ? nodeHash(level[i], level[i + 1]) : level[i];
+            }
+            levels.add(parent);
+            level = parent;
+        }
+        return new MerkleTree(levels);
+    }
+
+    public byte[] getRoot() {
+        return levels.get(levels.size() - 1)[0].clone();
+    }
+
+    public int size() {
+        return levels.get(0).length;
+    }
+
+    /**
+     * Gets the sibling hashes from a leaf up to the root
+     */
+    public List<Step> proof(int leafIndex) {
+        if (leafIndex < 0 || leafIndex >= size()) {
+            throw new IndexOutOfBoundsException("Leaf " + leafIndex + " of " + size());
+        }
+        List<Step> steps = new ArrayList<>();
+        int index = leafIndex;
+        for (int level = 0; level < levels.size() - 1; level++) {
+            byte[][] nodes = levels.get(level);
+            int sibling = index ^ 1;
+            if (sibling < nodes.length) {
+                steps.add(new Step(nodes[sibling].clone(), sibling < index));
+            }
+            index >>= 1;
+        }
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * Hashes a document digest into a leaf
+     */
+    public static byte[] leafHash(byte[] documentDigest) {
+        MessageDigest digest = SHA256.get();
+        digest.update(LEAF_PREFIX);
+        return digest.digest(documentDigest);
+    }
+
+    static byte[] nodeHash(byte[] left, byte[] right) {
+        MessageDigest digest = SHA256.get();
+        digest.update(NODE_PREFIX);
+        digest.update(left);
+        return digest.digest(right);
+    }
+
+    /**
+     * Recomputes the root from a leaf hash and its inclusion proof
+     */
+    public static byte[] rootFromProof(byte[] leafHash, List<Step> proof) {
+        byte[] hash = leafHash;
+        for (Step step : proof) {
+            hash = step.isLeft() ? nodeHash(step.getHash(), hash) : nodeHash(hash, step.getHash());
+        }
+        return hash;
+    }
+
+    /**
+     * Tells whether the proof leads from the leaf hash to the root
+     */
+    public static boolean verifyProof(byte[] leafHash, List<Step> proof, byte[] root) {
+        return MessageDigest.isEqual(rootFromProof(leafHash, proof), root);
+    }
+
+    /**
+     * One level of an inclusion proof: the sibling's hash and whether it sits left of the path
+     */
+    public static final class Step {
+
+        private final byte[] hash;
+        private final boolean left;
+
+        public Step(byte[] hash, boolean left) {
+            this.hash = hash;
+            this.left = left;
+        }
+
+        public byte[] getHash() {
+            return hash;
+        }
+
+        public boolean isLeft() {
+            return left;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.pkcs11.scheduling;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.OverloadedException;
+import com.example.pkcs11.service.SigningMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Admits signing operations to the tokens, fairly across tenants.
+ * <p>
+ * At most {@code permits} operations run at once. When they are all taken, requests queue in their lane:
+ * interactive requests are always admitted before bulk ones, and bulk requests can never hold the last
+ * {@code interactive-reserved} permits, so a bulk job saturating the tokens does not add to interactive latency.
+ * Within a lane, tenants are served by weighted fair queuing: each request is tagged with a virtual finish time
+ * that advances by 1/weight per request of its tenant, and the smallest tag goes next. A tenant with a
+ * {@code rate} also has a token bucket quota; requests above it are rejected with 429 before they queue.
+ */
+@Slf4j
+@Component
+public class FairScheduler {
+
+    public static final String DEFAULT_TENANT = "default";
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private SigningMetrics signingMetrics;
+
+    private final ConcurrentMap<String, TenantState> tenants = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+
+    // Everything below is guarded by lock
+    private final Map<Lane, PriorityQueue<Waiter>> queues = new EnumMap<>(Lane.class);
+    private final Map<Lane, Double> virtualTimes = new EnumMap<>(Lane.class);
+    private final Map<Lane, Integer> running = new EnumMap<>(Lane.class);
+    private int queued;
+    private long sequence;
+
+    public FairScheduler() {
+        for (Lane lane : Lane.values()) {
+            queues.put(lane, new PriorityQueue<>(Comparator.comparingDouble((Waiter w) -> w.finish)
+                    .thenComparingLong(w -> w.sequence)));
+            virtualTimes.put(lane, 0.0);
+            running.put(lane, 0);
+        }
+    }
+
+    public boolean isEnabled() {
+        return pkcs11Properties.getScheduling().isEnabled();
+    }
+
+    /**
+     * Waits for a permit for the caller bound to the current thread
+     */
+    public Permit acquire(String name) {
+        return acquire(TenantContext.current(), name, null);
+    }
+
+    /**
+     * Waits for a permit to run one signing operation. The tenant is the one named by the caller, or else the
+     * request name if it is a known tenant; unknown callers share the default tenant.
+     *
+     * @param lane the lane to use, or null for the one the caller asked for or its tenant's default
+     * @return the permit to close once the operation completes; a permit that does nothing when disabled
+     * @throws OverloadedException if the tenant is over its quota, the queue is full, or no permit came in time
+     */
+    public Permit acquire(TenantContext caller, String name, Lane lane) {
+        if (!isEnabled()) {
+            return Permit.NONE;
+        }
+        TenantState tenant = tenant(resolveTenant(caller, name));
+        Lane resolvedLane = lane != null ? lane
+                : caller != null && caller.getLane() != null ? caller.getLane() : tenant.config().getLane();
+
+        long start = System.nanoTime();
+        if (!tenant.tryTake()) {
+            tenant.throttled.increment();
+            signingMetrics.recordTenantRejected(tenant.name, "quota");
+            throw new OverloadedException("Signing quota exceeded for tenant: " + tenant.name, tenant.retryAfter());
+        }
+
+        Pkcs11Properties.Scheduling config = pkcs11Properties.getScheduling();
+        Waiter waiter;
+        synchronized (lock) {
+            if (queues.get(resolvedLane).isEmpty() && hasRoom(resolvedLane, config)
+                    && (resolvedLane == Lane.INTERACTIVE || queues.get(Lane.INTERACTIVE).isEmpty())) {
+                running.merge(resolvedLane, 1, Integer::sum);
+                return admitted(tenant, resolvedLane, start);
+            }
+            if (queued >= config.getMaxQueue()) {
+                tenant.rejected.increment();
+                signingMetrics.recordTenantRejected(tenant.name, "queue");
+                throw new OverloadedException("Signing queue full", pkcs11Properties.getConcurrencyLimit().getRetryAfter());
+            }
+            // Weighted fair queuing: start at the lane's virtual time or after the tenant's previous request
+            double startTag = Math.max(virtualTimes.get(resolvedLane), tenant.lastFinish(resolvedLane));
+            double finishTag = startTag + 1.0 / Math.max(tenant.config().getWeight(), 0.001);
+            waiter = new Waiter(tenant, startTag, finishTag, sequence++, Thread.currentThread());
+            tenant.setLastFinish(resolvedLane, waiter.finish);
+            queues.get(resolvedLane).add(waiter);
+            queued++;
+            tenant.queueDepth.incrementAndGet();
+        }
+
+        long deadline = start + config.getQueueTimeout().toNanos();
+        while (!waiter.granted) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                synchronized (lock) {
+                    if (!waiter.granted) {
+                        queues.get(resolvedLane).remove(waiter);
+                        queued--;
+                        tenant.queueDepth.decrementAndGet();
+                        tenant.rejected.increment();
+                        signingMetrics.recordTenantRejected(tenant.name, "timeout");
+                        throw new OverloadedException("Timed out waiting for a signing slot for tenant: " + tenant.name,
+                                pkcs11Properties.getConcurrencyLimit().getRetryAfter());
+                    }
+                }
+                break;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        return admitted(tenant, resolvedLane, start);
+    }
+
+    private Permit admitted(TenantState tenant, Lane lane, long start) {
+        long waited = System.nanoTime() - start;
+        tenant.admitted.increment();
+        signingMetrics.recordTenantWait(tenant.name, lane.name().toLowerCase(), waited);
+        return new Permit(this, tenant, lane, start);
+    }
+
+    private void release(Permit permit) {
+        Pkcs11Properties.Scheduling config = pkcs11Properties.getScheduling();
+        synchronized (lock) {
+            running.merge(permit.lane, -1, Integer::sum);
+            // Interactive first; bulk only while it leaves the reserved permits free
+            for (Lane lane : Lane.values()) {
+                Waiter next = queues.get(lane).peek();
+                if (next != null && hasRoom(lane, config)) {
+                    queues.get(lane).poll();
+                    queued--;
+                    next.tenant.queueDepth.decrementAndGet();
+                    virtualTimes.put(lane, Math.max(virtualTimes.get(lane), next.start));
+                    running.merge(lane, 1, Integer::sum);
+                    next.granted = true;
+                    LockSupport.unpark(next.thread);
+                    break;
+                }
+            }
+        }
+        signingMetrics.recordTenantLatency(permit.tenant.name, permit.lane.name().toLowerCase(),
+                System.nanoTime() - permit.start);
+    }
+
+    private boolean hasRoom(Lane lane, Pkcs11Properties.Scheduling config) {
+        int total = running.get(Lane.INTERACTIVE) + running.get(Lane.BULK);
+        if (total >= config.getPermits()) {
+            return false;
+        }
+        return lane == Lane.INTERACTIVE
+                || running.get(Lane.BULK) < Math.max(1, config.getPermits() - config.getInteractiveReserved());
+    }
+
+    private String resolveTenant(TenantContext caller, String name) {
+        Map<String, Pkcs11Properties.Tenant> known = pkcs11Properties.getScheduling().getTenants();
+        if (caller != null && caller.getTenant() != null) {
+            return known.containsKey(caller.getTenant()) ? caller.getTenant() : DEFAULT_TENANT;
+        }
+        return name != null && known.containsKey(name) ? name : DEFAULT_TENANT;
+    }
+
+    private TenantState tenant(String name) {
+        return tenants.computeIfAbsent(name, n -> {
+            TenantState state = new TenantState(n);
+            signingMetrics.registerTenant(n, state.queueDepth);
+            return state;
+        });
+    }
+
+    /**
+     * Gets the queue depth, admissions and rejections per tenant
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        synchronized (lock) {
+            stats.put("running", new LinkedHashMap<>(running));
+            stats.put("queued", queued);
+        }
+        Map<String, Map<String, Number>> tenantStats = new LinkedHashMap<>();
+        tenants.forEach((name, tenant) -> {
+            Map<String, Number> entry = new LinkedHashMap<>();
+            entry.put("queueDepth", tenant.queueDepth.get());
+            entry.put("admitted", tenant.admitted.sum());
+            entry.put("throttled", tenant.throttled.sum());
+            entry.put("rejected", tenant.rejected.sum());
+            tenantStats.put(name, entry);
+        });
+        stats.put("tenants", tenantStats);
+        return stats;
+    }
+
+    /**
+     * A running signing operation's hold on the tokens, released when closed
+     */
+    public static final class Permit implements AutoCloseable {
+
+        static final Permit NONE = new Permit(null, null, null, 0);
+
+        private final FairScheduler scheduler;
+        private final TenantState tenant;
+        private final Lane lane;
+        private final long start;
+        private boolean closed;
+
+        private Permit(FairScheduler scheduler, TenantState tenant, Lane lane, long start) {
+            this.scheduler = scheduler;
+            this.tenant = tenant;
+            this.lane = lane;
+            this.start = start;
+        }
+
+        public String getTenant() {
+            return tenant == null ? null : tenant.name;
+        }
+
+        public Lane getLane() {
+            return lane;
+        }
+
+        @Override
+        public void close() {
+            if (scheduler != null && !closed) {
+                closed = true;
+                scheduler.release(this);
+            }
+        }
+    }
+
+    private final class TenantState {
+
+        private final String name;
+
+        private final AtomicInteger queueDepth = new AtomicInteger();
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        // Virtual finish time of the tenant's latest request per lane, guarded by the scheduler's lock
+        private final Map<Lane, Double> lastFinish = new EnumMap<>(Lane.class);
+
+        // Token bucket, guarded by this
+        private double tokens = -1;
+        private long refilledAt;
+
+        private TenantState(String name) {
+            this.name = name;
+        }
+
+        private Pkcs11Properties.Tenant config() {
+            Pkcs11Properties.Scheduling scheduling = pkcs11Properties.getScheduling();
+            Pkcs11Properties.Tenant config = scheduling.getTenants().get(name);
+            return config != null ? config : scheduling.getDefaultTenant();
+        }
+
+        private double lastFinish(Lane lane) {
+            return lastFinish.getOrDefault(lane, 0.0);
+        }
+
+        private void setLastFinish(Lane lane, double finish) {
+            lastFinish.put(lane, finish);
+        }
+
+        private synchronized boolean tryTake() {
+            Pkcs11Properties.Tenant config = config();
+            if (config.getRate() <= 0) {
+                return true;
+            }
+            long now = System.nanoTime();
+            int burst = Math.max(1, config.getBurst());
+            if (tokens < 0) {
+                tokens = burst;
+            } else {
+                tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * config.getRate());
+            }
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        private synchronized Duration retryAfter() {
+            double rate = config().getRate();
+            return Duration.ofNanos((long) Math.ceil((1 - Math.max(0, tokens)) / rate * 1e9));
+        }
+    }
+
+    private static final class Waiter {
+
+        private final TenantState tenant;
+        private final double start;
+        private final double finish;
+        private final long sequence;
+        private final Thread thread;
+        private volatile boolean granted;
+
+        private Waiter(TenantState tenant, double start, double finish, long sequence, Thread thread) {
+            this.tenant = tenant;
+            this.start = start;
+            this.finish = finish;
+            this.sequence = sequence;
+            this.thread = thread;
+        }
+    }
+}
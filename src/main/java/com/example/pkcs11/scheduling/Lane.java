@@ -0,0 +1,27 @@
+package com.example.pkcs11.scheduling;
+
+/**
+ * Priority lanes of the fair scheduler. Interactive requests are always admitted ahead of bulk ones.
+ */
+public enum Lane {
+
+    /** Latency-sensitive single requests */
+    INTERACTIVE,
+    /** Throughput work such as batches, which may wait behind interactive requests */
+    BULK;
+
+    /**
+     * Parses a lane name in any case, or returns null if it names no lane
+     */
+    public static Lane fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (Lane lane : values()) {
+            if (lane.name().equalsIgnoreCase(name.trim())) {
+                return lane;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.pkcs11.scheduling;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Puts the tenant and lane headers of each request in the Reactor context, from where they are bound around the
+ * blocking token call
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveTenantFilter implements WebFilter {
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        HttpHeaders headers = exchange.getRequest().getHeaders();
+        TenantContext context = TenantContext.fromHeaders(
+                headers.getFirst(TenantContext.HEADER_TENANT), headers.getFirst(TenantContext.HEADER_PRIORITY));
+        return chain.filter(exchange).contextWrite(ctx -> ctx.put(TenantContext.class, context));
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.pkcs11.scheduling;
+
+import java.util.concurrent.Callable;
+
+/**
+ * The tenant and lane a request asked for, taken from its headers.
+ * <p>
+ * Bound to the serving thread by {@link TenantFilter}; in reactive mode it travels in the Reactor context and is
+ * bound around the blocking token call. Work handed to other threads captures it first.
+ */
+public final class TenantContext {
+
+    public static final String HEADER_TENANT = "X-Tenant-Id";
+    public static final String HEADER_PRIORITY = "X-Priority";
+
+    private static final ThreadLocal<TenantContext> CURRENT = new ThreadLocal<>();
+
+    private final String tenant;
+
+    private final Lane lane;
+
+    public TenantContext(String tenant, Lane lane) {
+        this.tenant = tenant;
+        this.lane = lane;
+    }
+
+    /**
+     * Builds a context from the tenant and priority header values, either of which may be missing
+     */
+    public static TenantContext fromHeaders(String tenant, String priority) {
+        return new TenantContext(tenant == null || tenant.trim().isEmpty() ? null : tenant.trim(),
+                Lane.fromName(priority));
+    }
+
+    public static TenantContext current() {
+        return CURRENT.get();
+    }
+
+    public static void bind(TenantContext context) {
+        if (context == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+    }
+
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Wraps a call so it runs with the given context bound, restoring the thread's own afterwards
+     */
+    public static <T> Callable<T> wrap(TenantContext context, Callable<T> call) {
+        return () -> {
+            TenantContext previous = CURRENT.get();
+            bind(context);
+            try {
+                return call.call();
+            } finally {
+                bind(previous);
+            }
+        };
+    }
+
+    /**
+     * The tenant named by the caller, or null
+     */
+    public String getTenant() {
+        return tenant;
+    }
+
+    /**
+     * The lane asked for by the caller, or null to use the tenant's own
+     */
+    public Lane getLane() {
+        return lane;
+    }
+
+    @Override
+    public String toString() {
+        return "TenantContext{tenant='" + tenant + "', lane=" + lane + '}';
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.pkcs11.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gradient-style concurrency limit driven by observed signing latency.
+ * <p>
+ * A slow moving average of the round trip time serves as the no-load baseline. While recent latency stays
+ * within {@code rttTolerance} of it the limit grows by roughly its square root; once requests start queueing
+ * inside the token and latency climbs, the gradient drops below one and the limit shrinks towards the
+ * concurrency the token can actually absorb.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final int LONG_WINDOW = 600;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double rttTolerance;
+    private final double smoothing;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile double limit;
+    private double shortRttNanos;
+    private double longRttNanos;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double rttTolerance, double smoothing) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.rttTolerance = Math.max(1.0, rttTolerance);
+        this.smoothing = Math.min(1.0, Math.max(0.01, smoothing));
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * Takes a slot if the key is below its current limit; never blocks
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns a slot and, for completed signatures, feeds the observed latency into the limit
+     */
+    public void release(long rttNanos, boolean success) {
+        int current = inFlight.getAndDecrement();
+        if (success && rttNanos > 0) {
+            update(rttNanos, current);
+        }
+    }
+
+    private synchronized void update(long rttNanos, int inFlightAtCompletion) {
+        if (longRttNanos == 0) {
+            shortRttNanos = rttNanos;
+            longRttNanos = rttNanos;
+            return;
+        }
+        shortRttNanos = (shortRttNanos + rttNanos) / 2;
+        longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+        // Let the baseline catch up quickly when latency has dropped for good
+        if (longRttNanos > shortRttNanos * 2) {
+            longRttNanos *= 0.95;
+        }
+
+        // With little load the latency says nothing about how much more the token can take
+        if (inFlightAtCompletion < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRttNanos / shortRttNanos));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public synchronized long getShortRttMicros() {
+        return (long) shortRttNanos / 1_000;
+    }
+
+    public synchronized long getLongRttMicros() {
+        return (long) longRttNanos / 1_000;
+    }
+}
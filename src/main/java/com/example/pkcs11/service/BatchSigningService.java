@@ -0,0 +1,182 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.audit.AuditJournal;
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.dto.BatchSignResponse;
+import com.example.pkcs11.dto.BatchSignResult;
+import com.example.pkcs11.dto.SignRequest;
+import com.example.pkcs11.exception.KeyNotFoundException;
+import com.example.pkcs11.exception.OverloadedException;
+import com.example.pkcs11.exception.SigningException;
+import com.example.pkcs11.exception.TokenUnavailableException;
+import com.example.pkcs11.scheduling.FairScheduler;
+import com.example.pkcs11.scheduling.Lane;
+import com.example.pkcs11.scheduling.TenantContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+@Slf4j
+@Service
+public class BatchSigningService {
+
+    @Autowired
+    private SigningService signingService;
+
+    @Autowired
+    private Pkcs11ProviderService pkcs11ProviderService;
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private SigningMetrics signingMetrics;
+
+    @Autowired
+    private AuditJournal auditJournal;
+
+    @Autowired
+    private FairScheduler fairScheduler;
+
+    @Autowired
+    @Qualifier("batchSigningExecutor")
+    private ExecutorService batchSigningExecutor;
+
+    /**
+     * Signs every item of a batch, returning per-item results in request order.
+     * A failing item is reported in its result slot and never fails the whole batch.
+     */
+    public BatchSignResponse signBatch(List<SignRequest> items) {
+        int maxItems = pkcs11Properties.getBatch().getMaxItems();
+        if (items.size() > maxItems) {
+            throw new IllegalArgumentException(
+                    String.format("Batch contains %d items, maximum is %d", items.size(), maxItems));
+        }
+
+        auditJournal.checkWritable();
+
+        Instant start = Instant.now();
+        BatchSignResult[] results = new BatchSignResult[items.size()];
+        List<CompletableFuture<Void>> pending = new ArrayList<>(items.size());
+
+        // Items run on pool threads; they are scheduled in the bulk lane on behalf of this caller
+        TenantContext caller = TenantContext.current();
+
+        // Resolve each distinct key once on every token, then fan the items out over the token sessions
+        Map<String, List<Integer>> groups = groupByKeyLabel(items);
+        for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            String keyLabel = group.getKey();
+            List<TokenKey> replicas;
+            try {
+                replicas = pkcs11ProviderService.resolveKey(keyLabel);
+            } catch (Exception e) {
+                for (int index : group.getValue()) {
+                    results[index] = toFailure(index, e);
+                }
+                continue;
+            }
+
+            for (int index : group.getValue()) {
+                SignRequest item = items.get(index);
+                pending.add(CompletableFuture.runAsync(
+                        () -> results[index] = signItem(index, item, replicas, caller), batchSigningExecutor));
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            // Item failures are captured in signItem; this only happens if the executor rejects work
+            // or an item's audit entry cannot be written
+            throw new SigningException("Batch signing failed: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        int failed = (int) Arrays.stream(results).filter(r -> r.getError() != null).count();
+        log.info("Batch signed {} items for {} keys, failed: {}, duration: {} ms",
+                items.size(), groups.size(), failed,
+                Duration.between(start, Instant.now()).toMillis());
+
+        return new BatchSignResponse(results.length - failed, failed, Arrays.asList(results));
+    }
+
+    private BatchSignResult signItem(int index, SignRequest item, List<TokenKey> replicas, TenantContext caller) {
+        long start = System.nanoTime();
+        byte[] dataToSign = null;
+        String outcome = AuditJournal.OUTCOME_FAILURE;
+        try {
+            dataToSign = decode(item.getData());
+            DigestAlgorithm digestAlgorithm = item.getDigestAlgorithm() == null
+                    ? null : DigestAlgorithm.fromName(item.getDigestAlgorithm());
+            byte[] signatureBytes;
+            try (FairScheduler.Permit permit = fairScheduler.acquire(caller, item.getName(), Lane.BULK)) {
+                // Pick the replica when the item runs, so items spread over tokens as their load changes
+                signatureBytes = signingService.sign(
+                        TokenKey.leastOutstanding(replicas), item.getAlgorithm(), digestAlgorithm, dataToSign);
+            }
+            log.debug("Signed batch item {} for key: {} {}", index, item.getKeyLabel(), item.getName());
+            outcome = AuditJournal.OUTCOME_SUCCESS;
+            return BatchSignResult.success(index, Base64.getEncoder().encodeToString(signatureBytes));
+        } catch (Exception e) {
+            if (e instanceof OverloadedException) {
+                outcome = AuditJournal.OUTCOME_REJECTED;
+            }
+            log.warn("Failed to sign batch item {} for key: {}: {}", index, item.getKeyLabel(), e.getMessage());
+            return toFailure(index, e);
+        } finally {
+            auditJournal.record(item.getKeyLabel(), item.getAlgorithm(), item.getDigestAlgorithm(), dataToSign,
+                    item.getName(), System.nanoTime() - start, outcome);
+        }
+    }
+
+    private static byte[] decode(String base64Data) {
+        try {
+            return Base64.getDecoder().decode(base64Data);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Input data must be valid base64 encoded", e);
+        }
+    }
+
+    private static Map<String, List<Integer>> groupByKeyLabel(List<SignRequest> items) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            groups.computeIfAbsent(items.get(i).getKeyLabel(), k -> new ArrayList<>()).add(i);
+        }
+        return groups;
+    }
+
+    /**
+     * Maps an item failure to the same error categories as GlobalExceptionHandler; also used for signing job items
+     */
+    public BatchSignResult toFailure(int index, Exception e) {
+        signingMetrics.recordError(e);
+        if (e instanceof KeyNotFoundException) {
+            return BatchSignResult.failure(index, "Key not found", e.getMessage());
+        }
+        if (e instanceof IllegalArgumentException) {
+            return BatchSignResult.failure(index, "Invalid request", e.getMessage());
+        }
+        if (e instanceof OverloadedException) {
+            return BatchSignResult.failure(index, "Too many requests", e.getMessage());
+        }
+        if (e instanceof TokenUnavailableException) {
+            return BatchSignResult.failure(index, "Token unavailable", e.getMessage());
+        }
+        if (e instanceof SigningException) {
+            return BatchSignResult.failure(index, "Signing failed", e.getMessage());
+        }
+        return BatchSignResult.failure(index, "Internal server error", "An unexpected error occurred");
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.OverloadedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps one adaptive concurrency limiter per key on each token and sheds requests above the limit.
+ * Limiters and their {@code keys} overrides go by the key's alias on the token, so every spelling of a label that
+ * resolves to the same key shares its limit.
+ */
+@Slf4j
+@Component
+public class ConcurrencyLimiterRegistry {
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    private final ConcurrentMap<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * Takes a slot for the key on its token, or throws OverloadedException when it is at its limit.
+     * Returns null when limiting is disabled for the key.
+     */
+    public AdaptiveConcurrencyLimiter acquire(TokenKey key) {
+        Pkcs11Properties.ConcurrencyLimit config = pkcs11Properties.getConcurrencyLimit();
+        Pkcs11Properties.KeyLimit override = config.getKeys().get(key.getAlias());
+        boolean enabled = override != null && override.getEnabled() != null ? override.getEnabled() : config.isEnabled();
+        if (!enabled) {
+            return null;
+        }
+
+        AdaptiveConcurrencyLimiter limiter = limiters.computeIfAbsent(
+                key.getToken().getName() + '/' + key.getAlias(), name -> create(config, override));
+        if (!limiter.tryAcquire()) {
+            log.debug("Shedding request for key: {} on token: {}, in flight: {}, limit: {}",
+                    key.getAlias(), key.getToken().getName(), limiter.getInFlight(), limiter.getLimit());
+            throw new OverloadedException("Concurrency limit of " + limiter.getLimit() + " reached for key: "
+                    + key.getKeyLabel(), config.getRetryAfter());
+        }
+        return limiter;
+    }
+
+    private static AdaptiveConcurrencyLimiter create(Pkcs11Properties.ConcurrencyLimit config,
+                                                     Pkcs11Properties.KeyLimit override) {
+        int initialLimit = config.getInitialLimit();
+        int minLimit = config.getMinLimit();
+        int maxLimit = config.getMaxLimit();
+        if (override != null) {
+            initialLimit = override.getInitialLimit() != null ? override.getInitialLimit() : initialLimit;
+            minLimit = override.getMinLimit() != null ? override.getMinLimit() : minLimit;
+            maxLimit = override.getMaxLimit() != null ? override.getMaxLimit() : maxLimit;
+        }
+        return new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit,
+                config.getRttTolerance(), config.getSmoothing());
+    }
+
+    /**
+     * Gets the current limit, in-flight count, rejections and latency baselines per token and key alias
+     */
+    public Map<String, Map<String, Number>> getStatistics() {
+        Map<String, Map<String, Number>> stats = new LinkedHashMap<>();
+        limiters.forEach((name, limiter) -> {
+            Map<String, Number> keyStats = new LinkedHashMap<>();
+            keyStats.put("limit", limiter.getLimit());
+            keyStats.put("inFlight", limiter.getInFlight());
+            keyStats.put("rejected", limiter.getRejected());
+            keyStats.put("shortRttMicros", limiter.getShortRttMicros());
+            keyStats.put("longRttMicros", limiter.getLongRttMicros());
+            stats.put(name, keyStats);
+        });
+        return stats;
+    }
+}
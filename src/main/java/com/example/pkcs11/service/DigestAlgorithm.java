@@ -0,0 +1,86 @@
+package com.example.pkcs11.service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Hash algorithms accepted for pre-hashed ("digest-only") signing.
+ * <p>
+ * Each constant carries the DER prefix of the PKCS#1 v1.5 DigestInfo structure (RFC 8017, section 9.2),
+ * so a raw RSA mechanism can produce the same signature as the corresponding SHAxxxwithRSA algorithm.
+ */
+public enum DigestAlgorithm {
+
+    SHA256("SHA-256", 32, new byte[]{
+            0x30, 0x31, 0x30, 0x0d, 0x06, 0x09, 0x60, (byte) 0x86, 0x48, 0x01, 0x65, 0x03, 0x04, 0x02, 0x01,
+            0x05, 0x00, 0x04, 0x20}),
+    SHA384("SHA-384", 48, new byte[]{
+            0x30, 0x41, 0x30, 0x0d, 0x06, 0x09, 0x60, (byte) 0x86, 0x48, 0x01, 0x65, 0x03, 0x04, 0x02, 0x02,
+            0x05, 0x00, 0x04, 0x30}),
+    SHA512("SHA-512", 64, new byte[]{
+            0x30, 0x51, 0x30, 0x0d, 0x06, 0x09, 0x60, (byte) 0x86, 0x48, 0x01, 0x65, 0x03, 0x04, 0x02, 0x03,
+            0x05, 0x00, 0x04, 0x40});
+
+    private final String jcaName;
+    private final int digestLength;
+    private final byte[] digestInfoPrefix;
+
+    DigestAlgorithm(String jcaName, int digestLength, byte[] digestInfoPrefix) {
+        this.jcaName = jcaName;
+        this.digestLength = digestLength;
+        this.digestInfoPrefix = digestInfoPrefix;
+    }
+
+    public String getJcaName() {
+        return jcaName;
+    }
+
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    /**
+     * Resolves a digest algorithm from its JCA name, accepting both "SHA-256" and "SHA256"
+     */
+    public static DigestAlgorithm fromName(String name) {
+        for (DigestAlgorithm algorithm : values()) {
+            if (algorithm.jcaName.equalsIgnoreCase(name) || algorithm.name().equalsIgnoreCase(name)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported digest algorithm: " + name);
+    }
+
+    /**
+     * Creates a new JCA MessageDigest for this algorithm
+     */
+    public MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(jcaName);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Digest algorithm not available: " + jcaName, e);
+        }
+    }
+
+    /**
+     * Validates that a digest has the length produced by this algorithm
+     */
+    public void validateDigest(byte[] digest) {
+        if (digest.length != digestLength) {
+            throw new IllegalArgumentException(String.format(
+                    "Digest length mismatch for %s. Expected: %d bytes, Found: %d bytes",
+                    jcaName, digestLength, digest.length));
+        }
+    }
+
+    /**
+     * Wraps a digest in a DER encoded DigestInfo, as required by raw RSA PKCS#1 v1.5 signing
+     */
+    public byte[] toDigestInfo(byte[] digest) {
+        validateDigest(digest);
+        byte[] digestInfo = Arrays.copyOf(digestInfoPrefix, digestInfoPrefix.length + digest.length);
+        System.arraycopy(digest, 0, digestInfo, digestInfoPrefix.length, digest.length);
+        return digestInfo;
+    }
+}
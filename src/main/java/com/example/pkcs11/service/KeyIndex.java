@@ -0,0 +1,220 @@
+package com.example.pkcs11.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.security.auth.x500.X500Principal;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable index of the private keys held by a PKCS#11 KeyStore.
+ * <p>
+ * Built in a single pass over the aliases when the token is loaded, so lookups never touch the token.
+ * Keys are indexed by alias (the CKA_LABEL, or the CKA_ID when SunPKCS11 has no label to use),
+ * case-insensitive alias and certificate subject (full DN and CN). A new index is swapped in as a whole
+ * when the token changes, so readers always see a consistent snapshot.
+ */
+@Slf4j
+public final class KeyIndex {
+
+    // Labels are sent by clients, so any number of spellings can resolve to the same few keys
+    static final int MAX_RESOLVED = 1024;
+
+    private final List<Entry> entries;
+    private final Map<String, Entry> byAlias;
+    private final Map<String, Entry> byAliasIgnoreCase;
+    private final Map<String, Entry> bySubject;
+
+    // Labels resolved by the slower paths, up to MAX_RESOLVED; later spellings are looked up each time
+    private final Map<String, Entry> resolved = new ConcurrentHashMap<>();
+
+    private KeyIndex(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+        Map<String, Entry> aliases = new HashMap<>();
+        Map<String, Entry> aliasesIgnoreCase = new HashMap<>();
+        Map<String, Entry> subjects = new HashMap<>();
+        for (Entry entry : entries) {
+            aliases.putIfAbsent(entry.getAlias(), entry);
+            aliasesIgnoreCase.putIfAbsent(entry.getAlias().toLowerCase(Locale.ROOT), entry);
+            subjectNames(entry.getCertificate()).forEach(name -> subjects.putIfAbsent(name, entry));
+        }
+        this.byAlias = aliases;
+        this.byAliasIgnoreCase = aliasesIgnoreCase;
+        this.bySubject = subjects;
+    }
+
+    /**
+     * Builds an index from every private key entry of the KeyStore
+     */
+    public static KeyIndex build(KeyStore keyStore) throws GeneralSecurityException {
+        List<Entry> entries = new ArrayList<>();
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (!keyStore.isKeyEntry(alias)) {
+                continue;
+            }
+            Key key = keyStore.getKey(alias, null); // PKCS#11 doesn't use key passwords
+            if (key instanceof PrivateKey) {
+                entries.add(new Entry(alias, (PrivateKey) key, keyStore.getCertificateChain(alias)));
+            }
+        }
+        log.debug("Indexed {} private keys", entries.size());
+        return new KeyIndex(entries);
+    }
+
+    /**
+     * Builds an index from already resolved entries
+     */
+    public static KeyIndex of(List<Entry> entries) {
+        return new KeyIndex(new ArrayList<>(entries));
+    }
+
+    /**
+     * Finds the key for a label: exact alias, then case-insensitive alias, then certificate subject.
+     * As a last resort the aliases are searched for the label as a substring, matching the behaviour of
+     * the original alias scan, but only against the in-memory index.
+     */
+    public Entry find(String keyLabel) {
+        Entry entry = findCached(keyLabel);
+        if (entry == null) {
+            entry = lookup(keyLabel);
+            if (entry != null && resolved.size() < MAX_RESOLVED) {
+                resolved.putIfAbsent(keyLabel, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Finds the key by exact alias or a label resolved before, without falling back to a lookup
+     */
+    public Entry findCached(String keyLabel) {
+        Entry entry = byAlias.get(keyLabel);
+        return entry != null ? entry : resolved.get(keyLabel);
+    }
+
+    private Entry lookup(String keyLabel) {
+        Entry entry = byAliasIgnoreCase.get(keyLabel.toLowerCase(Locale.ROOT));
+        if (entry == null) {
+            entry = bySubject.get(normalizeSubject(keyLabel));
+        }
+        if (entry == null) {
+            String lowerLabel = keyLabel.toLowerCase(Locale.ROOT);
+            for (Entry candidate : entries) {
+                if (candidate.getAlias().toLowerCase(Locale.ROOT).contains(lowerLabel)) {
+                    log.debug("Key label {} matched alias {} by substring", keyLabel, candidate.getAlias());
+                    entry = candidate;
+                    break;
+                }
+            }
+        }
+        return entry;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public Set<String> getAliases() {
+        return Collections.unmodifiableSet(byAlias.keySet());
+    }
+
+    /**
+     * Tells whether another index holds the same aliases, i.e. the token contents did not change
+     */
+    public boolean hasSameAliases(KeyIndex other) {
+        return other != null && byAlias.keySet().equals(other.byAlias.keySet());
+    }
+
+    private static Set<String> subjectNames(Certificate certificate) {
+        Set<String> names = new LinkedHashSet<>();
+        if (!(certificate instanceof X509Certificate)) {
+            return names;
+        }
+        X500Principal subject = ((X509Certificate) certificate).getSubjectX500Principal();
+        if (subject == null) {
+            return names;
+        }
+        String dn = subject.getName(X500Principal.RFC2253);
+        names.add(normalizeSubject(dn));
+        try {
+            for (Rdn rdn : new LdapName(dn).getRdns()) {
+                if ("CN".equalsIgnoreCase(rdn.getType())) {
+                    names.add(normalizeSubject(String.valueOf(rdn.getValue())));
+                }
+            }
+        } catch (InvalidNameException e) {
+            log.debug("Could not parse certificate subject: {}", dn);
+        }
+        return names;
+    }
+
+    private static String normalizeSubject(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A private key and its certificate chain as found on the token. The public key is taken from the
+     * certificate once, so verification never goes back to the token.
+     */
+    public static final class Entry {
+
+        private final String alias;
+        private final PrivateKey privateKey;
+        private final Certificate[] certificateChain;
+        private final PublicKey publicKey;
+
+        public Entry(String alias, PrivateKey privateKey, Certificate[] certificateChain) {
+            this.alias = alias;
+            this.privateKey = privateKey;
+            this.certificateChain = certificateChain == null ? new Certificate[0] : certificateChain;
+            this.publicKey = this.certificateChain.length > 0 ? this.certificateChain[0].getPublicKey() : null;
+        }
+
+        public String getAlias() {
+            return alias;
+        }
+
+        public PrivateKey getPrivateKey() {
+            return privateKey;
+        }
+
+        public Certificate[] getCertificateChain() {
+            return certificateChain.clone();
+        }
+
+        public Certificate getCertificate() {
+            return certificateChain.length > 0 ? certificateChain[0] : null;
+        }
+
+        /**
+         * Gets the public key of the certificate, or null when the key has no certificate
+         */
+        public PublicKey getPublicKey() {
+            return publicKey;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Preloads keys and runs warm-up signatures at startup.
+ * <p>
+ * Application runners complete before Spring Boot publishes {@code ReadinessState.ACCEPTING_TRAFFIC},
+ * so the readiness probe keeps reporting OUT_OF_SERVICE until every key has been warmed up.
+ */
+@Slf4j
+@Component
+@Profile("!test")
+public class KeyWarmupRunner implements ApplicationRunner {
+
+    private static final byte[] WARMUP_DATA = "pkcs11-warmup".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private Pkcs11ProviderService pkcs11ProviderService;
+
+    @Autowired
+    private SigningService signingService;
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Pkcs11Properties.Warmup warmup = pkcs11Properties.getWarmup();
+        if (!warmup.isEnabled()) {
+            log.info("Key warm-up disabled");
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<TokenKey> keys;
+        try {
+            keys = pkcs11ProviderService.preloadKeys(warmup.getKeyLabels());
+        } catch (Exception e) {
+            // A missing key should not keep the whole service from starting
+            log.warn("Key warm-up failed after {} ms: {}", (System.nanoTime() - start) / 1_000_000, e.getMessage());
+            return;
+        }
+
+        int warmed = 0;
+        for (TokenKey key : keys) {
+            // One failing key must not leave the keys after it cold
+            try {
+                if (warmUp(key, warmup.getIterations())) {
+                    warmed++;
+                }
+            } catch (Exception e) {
+                log.warn("Key warm-up failed for key: {} on token: {}: {}",
+                        key.getKeyLabel(), key.getToken().getName(), e.getMessage());
+            }
+        }
+        log.info("Key warm-up completed for {} of {} keys in {} ms",
+                warmed, keys.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Runs the warm-up signatures with one key
+     *
+     * @return false if the key type cannot be signed with and the key was skipped
+     */
+    private boolean warmUp(TokenKey key, int iterations) throws Exception {
+        String algorithmType = key.getPrivateKey().getAlgorithm();
+        if (!"RSA".equals(algorithmType) && !"EC".equals(algorithmType)) {
+            log.info("Skipping warm-up of key: {} on token: {}, unsupported key type: {}",
+                    key.getKeyLabel(), key.getToken().getName(), algorithmType);
+            return false;
+        }
+        byte[] digest = MessageDigest.getInstance(DigestAlgorithm.SHA256.getJcaName()).digest(WARMUP_DATA);
+
+        long first = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            signingService.signWithKey(key, algorithmType, WARMUP_DATA);
+            signingService.signDigestWithKey(key, algorithmType, DigestAlgorithm.SHA256, digest);
+            if (i == 0) {
+                first = System.nanoTime() - start;
+            }
+        }
+        long total = System.nanoTime() - start;
+
+        log.info("Warmed up key: {} ({}) on token: {}, signatures: {}, first: {} ms, average: {} µs",
+                key.getKeyLabel(), algorithmType, key.getToken().getName(), iterations * 2, first / 1_000_000,
+                iterations == 0 ? 0 : total / (iterations * 2L) / 1_000);
+        return true;
+    }
+}
@@ -6,13 +6,19 @@ import com.example.pkcs11.exception.SigningException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.security.*;
 import java.security.cert.Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 @Slf4j
 @Service
@@ -20,36 +26,66 @@ import java.util.Map;
 public class Pkcs11ProviderService {
 
     @Autowired
-    private Provider pkcs11Provider;
+    private List<Pkcs11Token> pkcs11Tokens;
 
     @Autowired
     private Pkcs11Properties pkcs11Properties;
 
-    private Map<String, PrivateKey> keyMap = new HashMap<>();
+    @Autowired
+    private SignatureEnginePool signatureEnginePool;
+
+    @Autowired
+    private SignatureCache signatureCache;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
 
-    // Cache for key store to avoid repeated PIN authentication
-    private volatile KeyStore cachedKeyStore;
+    @PostConstruct
+    void scheduleKeyIndexRefresh() {
+        Duration interval = pkcs11Properties.getKeyIndex().getRefreshInterval();
+        if (interval != null && !interval.isZero() && !interval.isNegative()) {
+            log.info("Refreshing key index every {}", interval);
+            taskScheduler.scheduleWithFixedDelay(this::refreshKeyIndexQuietly, interval);
+        }
+    }
 
     /**
      * Retrieves a private key from the PKCS#11 token
      */
     public PrivateKey getPrivateKey(String keyLabel) {
-        try {
-            PrivateKey privateKey = keyMap.get(keyLabel);
-            if (privateKey == null) {
-                KeyStore keyStore = getKeyStore();
-
-                // Find the key by alias
-                privateKey = findPrivateKeyByLabel(keyStore, keyLabel);
-                if (privateKey == null) {
-                    throw new KeyNotFoundException("Private key not found for label: " + keyLabel);
-                }
+        return selectKey(keyLabel).getPrivateKey();
+    }
 
-                log.debug("Successfully retrieved private key for label: {}", keyLabel);
+    /**
+     * Selects the replica of a key on the least loaded available token
+     */
+    public TokenKey selectKey(String keyLabel) {
+        return TokenKey.leastOutstanding(resolveKey(keyLabel));
+    }
 
-                keyMap.put(keyLabel, privateKey);
+    /**
+     * Gets the alias a label resolves to, on the first token holding the key
+     */
+    public String resolveAlias(String keyLabel) {
+        return resolveKey(keyLabel).get(0).getAlias();
+    }
+
+    /**
+     * Resolves a key on every token that holds it
+     */
+    public List<TokenKey> resolveKey(String keyLabel) {
+        try {
+            List<TokenKey> replicas = new ArrayList<>(pkcs11Tokens.size());
+            for (Pkcs11Token token : pkcs11Tokens) {
+                KeyIndex.Entry entry = token.findKey(keyLabel);
+                if (entry != null) {
+                    replicas.add(new TokenKey(token, keyLabel, entry.getAlias(), entry.getPrivateKey()));
+                }
+            }
+            if (replicas.isEmpty()) {
+                throw new KeyNotFoundException("Private key not found for label: " + keyLabel);
             }
-            return privateKey;
+            return replicas;
 
         } catch (KeyNotFoundException e) {
             throw e;
@@ -60,81 +96,90 @@ public class Pkcs11ProviderService {
     }
 
     /**
-     * Gets or creates a KeyStore for the PKCS#11 provider
+     * Gets the public key from the certificate stored with a key, on the first token that has one.
+     * It was extracted when the key index was built, so this never touches the token.
      */
-    private KeyStore getKeyStore() throws Exception {
-        if (cachedKeyStore == null) {
-            synchronized (this) {
-                if (cachedKeyStore == null) {
-                    try {
-                        KeyStore keyStore = KeyStore.getInstance("PKCS11", pkcs11Provider);
-                        char[] pin = pkcs11Properties.getPin().toCharArray();
-                        keyStore.load(null, pin);
-                        log.debug("KeyStore loaded successfully with provider PIN");
-                        debugKeystore(keyStore);
-                        cachedKeyStore = keyStore;
-                    } catch (Exception e) {
-                        log.error("Failed to load KeyStore with provider PIN", e);
-                        throw new SigningException("Failed to load KeyStore: " + e.getMessage(), e);
-                    }
+    public PublicKey getPublicKey(String keyLabel) {
+        return findCertifiedEntry(keyLabel).getPublicKey();
+    }
+
+    /**
+     * Gets the certificate chain stored with a key, on the first token that has one
+     */
+    public Certificate[] getCertificateChain(String keyLabel) {
+        return findCertifiedEntry(keyLabel).getCertificateChain();
+    }
+
+    private KeyIndex.Entry findCertifiedEntry(String keyLabel) {
+        try {
+            for (Pkcs11Token token : pkcs11Tokens) {
+                KeyIndex.Entry entry = token.findKey(keyLabel);
+                if (entry != null && entry.getPublicKey() != null) {
+                    return entry;
                 }
             }
+        } catch (Exception e) {
+            log.error("Failed to retrieve certificate for label: {}", keyLabel, e);
+            throw new SigningException("Failed to retrieve certificate: " + e.getMessage(), e);
         }
-        return cachedKeyStore;
+        throw new KeyNotFoundException("Certificate not found for label: " + keyLabel);
     }
 
     /**
-     * Finds a private key by label in the KeyStore
+     * Resolves the given key labels on every token holding them, or every key on every token when
+     * none are given, so the KeyStore loads and key index builds happen before the first request
      */
-    private PrivateKey findPrivateKeyByLabel(KeyStore keyStore, String keyLabel) throws Exception {
-        Enumeration<String> aliases = keyStore.aliases();
-
-        while (aliases.hasMoreElements()) {
-            String alias = aliases.nextElement();
-            log.debug("Checking alias: {}", alias);
-
-            // Check if this alias matches our key label or contains it
-            if (alias.equals(keyLabel) || alias.contains(keyLabel)) {
-                if (keyStore.isKeyEntry(alias)) {
-                    Key key = keyStore.getKey(alias, null); // PKCS#11 doesn't use key passwords
-                    if (key instanceof PrivateKey) {
-                        log.debug("Found private key with alias: {}", alias);
-                        return (PrivateKey) key;
-                    }
-                }
+    public List<TokenKey> preloadKeys(List<String> keyLabels) {
+        Collection<String> labels = keyLabels == null || keyLabels.isEmpty() ? getKeyLabels() : keyLabels;
+        List<TokenKey> keys = new ArrayList<>();
+        for (String keyLabel : labels) {
+            keys.addAll(resolveKey(keyLabel));
+        }
+        log.info("Preloaded {} private keys on {} tokens", keys.size(), pkcs11Tokens.size());
+        return keys;
+    }
+
+    /**
+     * Gets the labels of all private keys across tokens
+     */
+    public Set<String> getKeyLabels() {
+        try {
+            Set<String> labels = new LinkedHashSet<>();
+            for (Pkcs11Token token : pkcs11Tokens) {
+                labels.addAll(token.getKeyIndex().getAliases());
             }
+            return labels;
+        } catch (Exception e) {
+            throw new SigningException("Failed to list private keys: " + e.getMessage(), e);
         }
+    }
 
-        // If exact match not found, try to find by certificate subject or other attributes
-        return findPrivateKeyByAttributes(keyStore, keyLabel);
+    public List<Pkcs11Token> getTokens() {
+        return pkcs11Tokens;
     }
 
     /**
-     * Alternative method to find private key by certificate attributes
+     * Reloads each token's KeyStore and swaps in a new key index where the token contents changed.
+     * Lookups keep using the previous index until the new one is complete.
      */
-    private PrivateKey findPrivateKeyByAttributes(KeyStore keyStore, String keyLabel) throws Exception {
-        Enumeration<String> aliases = keyStore.aliases();
-
-        while (aliases.hasMoreElements()) {
-            String alias = aliases.nextElement();
-
-            if (keyStore.isKeyEntry(alias)) {
-                Certificate cert = keyStore.getCertificate(alias);
-                if (cert != null) {
-                    // You could add more sophisticated matching logic here
-                    // For now, we'll just check if the alias contains the label
-                    if (alias.toLowerCase().contains(keyLabel.toLowerCase())) {
-                        Key key = keyStore.getKey(alias, null);
-                        if (key instanceof PrivateKey) {
-                            log.debug("Found private key with matching alias: {}", alias);
-                            return (PrivateKey) key;
-                        }
-                    }
-                }
-            }
+    public void refreshKeyIndex() throws Exception {
+        boolean changed = false;
+        for (Pkcs11Token token : pkcs11Tokens) {
+            changed |= token.refreshKeyIndex();
+        }
+        if (changed) {
+            signatureEnginePool.invalidateAll();
+            // A key may have been replaced under the same alias
+            signatureCache.clear();
         }
+    }
 
-        return null;
+    private void refreshKeyIndexQuietly() {
+        try {
+            refreshKeyIndex();
+        } catch (Exception e) {
+            log.warn("Failed to refresh key index: {}", e.getMessage());
+        }
     }
 
     /**
@@ -151,6 +196,20 @@ public class Pkcs11ProviderService {
         }
     }
 
+    /**
+     * Gets the raw (no hashing) algorithm name used to sign a precomputed digest
+     */
+    public String getPrehashedSigningAlgorithm(String algorithmType) {
+        switch (algorithmType.toUpperCase()) {
+            case "RSA":
+                return "NONEwithRSA";
+            case "EC":
+                return "NONEwithECDSA";
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm type: " + algorithmType);
+        }
+    }
+
     /**
      * Validates that the key type matches the private key algorithm
      */
@@ -175,12 +234,13 @@ public class Pkcs11ProviderService {
     }
 
     /**
-     * Clears the key store cache (useful for testing or configuration changes)
+     * Clears the key store cache, pooled signature engines and cached signatures (useful for testing or
+     * configuration changes)
      */
     public void clearCache() {
-        synchronized (this) {
-            cachedKeyStore = null;
-        }
+        pkcs11Tokens.forEach(Pkcs11Token::clear);
+        signatureEnginePool.invalidateAll();
+        signatureCache.clear();
         log.info("KeyStore cache cleared");
     }
 
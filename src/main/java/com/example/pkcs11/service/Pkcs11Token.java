@@ -0,0 +1,256 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.exception.SigningException;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.security.auth.login.LoginException;
+import java.security.AuthProvider;
+import java.security.KeyStore;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One PKCS#11 slot: its SunPKCS11 provider, KeyStore and key index, plus the load-balancing state
+ * used to spread requests across tokens holding replicas of the same key.
+ */
+@Slf4j
+public class Pkcs11Token {
+
+    private final String name;
+    private final Provider provider;
+    private final String pin;
+    private final int failureThreshold;
+    private final Duration quarantine;
+
+    // Cache for key store to avoid repeated PIN authentication
+    private volatile KeyStore cachedKeyStore;
+
+    // Index of the token's private keys, replaced as a whole on refresh
+    private volatile KeyIndex keyIndex;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long unavailableUntil;
+    private volatile long lastUsed = System.nanoTime();
+
+    // Set while the token's session is being re-established, or its recovery is backing off
+    private volatile boolean recovering;
+
+    private final LongAdder keyCacheHits = new LongAdder();
+    private final LongAdder keyCacheMisses = new LongAdder();
+
+    public Pkcs11Token(String name, Provider provider, String pin, int failureThreshold, Duration quarantine) {
+        this.name = name;
+        this.provider = provider;
+        this.pin = pin;
+        this.failureThreshold = failureThreshold;
+        this.quarantine = quarantine;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Provider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Gets the key index, building it in one pass over the KeyStore on first use
+     */
+    public KeyIndex getKeyIndex() throws Exception {
+        KeyIndex index = keyIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = keyIndex;
+                if (index == null) {
+                    index = KeyIndex.build(getKeyStore());
+                    log.info("Indexed {} private keys on token {}", index.size(), name);
+                    keyIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Reloads the KeyStore and swaps in a new key index if the token contents changed.
+     * Lookups keep using the previous index until the new one is complete.
+     *
+     * @return true if the index was replaced
+     */
+    public boolean refreshKeyIndex() throws Exception {
+        KeyStore keyStore = loadKeyStore();
+        KeyIndex refreshed = KeyIndex.build(keyStore);
+        synchronized (this) {
+            if (refreshed.hasSameAliases(keyIndex)) {
+                log.debug("Key index unchanged on token {}, {} private keys", name, refreshed.size());
+                return false;
+            }
+            cachedKeyStore = keyStore;
+            keyIndex = refreshed;
+        }
+        log.info("Key index refreshed on token {}, {} private keys", name, refreshed.size());
+        return true;
+    }
+
+    /**
+     * Finds a key in the index, counting whether the label was already known
+     */
+    public KeyIndex.Entry findKey(String keyLabel) throws Exception {
+        KeyIndex index = getKeyIndex();
+        KeyIndex.Entry entry = index.findCached(keyLabel);
+        if (entry != null) {
+            keyCacheHits.increment();
+            return entry;
+        }
+        keyCacheMisses.increment();
+        return index.find(keyLabel);
+    }
+
+    public long getKeyCacheHits() {
+        return keyCacheHits.sum();
+    }
+
+    public long getKeyCacheMisses() {
+        return keyCacheMisses.sum();
+    }
+
+    /**
+     * Logs out and back in, then reloads the KeyStore and key index so every key handle is resolved again.
+     * The provider itself is kept; SunPKCS11 reconnects to a re-inserted or restarted token on the next login.
+     */
+    public void relogin() throws Exception {
+        if (provider instanceof AuthProvider) {
+            try {
+                ((AuthProvider) provider).logout();
+            } catch (LoginException e) {
+                // The session is usually already gone, which is why we are here
+                log.debug("Logout before re-login failed on token {}: {}", name, e.getMessage());
+            }
+        }
+        KeyStore keyStore = loadKeyStore();
+        KeyIndex rebuilt = KeyIndex.build(keyStore);
+        synchronized (this) {
+            cachedKeyStore = keyStore;
+            keyIndex = rebuilt;
+        }
+        consecutiveFailures.set(0);
+        unavailableUntil = 0;
+        log.info("Re-logged in to token {}, {} private keys", name, rebuilt.size());
+    }
+
+    /**
+     * Makes a cheap call on the token so an idle session is not closed by the token's idle timeout
+     *
+     * @return false if the token offers no operation to keep its session alive
+     */
+    public boolean keepAlive() throws Exception {
+        if (provider.getService("SecureRandom", "PKCS11") == null) {
+            return false;
+        }
+        // A fresh instance has nothing buffered, so this always reaches the token
+        SecureRandom.getInstance("PKCS11", provider).nextBytes(new byte[1]);
+        lastUsed = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Drops the cached KeyStore and key index; they are rebuilt on next use
+     */
+    public synchronized void clear() {
+        cachedKeyStore = null;
+        keyIndex = null;
+    }
+
+    /**
+     * Gets or creates a KeyStore for the PKCS#11 provider
+     */
+    private KeyStore getKeyStore() {
+        if (cachedKeyStore == null) {
+            synchronized (this) {
+                if (cachedKeyStore == null) {
+                    cachedKeyStore = loadKeyStore();
+                }
+            }
+        }
+        return cachedKeyStore;
+    }
+
+    private KeyStore loadKeyStore() {
+        try {
+            KeyStore keyStore = KeyStore.getInstance("PKCS11", provider);
+            keyStore.load(null, pin.toCharArray());
+            log.debug("KeyStore loaded successfully with provider PIN for token {}", name);
+            Pkcs11ProviderService.debugKeystore(keyStore);
+            return keyStore;
+        } catch (Exception e) {
+            log.error("Failed to load KeyStore with provider PIN for token {}", name, e);
+            throw new SigningException("Failed to load KeyStore: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Marks the start of an operation on this token
+     */
+    public void begin() {
+        outstanding.incrementAndGet();
+    }
+
+    /**
+     * Marks the end of an operation and updates the token's health
+     */
+    public void end(boolean success) {
+        outstanding.decrementAndGet();
+        lastUsed = System.nanoTime();
+        if (success) {
+            consecutiveFailures.set(0);
+        } else if (consecutiveFailures.incrementAndGet() >= failureThreshold && isAvailable()) {
+            unavailableUntil = System.nanoTime() + quarantine.toNanos();
+            log.warn("Token {} taken out of rotation for {} after {} consecutive failures",
+                    name, quarantine, consecutiveFailures.get());
+        }
+    }
+
+    /**
+     * Marks the end of an operation that was turned away before reaching the token; health is unchanged
+     */
+    public void cancel() {
+        outstanding.decrementAndGet();
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Nanoseconds since the last operation completed on this token
+     */
+    public long getIdleNanos() {
+        return System.nanoTime() - lastUsed;
+    }
+
+    public boolean isRecovering() {
+        return recovering;
+    }
+
+    void setRecovering(boolean recovering) {
+        this.recovering = recovering;
+    }
+
+    /**
+     * Tells whether the token is in rotation; a quarantined token comes back once its quarantine expires,
+     * a recovering one once its session has been re-established
+     */
+    public boolean isAvailable() {
+        return !recovering && (unavailableUntil == 0 || System.nanoTime() - unavailableUntil >= 0);
+    }
+
+    @Override
+    public String toString() {
+        return "Pkcs11Token{name='" + name + "', outstanding=" + outstanding.get() + ", available=" + isAvailable() + '}';
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.IdempotencyConflictException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Serves repeated signing requests from recent signatures instead of the token.
+ * <p>
+ * A request is identified by a SHA-256 hash of its key alias, algorithm, digest algorithm and data, or by the
+ * {@code Idempotency-Key} the client sent with it. Keys go by their alias on the token, so every label that resolves
+ * to a key shares its signatures and settings. A key sent again with different data is refused rather than
+ * answered with the signature of the first request. Identical requests arriving while the first is still on the
+ * token wait for its signature, so a burst of retries reaches the token once. Signatures are kept for the key's
+ * {@code ttl} and the least recently used is evicted beyond {@code max-entries}; failures are never cached.
+ * Everything is dropped when the keys on the tokens may have changed.
+ */
+@Slf4j
+@Component
+public class SignatureCache {
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private SigningMetrics signingMetrics;
+
+    // Access ordered, so the eldest entry is the least recently used; guarded by itself
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > pkcs11Properties.getSignatureCache().getMaxEntries()) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final ConcurrentMap<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    // Bumped by clear(), so a signature made before it is not cached after it
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Whether any key may be cached, so callers can skip resolving the key when none is
+     */
+    public boolean isInUse() {
+        Pkcs11Properties.SignatureCache config = pkcs11Properties.getSignatureCache();
+        return config.isEnabled() || !config.getKeys().isEmpty();
+    }
+
+    /**
+     * Whether signatures made with this key are cached, by its override or else the default
+     *
+     * @param alias the alias of the key on the token
+     */
+    public boolean isEnabled(String alias) {
+        Pkcs11Properties.SignatureCache config = pkcs11Properties.getSignatureCache();
+        Pkcs11Properties.KeyCache override = config.getKeys().get(alias);
+        return override != null && override.getEnabled() != null ? override.getEnabled() : config.isEnabled();
+    }
+
+    /**
+     * Gets the cached signature of a request, waits for an identical request already on the token,
+     * or signs it and caches the signature
+     *
+     * @param alias          the alias of the key on the token
+     * @param idempotencyKey the client's key for the request, or null to identify it by its content
+     * @param operation      signs the request on the token
+     */
+    public Lookup sign(String alias, String algorithmType, String digestAlgorithm, byte[] data,
+                       String idempotencyKey, Supplier<byte[]> operation) {
+        long startGeneration = generation.get();
+        byte[] fingerprint = hash(alias, algorithmType, String.valueOf(digestAlgorithm), data);
+        String key = idempotencyKey == null
+                ? Base64.getEncoder().encodeToString(fingerprint)
+                : "idempotency:" + Base64.getEncoder().encodeToString(
+                        hash(alias, algorithmType, idempotencyKey, new byte[0]));
+
+        Entry entry = get(key);
+        if (entry != null) {
+            checkFingerprint(entry.fingerprint, fingerprint, idempotencyKey);
+            hits.increment();
+            signingMetrics.recordSignatureCache(SigningMetrics.CACHE_HIT);
+            return new Lookup(entry.signature, true);
+        }
+
+        InFlight mine = new InFlight(fingerprint);
+        InFlight existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            checkFingerprint(existing.fingerprint, fingerprint, idempotencyKey);
+            coalesced.increment();
+            signingMetrics.recordSignatureCache(SigningMetrics.CACHE_COALESCED);
+            return new Lookup(await(existing.signature), true);
+        }
+
+        try {
+            // The request that was in flight may have cached its signature between the lookup and claiming the key
+            entry = get(key);
+            if (entry != null) {
+                checkFingerprint(entry.fingerprint, fingerprint, idempotencyKey);
+                mine.signature.complete(entry.signature);
+                hits.increment();
+                signingMetrics.recordSignatureCache(SigningMetrics.CACHE_HIT);
+                return new Lookup(entry.signature, true);
+            }
+
+            misses.increment();
+            signingMetrics.recordSignatureCache(SigningMetrics.CACHE_MISS);
+            byte[] signature = operation.get();
+            put(key, new Entry(signature, fingerprint, System.nanoTime() + ttl(alias).toNanos()), startGeneration);
+            mine.signature.complete(signature);
+            return new Lookup(signature, false);
+        } catch (RuntimeException | Error e) {
+            mine.signature.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private Entry get(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.expiresAt >= 0) {
+                entries.remove(key);
+                expirations.increment();
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private void put(String key, Entry entry, long startGeneration) {
+        synchronized (entries) {
+            if (generation.get() == startGeneration) {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Drops every cached signature, for when a key on a token may have been replaced
+     */
+    public void clear() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+        log.info("Signature cache cleared");
+    }
+
+    private Duration ttl(String alias) {
+        Pkcs11Properties.SignatureCache config = pkcs11Properties.getSignatureCache();
+        Pkcs11Properties.KeyCache override = config.getKeys().get(alias);
+        return override != null && override.getTtl() != null ? override.getTtl() : config.getTtl();
+    }
+
+    private static void checkFingerprint(byte[] expected, byte[] actual, String idempotencyKey) {
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw new IdempotencyConflictException(
+                    "Idempotency-Key " + idempotencyKey + " was already used for a different request");
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> signature) {
+        try {
+            return signature.join();
+        } catch (CompletionException e) {
+            // The waiters see the same failure as the request that went to the token
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static byte[] hash(String alias, String algorithmType, String qualifier, byte[] data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        for (String part : new String[]{alias, algorithmType, qualifier}) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return digest.digest(data);
+    }
+
+    /**
+     * Gets the number of cached signatures, the lookup counters and the hit rate
+     */
+    public Map<String, Object> getStatistics() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        long hitCount = hits.sum();
+        long coalescedCount = coalesced.sum();
+        long lookups = hitCount + coalescedCount + misses.sum();
+
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("enabled", pkcs11Properties.getSignatureCache().isEnabled());
+        statistics.put("size", size);
+        statistics.put("hits", hitCount);
+        statistics.put("misses", misses.sum());
+        statistics.put("coalesced", coalescedCount);
+        statistics.put("evictions", evictions.sum());
+        statistics.put("expirations", expirations.sum());
+        statistics.put("hitRate", lookups == 0 ? 0.0 : (double) (hitCount + coalescedCount) / lookups);
+        return statistics;
+    }
+
+    /**
+     * The signature of a request and whether it was served without signing on the token
+     */
+    public static final class Lookup {
+
+        private final byte[] signature;
+        private final boolean cached;
+
+        Lookup(byte[] signature, boolean cached) {
+            this.signature = signature;
+            this.cached = cached;
+        }
+
+        public byte[] getSignature() {
+            return signature;
+        }
+
+        public boolean isCached() {
+            return cached;
+        }
+    }
+
+    private static final class Entry {
+
+        final byte[] signature;
+        final byte[] fingerprint;
+        final long expiresAt;
+
+        Entry(byte[] signature, byte[] fingerprint, long expiresAt) {
+            this.signature = signature;
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class InFlight {
+
+        final byte[] fingerprint;
+        final CompletableFuture<byte[]> signature = new CompletableFuture<>();
+
+        InFlight(byte[] fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of Signature engines that are already initialized for signing.
+ * <p>
+ * Engines are pinned to the provider of the token holding the key, and keyed by token, key alias and algorithm,
+ * so every label that resolves to a key shares its engines.
+ * A completed {@link Signature#sign()} resets the engine to its post-initSign state,
+ * so a released engine can be handed to the next request without another provider
+ * lookup or initSign round trip.
+ */
+@Slf4j
+@Component
+public class SignatureEnginePool {
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    private final ConcurrentMap<String, BlockingQueue<Lease>> idleEngines = new ConcurrentHashMap<>();
+
+    // Bumped on invalidation so that engines checked out before it are not returned to the pool
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder discards = new LongAdder();
+
+    /**
+     * Borrows an engine initialized with the given key, creating one if none is idle
+     */
+    public Lease acquire(TokenKey key, String algorithm) throws GeneralSecurityException {
+        String poolKey = poolKey(key, algorithm);
+        PrivateKey privateKey = key.getPrivateKey();
+        if (pkcs11Properties.getSignaturePool().isEnabled()) {
+            BlockingQueue<Lease> queue = idleEngines.get(poolKey);
+            Lease lease;
+            while (queue != null && (lease = queue.poll()) != null) {
+                if (lease.privateKey == privateKey && lease.generation == generation.get()) {
+                    hits.increment();
+                    return lease;
+                }
+                // Key handle was re-resolved since this engine was initialized
+                discards.increment();
+            }
+        }
+
+        misses.increment();
+        Signature signature = Signature.getInstance(algorithm, key.getToken().getProvider());
+        signature.initSign(privateKey);
+        log.debug("Created signature engine for key: {}, algorithm: {}, token: {}",
+                key.getKeyLabel(), algorithm, key.getToken().getName());
+        return new Lease(poolKey, privateKey, signature, generation.get());
+    }
+
+    /**
+     * Returns an engine after a successful sign() so it can be reused
+     */
+    public void release(Lease lease) {
+        if (!pkcs11Properties.getSignaturePool().isEnabled() || lease.generation != generation.get()) {
+            discards.increment();
+            return;
+        }
+        BlockingQueue<Lease> queue = idleEngines.computeIfAbsent(lease.poolKey,
+                k -> new ArrayBlockingQueue<>(Math.max(1, pkcs11Properties.getSignaturePool().getMaxIdlePerKey())));
+        if (!queue.offer(lease)) {
+            discards.increment();
+        }
+    }
+
+    /**
+     * Drops an engine whose state is unknown, e.g. after a failed update() or sign()
+     */
+    public void discard(Lease lease) {
+        discards.increment();
+    }
+
+    /**
+     * Drops all idle engines; engines currently checked out are discarded on release
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        idleEngines.clear();
+        log.info("Signature engine pool invalidated");
+    }
+
+    /**
+     * Gets the invalidation generation, for engine caches kept outside the pool
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getDiscards() {
+        return discards.sum();
+    }
+
+    public int getIdleCount() {
+        return idleEngines.values().stream().mapToInt(BlockingQueue::size).sum();
+    }
+
+    /**
+     * Gets a snapshot of the pool counters
+     */
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", getHits());
+        stats.put("misses", getMisses());
+        stats.put("discards", getDiscards());
+        stats.put("idle", (long) getIdleCount());
+        return stats;
+    }
+
+    private static String poolKey(TokenKey key, String algorithm) {
+        return key.getToken().getName() + '\u0000' + key.getAlias() + '\u0000' + algorithm;
+    }
+
+    /**
+     * An engine checked out of the pool
+     */
+    public static final class Lease {
+
+        private final String poolKey;
+        private final PrivateKey privateKey;
+        private final Signature signature;
+        private final long generation;
+
+        private Lease(String poolKey, PrivateKey privateKey, Signature signature, long generation) {
+            this.poolKey = poolKey;
+            this.privateKey = privateKey;
+            this.signature = signature;
+            this.generation = generation;
+        }
+
+        public Signature getSignature() {
+            return signature;
+        }
+    }
+}
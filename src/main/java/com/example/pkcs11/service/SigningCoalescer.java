@@ -0,0 +1,305 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.SigningException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Coalesces concurrent signing requests for the same key replica and algorithm.
+ * <p>
+ * The first request to arrive becomes the leader. Unless it is alone on the token, it waits up to {@code window}
+ * for others to join, then signs the whole batch back to back on one engine and session, handing each caller
+ * its signature. Requests that arrive while a batch is being signed queue up, and when it is done the oldest of
+ * them leads the next batch straight away. No extra threads are involved; callers only park until their
+ * signature is ready.
+ */
+@Slf4j
+@Component
+public class SigningCoalescer {
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private SignatureEnginePool signatureEnginePool;
+
+    @Autowired
+    private SigningMetrics signingMetrics;
+
+    private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<>();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+
+    public boolean isEnabled() {
+        return pkcs11Properties.getCoalescing().isEnabled();
+    }
+
+    /**
+     * Signs data as part of a batch of concurrent requests for the same key replica and algorithm
+     */
+    public byte[] sign(TokenKey key, String algorithm, byte[] data) throws GeneralSecurityException {
+        // By alias, so every spelling of a label joins the same batches
+        String groupKey = key.getToken().getName() + '\u0000' + key.getAlias() + '\u0000' + algorithm;
+        Job job = new Job(data, Thread.currentThread());
+        Group group;
+        boolean lead;
+        while (true) {
+            group = groups.computeIfAbsent(groupKey, Group::new);
+            synchronized (group) {
+                if (group.removed) {
+                    // Went idle and was dropped after it was looked up; the next lookup creates a new one
+                    continue;
+                }
+                group.pending.add(job);
+                lead = !group.leaderActive;
+                if (lead) {
+                    group.leaderActive = true;
+                    group.leader = job.thread;
+                } else if (group.pending.size() >= maxBatchSize()) {
+                    // The batch is full; no need for the leader to wait out the window
+                    LockSupport.unpark(group.leader);
+                }
+            }
+            break;
+        }
+
+        try {
+            if (lead) {
+                // A request alone on its token has nobody to wait for
+                if (key.getToken().getOutstanding() > 1) {
+                    awaitBatch(group, job);
+                }
+                lead(group, key, algorithm);
+            } else {
+                awaitSignature(group, job, key, algorithm);
+            }
+        } finally {
+            if (job.interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return job.result();
+    }
+
+    /**
+     * Parks the leader until the window has passed or the batch is full. An interrupted leader stops waiting
+     * but still signs, since the jobs that joined it depend on it.
+     */
+    private void awaitBatch(Group group, Job job) {
+        long deadline = System.nanoTime() + pkcs11Properties.getCoalescing().getWindow().toNanos();
+        while (true) {
+            if (Thread.interrupted()) {
+                job.interrupted = true;
+                return;
+            }
+            synchronized (group) {
+                if (group.pending.size() >= maxBatchSize()) {
+                    return;
+                }
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    /**
+     * Parks until the job is signed or promoted to leader. An interrupted caller gives up if its job is still
+     * pending; once taken into a batch or promoted it waits with the interrupt cleared, since parking returns
+     * at once while the flag is set.
+     */
+    private void awaitSignature(Group group, Job job, TokenKey key, String algorithm) {
+        long deadline = System.nanoTime() + pkcs11Properties.getCoalescing().getTimeout().toNanos();
+        while (!job.done) {
+            if (job.lead) {
+                // Promoted by the previous leader; its batch is waiting already
+                lead(group, key, algorithm);
+                return;
+            }
+            if (Thread.interrupted()) {
+                job.interrupted = true;
+                synchronized (group) {
+                    if (!job.lead && group.pending.remove(job)) {
+                        throw new SigningException("Interrupted waiting for coalesced signing of key: "
+                                + key.getKeyLabel());
+                    }
+                }
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                synchronized (group) {
+                    // A promoted job must lead, or the jobs behind it would have no leader
+                    if (!job.lead && group.pending.remove(job)) {
+                        throw new SigningException("Timed out waiting for coalesced signing of key: "
+                                + key.getKeyLabel());
+                    }
+                }
+                // Already taken into a batch, which completes it shortly
+                remaining = 1_000_000;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    /**
+     * Signs the pending jobs, then hands leadership to the oldest job still waiting
+     */
+    private void lead(Group group, TokenKey key, String algorithm) {
+        List<Job> batch;
+        synchronized (group) {
+            int size = Math.min(group.pending.size(), maxBatchSize());
+            batch = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                batch.add(group.pending.poll());
+            }
+        }
+        try {
+            signBatch(batch, key, algorithm);
+        } finally {
+            synchronized (group) {
+                Job next = group.pending.peek();
+                if (next == null) {
+                    // Idle groups are dropped, so the map only holds keys with requests in flight
+                    group.leaderActive = false;
+                    group.leader = null;
+                    group.removed = true;
+                    groups.remove(group.key, group);
+                } else {
+                    group.leader = next.thread;
+                    next.lead = true;
+                    LockSupport.unpark(next.thread);
+                }
+            }
+        }
+    }
+
+    private void signBatch(List<Job> batch, TokenKey key, String algorithm) {
+        SignatureEnginePool.Lease lease = null;
+        try {
+            for (Job job : batch) {
+                try {
+                    if (lease == null) {
+                        lease = signatureEnginePool.acquire(key, algorithm);
+                    }
+                    Signature signature = lease.getSignature();
+                    signature.update(job.data);
+                    job.signature = signature.sign();
+                } catch (Exception e) {
+                    // Engine state is unknown after a failure; the next job gets a fresh one
+                    if (lease != null) {
+                        signatureEnginePool.discard(lease);
+                        lease = null;
+                    }
+                    job.failure = e;
+                }
+                job.complete();
+            }
+        } catch (Error e) {
+            batch.stream().filter(job -> !job.done).forEach(job -> {
+                job.failure = e;
+                job.complete();
+            });
+            throw e;
+        } finally {
+            if (lease != null) {
+                signatureEnginePool.release(lease);
+            }
+        }
+        batches.increment();
+        requests.add(batch.size());
+        signingMetrics.recordCoalescedBatch(batch.size());
+        log.debug("Signed coalesced batch of {} for key: {} on token: {}",
+                batch.size(), key.getKeyLabel(), key.getToken().getName());
+    }
+
+    private int maxBatchSize() {
+        return Math.max(1, pkcs11Properties.getCoalescing().getMaxBatchSize());
+    }
+
+    /**
+     * Gets the number of batches signed and their average size
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long batchCount = batches.sum();
+        long requestCount = requests.sum();
+        stats.put("enabled", isEnabled());
+        stats.put("batches", batchCount);
+        stats.put("requests", requestCount);
+        stats.put("averageBatchSize", batchCount == 0 ? 0.0 : (double) requestCount / batchCount);
+        return stats;
+    }
+
+    private static final class Group {
+
+        private final String key;
+
+        // Guarded by the group's monitor
+        private final Deque<Job> pending = new ArrayDeque<>();
+        private boolean leaderActive;
+        private Thread leader;
+        private boolean removed;
+
+        private Group(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final class Job {
+
+        private final byte[] data;
+        private final Thread thread;
+        private volatile boolean done;
+        private volatile boolean lead;
+        // Only touched by the caller's own thread
+        private boolean interrupted;
+        private byte[] signature;
+        private Throwable failure;
+
+        private Job(byte[] data, Thread thread) {
+            this.data = data;
+            this.thread = thread;
+        }
+
+        private void complete() {
+            // The volatile write publishes signature and failure to the waiting caller
+            done = true;
+            LockSupport.unpark(thread);
+        }
+
+        private byte[] result() throws GeneralSecurityException {
+            if (failure == null) {
+                return signature;
+            }
+            if (failure instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) failure;
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw new SigningException("Cryptographic signing failed: " + failure.getMessage(), failure);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.OverloadedException;
+import com.example.pkcs11.exception.SigningException;
+import com.example.pkcs11.timing.Phase;
+import com.example.pkcs11.timing.PhaseTimer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Session-affine signing dispatcher.
+ * <p>
+ * Each token gets a fixed set of worker threads, sized to the number of sessions it allows, fed from a
+ * bounded queue. A worker keeps its own initialized engines, so the provider's session checkout is only
+ * contended by a handful of long-lived threads while request threads just wait on a future.
+ */
+@Slf4j
+@Component
+public class SigningDispatcher {
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private SignatureEnginePool signatureEnginePool;
+
+    private final ConcurrentMap<String, TokenWorkers> workersByToken = new ConcurrentHashMap<>();
+
+    private volatile boolean shutdown;
+
+    public boolean isEnabled() {
+        return pkcs11Properties.getDispatcher().isEnabled();
+    }
+
+    /**
+     * Queues a signing job on the key's token and waits for a worker to complete it
+     */
+    public byte[] sign(TokenKey key, String algorithm, byte[] data) {
+        Job job = new Job(key, algorithm, data);
+        TokenWorkers workers = workersByToken.computeIfAbsent(key.getToken().getName(), name -> start(key.getToken()));
+        if (!workers.queue.offer(job)) {
+            workers.rejected.increment();
+            throw new OverloadedException("Signing queue full for token: " + key.getToken().getName(),
+                    pkcs11Properties.getConcurrencyLimit().getRetryAfter());
+        }
+
+        try {
+            return job.result.get(pkcs11Properties.getDispatcher().getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            job.result.cancel(false);
+            throw new SigningException("Timed out waiting for signing worker on token: " + key.getToken().getName(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new SigningException("Cryptographic signing failed: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.result.cancel(false);
+            throw new SigningException("Interrupted waiting for signing worker", e);
+        }
+    }
+
+    private TokenWorkers start(Pkcs11Token token) {
+        int count = Math.max(1, pkcs11Properties.getDispatcher().getWorkersPerToken());
+        TokenWorkers workers = new TokenWorkers(count,
+                new ArrayBlockingQueue<>(Math.max(1, pkcs11Properties.getDispatcher().getQueueCapacity())));
+        for (int i = 0; i < count; i++) {
+            Thread thread = new Thread(() -> runWorker(workers), "hsm-" + token.getName() + "-" + i);
+            thread.setDaemon(true);
+            workers.threads.add(thread);
+            thread.start();
+        }
+        log.info("Started {} signing workers for token {}", count, token.getName());
+        return workers;
+    }
+
+    private void runWorker(TokenWorkers workers) {
+        // Engines owned by this worker, keyed by key alias and algorithm, so every spelling of a label shares them
+        Map<String, Engine> engines = new HashMap<>();
+        while (!shutdown) {
+            Job job;
+            try {
+                job = workers.queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (job.result.isCancelled()) {
+                continue;
+            }
+
+            workers.busy.incrementAndGet();
+            long start = System.nanoTime();
+            String engineKey = job.key.getAlias() + '\u0000' + job.algorithm;
+            byte[] signatureBytes = null;
+            Throwable failure = null;
+            try {
+                Engine engine = engines.get(engineKey);
+                if (engine == null || !engine.isValidFor(job.key.getPrivateKey(), signatureEnginePool.getGeneration())) {
+                    PhaseTimer init = PhaseTimer.start(Phase.INIT);
+                    Signature signature = Signature.getInstance(job.algorithm, job.key.getToken().getProvider());
+                    signature.initSign(job.key.getPrivateKey());
+                    init.stop(job.key.getKeyLabel());
+                    engine = new Engine(job.key.getPrivateKey(), signature, signatureEnginePool.getGeneration());
+                    engines.put(engineKey, engine);
+                }
+                PhaseTimer sign = PhaseTimer.start(Phase.SIGN);
+                engine.signature.update(job.data);
+                signatureBytes = engine.signature.sign();
+                sign.stop(job.key.getKeyLabel());
+            } catch (Throwable e) {
+                // Engine state is unknown after a failure. Errors are caught too, so the caller is answered
+                // and the worker stays in the pool.
+                engines.remove(engineKey);
+                failure = e;
+            } finally {
+                workers.busy.decrementAndGet();
+                workers.busyNanos.add(System.nanoTime() - start);
+                workers.completed.increment();
+            }
+
+            if (failure == null) {
+                job.result.complete(signatureBytes);
+            } else {
+                job.result.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Gets queue depth and worker utilisation per token
+     */
+    public Map<String, Map<String, Number>> getStatistics() {
+        Map<String, Map<String, Number>> stats = new LinkedHashMap<>();
+        workersByToken.forEach((token, workers) -> {
+            Map<String, Number> tokenStats = new LinkedHashMap<>();
+            tokenStats.put("workers", workers.count);
+            tokenStats.put("queueDepth", workers.queue.size());
+            tokenStats.put("busyWorkers", workers.busy.get());
+            tokenStats.put("utilisation", (double) workers.busy.get() / workers.count);
+            tokenStats.put("completed", workers.completed.sum());
+            tokenStats.put("rejected", workers.rejected.sum());
+            tokenStats.put("busyMillis", workers.busyNanos.sum() / 1_000_000);
+            stats.put(token, tokenStats);
+        });
+        return stats;
+    }
+
+    public int getQueueDepth(String tokenName) {
+        TokenWorkers workers = workersByToken.get(tokenName);
+        return workers == null ? 0 : workers.queue.size();
+    }
+
+    public double getUtilisation(String tokenName) {
+        TokenWorkers workers = workersByToken.get(tokenName);
+        return workers == null ? 0 : (double) workers.busy.get() / workers.count;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shutdown = true;
+        workersByToken.values().forEach(workers -> workers.threads.forEach(Thread::interrupt));
+    }
+
+    private static final class TokenWorkers {
+
+        private final int count;
+        private final BlockingQueue<Job> queue;
+        private final List<Thread> threads = new ArrayList<>();
+        private final AtomicInteger busy = new AtomicInteger();
+        private final LongAdder busyNanos = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private TokenWorkers(int count, BlockingQueue<Job> queue) {
+            this.count = count;
+            this.queue = queue;
+        }
+    }
+
+    private static final class Job {
+
+        private final TokenKey key;
+        private final String algorithm;
+        private final byte[] data;
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        private Job(TokenKey key, String algorithm, byte[] data) {
+            this.key = key;
+            this.algorithm = algorithm;
+            this.data = data;
+        }
+    }
+
+    private static final class Engine {
+
+        private final PrivateKey privateKey;
+        private final Signature signature;
+        private final long generation;
+
+        private Engine(PrivateKey privateKey, Signature signature, long generation) {
+            this.privateKey = privateKey;
+            this.signature = signature;
+            this.generation = generation;
+        }
+
+        private boolean isValidFor(PrivateKey key, long currentGeneration) {
+            return privateKey == key && generation == currentGeneration;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.SigningException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Hedges signing requests for keys replicated on several tokens.
+ * <p>
+ * The request runs on the least loaded replica, from the bounded hedging pool. If it has not completed after the
+ * hedge delay, the {@code percentile} of the key's recent latencies or a fixed {@code delay}, a second attempt is
+ * sent to the least loaded other token. The caller gets whichever signature comes back first; the other attempt
+ * finishes on its token and is ignored. Hedges draw on a budget that earns {@code budget} per request, so they add
+ * at most that share of extra load on the tokens. While every hedging thread is busy the request runs on the
+ * calling thread without a hedge.
+ */
+@Slf4j
+@Component
+public class SigningHedger {
+
+    /**
+     * Latency samples needed before an adaptive delay is trusted
+     */
+    static final int MIN_SAMPLES = 32;
+
+    private static final int WINDOW_SIZE = 512;
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private SigningMetrics signingMetrics;
+
+    @Autowired
+    @Qualifier("hedgingExecutor")
+    private ExecutorService hedgingExecutor;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    private final ConcurrentMap<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    private final Object budgetLock = new Object();
+
+    // Hedges that may still be sent, guarded by budgetLock
+    private double budget;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+
+    public boolean isEnabled() {
+        return pkcs11Properties.getHedging().isEnabled();
+    }
+
+    /**
+     * Runs a signing operation on the best replica, sending a hedge to a second token if it is slow,
+     * and returns the first signature to come back
+     *
+     * @param operation signs with the replica it is given
+     */
+    public byte[] sign(String keyLabel, List<TokenKey> replicas, Function<TokenKey, byte[]> operation) {
+        TokenKey primary = TokenKey.leastOutstanding(replicas);
+        LatencyWindow window = latencies.computeIfAbsent(keyLabel, k -> new LatencyWindow());
+        long delayNanos = replicas.size() < 2 ? -1 : delayNanos(window);
+        if (delayNanos < 0) {
+            // Nothing to hedge with, or no idea yet what slow means for this key
+            return attempt(primary, operation, window);
+        }
+
+        Race race = new Race();
+        try {
+            hedgingExecutor.execute(() -> run(race, primary, operation, window, false));
+        } catch (RejectedExecutionException e) {
+            // Every hedging thread is busy; sign here, without a hedge
+            return attempt(primary, operation, window);
+        }
+        requests.increment();
+        deposit();
+        ScheduledFuture<?> trigger = taskScheduler.schedule(
+                () -> sendHedge(keyLabel, replicas, primary, operation, window, race, delayNanos),
+                Instant.now().plusNanos(delayNanos));
+
+        try {
+            byte[] signature = race.result.get();
+            if (race.wonByHedge) {
+                hedgeWins.increment();
+                signingMetrics.recordHedge(SigningMetrics.HEDGE_WON);
+            } else if (race.sent) {
+                signingMetrics.recordHedge(SigningMetrics.HEDGE_LOST);
+            }
+            return signature;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SigningException("Cryptographic signing failed: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SigningException("Interrupted waiting for signature", e);
+        } finally {
+            trigger.cancel(false);
+        }
+    }
+
+    private static byte[] attempt(TokenKey key, Function<TokenKey, byte[]> operation, LatencyWindow window) {
+        long start = System.nanoTime();
+        byte[] signature = operation.apply(key);
+        window.record(System.nanoTime() - start);
+        return signature;
+    }
+
+    /**
+     * Runs one attempt of a race; the first signature wins, and a failure only ends the race once no other
+     * attempt is left
+     */
+    private static void run(Race race, TokenKey key, Function<TokenKey, byte[]> operation, LatencyWindow window,
+                            boolean hedge) {
+        try {
+            byte[] signature = attempt(key, operation, window);
+            if (race.won.compareAndSet(false, true)) {
+                // Set before completing, so the caller sees who won
+                race.wonByHedge = hedge;
+                race.result.complete(signature);
+            }
+        } catch (Throwable t) {
+            race.failure.compareAndSet(null, t);
+            race.finish();
+        }
+    }
+
+    /**
+     * Sends the hedge once the delay has passed, unless the first attempt has finished, the budget is spent
+     * or every hedging thread is busy
+     */
+    private void sendHedge(String keyLabel, List<TokenKey> replicas, TokenKey primary,
+                           Function<TokenKey, byte[]> operation, LatencyWindow window, Race race, long delayNanos) {
+        // Holds the race open while deciding, so a failing first attempt waits for the hedge
+        race.remaining.incrementAndGet();
+        try {
+            if (race.result.isDone()) {
+                return;
+            }
+            if (!withdraw()) {
+                budgetExhausted.increment();
+                signingMetrics.recordHedge(SigningMetrics.HEDGE_BUDGET_EXHAUSTED);
+                return;
+            }
+            TokenKey secondary = TokenKey.leastOutstanding(otherTokens(replicas, primary));
+            // Counted before it runs, so a hedge that wins is always counted as sent
+            race.remaining.incrementAndGet();
+            race.sent = true;
+            hedges.increment();
+            try {
+                hedgingExecutor.execute(() -> run(race, secondary, operation, window, true));
+            } catch (RejectedExecutionException e) {
+                // Every hedging thread is busy; the first attempt carries on alone
+                hedges.decrement();
+                race.sent = false;
+                race.remaining.decrementAndGet();
+                deposit(1);
+                return;
+            }
+            log.debug("Hedged signing for key: {} on token: {} after {} µs",
+                    keyLabel, secondary.getToken().getName(), delayNanos / 1_000);
+        } finally {
+            race.finish();
+        }
+    }
+
+    private static List<TokenKey> otherTokens(List<TokenKey> replicas, TokenKey primary) {
+        List<TokenKey> others = new ArrayList<>(replicas.size() - 1);
+        for (TokenKey replica : replicas) {
+            if (replica.getToken() != primary.getToken()) {
+                others.add(replica);
+            }
+        }
+        return others;
+    }
+
+    /**
+     * Gets the hedge delay for a key, or -1 while too few latencies are known to choose one
+     */
+    private long delayNanos(LatencyWindow window) {
+        Pkcs11Properties.Hedging config = pkcs11Properties.getHedging();
+        if (config.getDelay() != null) {
+            return config.getDelay().toNanos();
+        }
+        long percentile = window.percentile(config.getPercentile());
+        return percentile < 0 ? -1 : Math.max(percentile, config.getMinDelay().toNanos());
+    }
+
+    private void deposit() {
+        deposit(pkcs11Properties.getHedging().getBudget());
+    }
+
+    private void deposit(double hedges) {
+        synchronized (budgetLock) {
+            budget = Math.min(budget + hedges, pkcs11Properties.getHedging().getBudgetBurst());
+        }
+    }
+
+    private boolean withdraw() {
+        synchronized (budgetLock) {
+            if (budget < 1) {
+                return false;
+            }
+            budget--;
+            return true;
+        }
+    }
+
+    /**
+     * Gets the hedge counters and the current delay per key label
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("requests", requests.sum());
+        stats.put("hedged", hedges.sum());
+        stats.put("hedgeWins", hedgeWins.sum());
+        stats.put("budgetExhausted", budgetExhausted.sum());
+        Map<String, Double> delays = new LinkedHashMap<>();
+        latencies.forEach((keyLabel, window) -> {
+            long delay = delayNanos(window);
+            if (delay >= 0) {
+                delays.put(keyLabel, delay / 1_000_000.0);
+            }
+        });
+        stats.put("delayMillis", delays);
+        return stats;
+    }
+
+    /**
+     * The most recent signing latencies of one key, with their percentile recomputed every few samples
+     */
+    static final class LatencyWindow {
+
+        private final long[] samples = new long[WINDOW_SIZE];
+
+        private int count;
+
+        private int next;
+
+        private long[] sorted;
+
+        private int sinceSorted;
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            sinceSorted++;
+        }
+
+        /**
+         * Gets a percentile of the recent latencies, or -1 with fewer than {@link #MIN_SAMPLES} of them
+         */
+        synchronized long percentile(double percentile) {
+            if (count < MIN_SAMPLES) {
+                return -1;
+            }
+            if (sorted == null || sinceSorted >= MIN_SAMPLES) {
+                sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                sinceSorted = 0;
+            }
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+    }
+
+    /**
+     * The attempts of one request racing for its signature
+     */
+    private static final class Race {
+
+        // Completes with the first signature, or with a failure once every attempt has failed
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        // Attempts that may still produce a signature; the first one counts from the start
+        final AtomicInteger remaining = new AtomicInteger(1);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        final AtomicBoolean won = new AtomicBoolean();
+
+        volatile boolean sent;
+
+        volatile boolean wonByHedge;
+
+        void finish() {
+            if (remaining.decrementAndGet() == 0 && !result.isDone()) {
+                result.completeExceptionally(failure.get());
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.pkcs11.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Micrometer meters for the signing hot path.
+ * <p>
+ * Timers are created once per key label, algorithm and outcome and then looked up from a map, so recording
+ * a signature costs a map lookup and a histogram update. Pool, key cache and token state is exposed through
+ * function counters and gauges that are only read when the registry is scraped.
+ */
+@Component
+public class SigningMetrics {
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_ERROR = "error";
+    public static final String OUTCOME_REJECTED = "rejected";
+
+    public static final String HEDGE_WON = "won";
+    public static final String HEDGE_LOST = "lost";
+    public static final String HEDGE_BUDGET_EXHAUSTED = "budget-exhausted";
+
+    public static final String CACHE_HIT = "hit";
+    public static final String CACHE_MISS = "miss";
+    public static final String CACHE_COALESCED = "coalesced";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private SignatureEnginePool signatureEnginePool;
+
+    @Autowired
+    private SigningDispatcher signingDispatcher;
+
+    @Autowired
+    private List<Pkcs11Token> pkcs11Tokens;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Class<?>, Counter> errors = new ConcurrentHashMap<>();
+
+    private DistributionSummary merkleBatchSize;
+
+    private DistributionSummary coalescedBatchSize;
+
+    private final ConcurrentMap<String, Counter> hedges = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Timer> tenantTimers = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Counter> tenantRejections = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Counter> signatureCacheRequests = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void registerGauges() {
+        merkleBatchSize = DistributionSummary.builder("pkcs11.merkle.batch.size")
+                .description("Documents covered by one Merkle root signature")
+                .register(meterRegistry);
+        coalescedBatchSize = DistributionSummary.builder("pkcs11.coalesce.batch.size")
+                .description("Requests signed back to back on one engine")
+                .register(meterRegistry);
+
+        Gauge.builder("pkcs11.sign.in.flight", inFlight, AtomicInteger::get)
+                .description("Signing operations currently in progress")
+                .register(meterRegistry);
+
+        FunctionCounter.builder("pkcs11.engine.pool.requests", signatureEnginePool, SignatureEnginePool::getHits)
+                .description("Signature engine requests")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("pkcs11.engine.pool.requests", signatureEnginePool, SignatureEnginePool::getMisses)
+                .description("Signature engine requests")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        FunctionCounter.builder("pkcs11.engine.pool.discards", signatureEnginePool, SignatureEnginePool::getDiscards)
+                .description("Signature engines dropped instead of being reused")
+                .register(meterRegistry);
+        Gauge.builder("pkcs11.engine.pool.idle", signatureEnginePool, SignatureEnginePool::getIdleCount)
+                .description("Initialized signature engines waiting for reuse")
+                .register(meterRegistry);
+
+        for (Pkcs11Token token : pkcs11Tokens) {
+            FunctionCounter.builder("pkcs11.key.cache.requests", token, Pkcs11Token::getKeyCacheHits)
+                    .description("Key label lookups")
+                    .tags("token", token.getName(), "result", "hit")
+                    .register(meterRegistry);
+            FunctionCounter.builder("pkcs11.key.cache.requests", token, Pkcs11Token::getKeyCacheMisses)
+                    .description("Key label lookups")
+                    .tags("token", token.getName(), "result", "miss")
+                    .register(meterRegistry);
+            Gauge.builder("pkcs11.token.outstanding", token, Pkcs11Token::getOutstanding)
+                    .description("Operations in progress on the token")
+                    .tag("token", token.getName())
+                    .register(meterRegistry);
+            Gauge.builder("pkcs11.token.available", token, t -> t.isAvailable() ? 1 : 0)
+                    .description("Whether the token is in rotation")
+                    .tag("token", token.getName())
+                    .register(meterRegistry);
+            Gauge.builder("pkcs11.dispatcher.queue.depth", signingDispatcher, d -> d.getQueueDepth(token.getName()))
+                    .description("Signing jobs waiting for a worker")
+                    .tag("token", token.getName())
+                    .register(meterRegistry);
+            Gauge.builder("pkcs11.dispatcher.utilisation", signingDispatcher, d -> d.getUtilisation(token.getName()))
+                    .description("Share of dispatcher workers busy signing")
+                    .tag("token", token.getName())
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Marks the start of a signing operation and returns its start time
+     */
+    public long begin() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a signing operation started with {@link #begin()}
+     *
+     * @param alias the alias the key resolved to on the token, never the label sent by the client,
+     *              so the number of timers is bounded by the keys on the tokens
+     */
+    public void end(String alias, String algorithm, String outcome, long startNanos) {
+        inFlight.decrementAndGet();
+        timer(alias, algorithm, outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts an error by exception type
+     */
+    public void recordError(Throwable error) {
+        errors.computeIfAbsent(error.getClass(), type -> Counter.builder("pkcs11.errors")
+                .description("Errors returned to clients")
+                .tag("type", type.getSimpleName())
+                .register(meterRegistry)).increment();
+    }
+
+    /**
+     * Records how many documents one Merkle root signature covered
+     */
+    public void recordMerkleBatch(int documents) {
+        merkleBatchSize.record(documents);
+    }
+
+    /**
+     * Records how many concurrent requests were signed as one coalesced batch
+     */
+    public void recordCoalescedBatch(int requests) {
+        coalescedBatchSize.record(requests);
+    }
+
+    /**
+     * Counts a slow request that was hedged, or would have been but for the hedge budget
+     */
+    public void recordHedge(String outcome) {
+        hedges.computeIfAbsent(outcome, k -> Counter.builder("pkcs11.hedge")
+                .description("Slow requests sent to a second token")
+                .tag("outcome", outcome)
+                .register(meterRegistry)).increment();
+    }
+
+    /**
+     * Counts a signature cache lookup by result: hit, miss or coalesced onto an identical request in flight
+     */
+    public void recordSignatureCache(String result) {
+        signatureCacheRequests.computeIfAbsent(result, k -> Counter.builder("pkcs11.signature.cache.requests")
+                .description("Signature cache lookups")
+                .tag("result", result)
+                .register(meterRegistry)).increment();
+    }
+
+    /**
+     * Registers the queue depth gauge of a tenant of the fair scheduler
+     */
+    public void registerTenant(String tenant, AtomicInteger queueDepth) {
+        Gauge.builder("pkcs11.tenant.queue.depth", queueDepth, AtomicInteger::get)
+                .description("Requests of the tenant waiting for a signing slot")
+                .tag("tenant", tenant)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Records how long a tenant's request waited for a signing slot
+     */
+    public void recordTenantWait(String tenant, String lane, long nanos) {
+        tenantTimer("pkcs11.tenant.wait", "Time waiting for a signing slot", tenant, lane)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a tenant's request from arrival at the scheduler until its signing slot was released
+     */
+    public void recordTenantLatency(String tenant, String lane, long nanos) {
+        tenantTimer("pkcs11.tenant.requests", "Time from scheduling until the signing slot was released", tenant, lane)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a tenant's request rejected by the scheduler, by reason
+     */
+    public void recordTenantRejected(String tenant, String reason) {
+        tenantRejections.computeIfAbsent(tenant + '\u0000' + reason, k -> Counter.builder("pkcs11.tenant.rejected")
+                .description("Requests rejected by the fair scheduler")
+                .tags("tenant", tenant, "reason", reason)
+                .register(meterRegistry)).increment();
+    }
+
+    private Timer tenantTimer(String name, String description, String tenant, String lane) {
+        return tenantTimers.computeIfAbsent(name + '\u0000' + tenant + '\u0000' + lane,
+                k -> Timer.builder(name)
+                        .description(description)
+                        .tags("tenant", tenant, "lane", lane)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofNanos(100_000))
+                        .maximumExpectedValue(Duration.ofSeconds(10))
+                        .register(meterRegistry));
+    }
+
+    private Timer timer(String alias, String algorithm, String outcome) {
+        return timers.computeIfAbsent(alias + '\u0000' + algorithm + '\u0000' + outcome,
+                k -> Timer.builder("pkcs11.sign")
+                        .description("Time spent signing with a token key")
+                        .tags("key", alias, "algorithm", algorithm, "outcome", outcome)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofNanos(100_000))
+                        .maximumExpectedValue(Duration.ofSeconds(10))
+                        .register(meterRegistry));
+    }
+}
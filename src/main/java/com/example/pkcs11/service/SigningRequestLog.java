@@ -0,0 +1,95 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides how successful signatures are logged: every one, a random sample, or one summary line
+ * per key and interval. Errors are always logged by the callers.
+ */
+@Slf4j
+@Component
+public class SigningRequestLog {
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    private final ConcurrentMap<String, Aggregate> aggregates = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void scheduleSummaries() {
+        Pkcs11Properties.RequestLogging config = pkcs11Properties.getRequestLogging();
+        if (config.getSuccess() == Pkcs11Properties.SuccessLogging.AGGREGATED) {
+            taskScheduler.scheduleAtFixedRate(this::logSummaries, config.getAggregateInterval());
+            log.info("Successful signatures are logged as a summary every {}", config.getAggregateInterval());
+        }
+    }
+
+    /**
+     * Whether this successful signature gets its own log line
+     */
+    public boolean shouldLogSuccess() {
+        Pkcs11Properties.RequestLogging config = pkcs11Properties.getRequestLogging();
+        switch (config.getSuccess()) {
+            case ALL:
+                return true;
+            case SAMPLED:
+                return ThreadLocalRandom.current().nextDouble() < config.getSampleRate();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Adds a successful signature to the current interval's summary when successes are aggregated
+     *
+     * @param alias the alias the key resolved to on the token, so every spelling of a label shares one summary
+     */
+    public void recordSuccess(String alias, long elapsedNanos) {
+        if (pkcs11Properties.getRequestLogging().getSuccess() == Pkcs11Properties.SuccessLogging.AGGREGATED) {
+            aggregates.computeIfAbsent(alias, k -> new Aggregate()).add(elapsedNanos);
+        }
+    }
+
+    /**
+     * Logs and resets the summary of every key signed with since the last call
+     */
+    public void logSummaries() {
+        aggregates.forEach((alias, aggregate) -> {
+            long count = aggregate.count.sumThenReset();
+            long totalNanos = aggregate.totalNanos.sumThenReset();
+            long maxNanos = aggregate.maxNanos.getThenReset();
+            if (count > 0) {
+                log.info("Signed {} requests for key: {} in the last {}, average: {} µs, max: {} ms",
+                        count, alias, pkcs11Properties.getRequestLogging().getAggregateInterval(),
+                        totalNanos / count / 1_000, maxNanos / 1_000_000);
+            }
+        });
+    }
+
+    private static final class Aggregate {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private void add(long elapsedNanos) {
+            count.increment();
+            totalNanos.add(elapsedNanos);
+            maxNanos.accumulate(elapsedNanos);
+        }
+    }
+}
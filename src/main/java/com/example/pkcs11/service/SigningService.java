@@ -1,6 +1,12 @@
 package com.example.pkcs11.service;
 
+import com.example.pkcs11.audit.AuditJournal;
+import com.example.pkcs11.exception.IdempotencyConflictException;
+import com.example.pkcs11.exception.OverloadedException;
 import com.example.pkcs11.exception.SigningException;
+import com.example.pkcs11.scheduling.FairScheduler;
+import com.example.pkcs11.timing.Phase;
+import com.example.pkcs11.timing.PhaseTimer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -8,9 +14,9 @@ import org.springframework.stereotype.Service;
 import javax.validation.constraints.NotNull;
 import java.security.PrivateKey;
 import java.security.Signature;
-import java.time.Duration;
-import java.time.Instant;
 import java.util.Base64;
+import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @Service
@@ -19,74 +25,350 @@ public class SigningService {
     @Autowired
     private Pkcs11ProviderService pkcs11ProviderService;
 
+    @Autowired
+    private SignatureEnginePool signatureEnginePool;
+
+    @Autowired
+    private SigningDispatcher signingDispatcher;
+
+    @Autowired
+    private SigningCoalescer signingCoalescer;
+
+    @Autowired
+    private TokenRecovery tokenRecovery;
+
+    @Autowired
+    private SigningHedger signingHedger;
+
+    @Autowired
+    private FairScheduler fairScheduler;
+
+    @Autowired
+    private SignatureCache signatureCache;
+
+    @Autowired
+    private ConcurrencyLimiterRegistry concurrencyLimiters;
+
+    @Autowired
+    private SigningMetrics signingMetrics;
+
+    @Autowired
+    private SigningRequestLog signingRequestLog;
+
+    @Autowired
+    private AuditJournal auditJournal;
+
     /**
      * Signs the provided data using the specified key
      */
     public String signData(String keyLabel, String algorithmType, String base64Data, @NotNull String name) {
-        try {
-            log.debug("Starting signing operation for key: {}, algorithm: {}", keyLabel, algorithmType);
+        return signData(keyLabel, algorithmType, base64Data, null, name);
+    }
+
+    /**
+     * Signs the provided data using the specified key. When a digest algorithm is given,
+     * the data is a precomputed digest and only that digest is sent to the token.
+     */
+    public String signData(String keyLabel, String algorithmType, String base64Data, String digestAlgorithm,
+                           @NotNull String name) {
+        return signData(keyLabel, algorithmType, base64Data, digestAlgorithm, name, null);
+    }
 
+    /**
+     * Signs the provided data using the specified key, answering a repeated idempotency key with the first signature
+     */
+    public String signData(String keyLabel, String algorithmType, String base64Data, String digestAlgorithm,
+                           @NotNull String name, String idempotencyKey) {
+        try {
             // Decode the input data
+            PhaseTimer decode = PhaseTimer.start(Phase.DECODE);
             byte[] dataToSign = Base64.getDecoder().decode(base64Data);
+            decode.stop(keyLabel);
             log.debug("Decoded {} bytes of data to sign", dataToSign.length);
 
-            // Get the private key
-            PrivateKey privateKey = pkcs11ProviderService.getPrivateKey(keyLabel);
-
-            // Validate key type matches the requested algorithm
-            pkcs11ProviderService.validateKeyType(algorithmType, privateKey);
+            byte[] signatureBytes = signBytes(keyLabel, algorithmType, dataToSign, digestAlgorithm, name,
+                    idempotencyKey);
 
-            // Get the appropriate signing algorithm
-            String signingAlgorithm = pkcs11ProviderService.getSigningAlgorithm(algorithmType, privateKey);
-            log.debug("Using signing algorithm: {}", signingAlgorithm);
-            Instant start = Instant.now();
-            // Perform the signing operation
-            byte[] signatureBytes = performSigning(dataToSign, privateKey, signingAlgorithm);
-            Duration elapsed = Duration.between(start, Instant.now());
             // Encode the signature as base64
-            String base64Signature = Base64.getEncoder().encodeToString(signatureBytes);
+            PhaseTimer encode = PhaseTimer.start(Phase.ENCODE);
+            String signature = Base64.getEncoder().encodeToString(signatureBytes);
+            encode.stop(keyLabel);
+            return signature;
+
+        } catch (SigningException | OverloadedException | IdempotencyConflictException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to sign data for key: {}: {}", keyLabel, e.getMessage());
+            throw new SigningException("Signing operation failed: " + e.getMessage(), e);
+        }
+    }
 
-            log.info("Successfully signed data for key: {}, signature length: {} bytes, duration: {} ms {}",
-                    keyLabel, signatureBytes.length, elapsed.toMillis(), name);
+    /**
+     * Signs raw bytes using the specified key and returns the raw signature
+     */
+    public byte[] signBytes(String keyLabel, String algorithmType, byte[] dataToSign, String digestAlgorithm,
+                            @NotNull String name) {
+        return signBytes(keyLabel, algorithmType, dataToSign, digestAlgorithm, name, null);
+    }
 
-//            log.info("Successfully signed data for key: {}, signature length: {} bytes, duration: {} µs",
-//                       keyLabel, signatureBytes.length,  elapsed.toNanos() / 1_000);
+    /**
+     * Signs raw bytes using the specified key and returns the raw signature. When the signature cache is enabled
+     * for the key, a repeated request, or a repeated idempotency key, gets the signature already made for it.
+     */
+    public byte[] signBytes(String keyLabel, String algorithmType, byte[] dataToSign, String digestAlgorithm,
+                            @NotNull String name, String idempotencyKey) {
+        // Nothing is signed that could not be journaled
+        auditJournal.checkWritable();
+        long requestStart = System.nanoTime();
+        String outcome = AuditJournal.OUTCOME_FAILURE;
+        try {
+            log.debug("Starting signing operation for key: {}, algorithm: {}, digest: {}",
+                    keyLabel, algorithmType, digestAlgorithm);
 
-            return base64Signature;
+            DigestAlgorithm digest = digestAlgorithm == null ? null : DigestAlgorithm.fromName(digestAlgorithm);
 
-        } catch (SigningException e) {
+            if (signatureCache.isInUse()) {
+                // Cached by the key the label resolves to, so every spelling of it shares the entries
+                String alias = pkcs11ProviderService.resolveAlias(keyLabel);
+                if (signatureCache.isEnabled(alias)) {
+                    SignatureCache.Lookup lookup = signatureCache.sign(alias, algorithmType, digestAlgorithm,
+                            dataToSign, idempotencyKey,
+                            () -> signOnTokens(keyLabel, algorithmType, digest, dataToSign, name));
+                    outcome = lookup.isCached() ? AuditJournal.OUTCOME_CACHED : AuditJournal.OUTCOME_SUCCESS;
+                    return lookup.getSignature();
+                }
+            }
+
+            byte[] signatureBytes = signOnTokens(keyLabel, algorithmType, digest, dataToSign, name);
+            outcome = AuditJournal.OUTCOME_SUCCESS;
+            return signatureBytes;
+
+        } catch (OverloadedException e) {
+            outcome = AuditJournal.OUTCOME_REJECTED;
+            throw e;
+        } catch (SigningException | IdempotencyConflictException e) {
             throw e;
         } catch (Exception e) {
-            log.error("Failed to sign data for key: {}", keyLabel, e);
+            // The stack trace is logged once, where the exception is finally handled
+            log.error("Failed to sign data for key: {}: {}", keyLabel, e.getMessage());
             throw new SigningException("Signing operation failed: " + e.getMessage(), e);
+        } finally {
+            auditJournal.record(keyLabel, algorithmType, digestAlgorithm, dataToSign, name,
+                    System.nanoTime() - requestStart, outcome);
         }
     }
 
     /**
-     * Performs the actual signing operation
+     * Waits for the caller's turn and signs on the token, or on the fastest replica when hedging
      */
-    private byte[] performSigning(byte[] dataToSign, PrivateKey privateKey, String algorithm) throws Exception {
+    private byte[] signOnTokens(String keyLabel, String algorithmType, DigestAlgorithm digest, byte[] dataToSign,
+                                String name) {
+        FairScheduler.Permit permit = null;
         try {
-            // Create signature instance
-            Signature signature = Signature.getInstance(algorithm);
+            // Wait for the caller's fair share of the tokens
+            PhaseTimer queue = PhaseTimer.start(Phase.QUEUE);
+            permit = fairScheduler.acquire(name);
+            queue.stop(keyLabel);
+
+            byte[] signatureBytes;
+            String alias;
+            long start;
+            if (signingHedger.isEnabled()) {
+                // Every replica of the key, so a slow token can be hedged on another
+                PhaseTimer keyLookup = PhaseTimer.start(Phase.KEY);
+                List<TokenKey> replicas = pkcs11ProviderService.resolveKey(keyLabel);
+                keyLookup.stop(keyLabel);
+                alias = replicas.get(0).getAlias();
+
+                start = System.nanoTime();
+                PhaseTimer hedge = PhaseTimer.start(Phase.HEDGE);
+                signatureBytes = signingHedger.sign(keyLabel, replicas,
+                        replica -> sign(replica, algorithmType, digest, dataToSign));
+                hedge.stop(keyLabel);
+            } else {
+                // Get the private key on the least loaded token holding it
+                PhaseTimer keyLookup = PhaseTimer.start(Phase.KEY);
+                TokenKey key = pkcs11ProviderService.selectKey(keyLabel);
+                keyLookup.stop(keyLabel);
+                alias = key.getAlias();
+
+                start = System.nanoTime();
+                // Validate the key type and perform the signing operation
+                signatureBytes = sign(key, algorithmType, digest, dataToSign);
+            }
+            long elapsedNanos = System.nanoTime() - start;
+
+            // Every success, a sample, or nothing when successes are aggregated per interval
+            if (signingRequestLog.shouldLogSuccess()) {
+                log.info("Successfully signed data for key: {}, signature length: {} bytes, duration: {} ms {}",
+                        keyLabel, signatureBytes.length, elapsedNanos / 1_000_000, name);
+            }
+            signingRequestLog.recordSuccess(alias, elapsedNanos);
 
-            // Initialize with private key
-            signature.initSign(privateKey);
+//            log.info("Successfully signed data for key: {}, signature length: {} bytes, duration: {} µs",
+//                       keyLabel, signatureBytes.length,  elapsedNanos / 1_000);
+
+            return signatureBytes;
+
+        } finally {
+            if (permit != null) {
+                permit.close();
+            }
+        }
+    }
+
+    /**
+     * Signs data, or a precomputed digest when a digest algorithm is given, with a key that has already been resolved
+     */
+    public byte[] sign(TokenKey key, String algorithmType, DigestAlgorithm digestAlgorithm, byte[] data) {
+        return digestAlgorithm == null
+                ? signWithKey(key, algorithmType, data)
+                : signDigestWithKey(key, algorithmType, digestAlgorithm, data);
+    }
+
+    /**
+     * Signs raw data with a private key that has already been resolved
+     */
+    public byte[] signWithKey(TokenKey key, String algorithmType, byte[] dataToSign) {
+        PrivateKey privateKey = key.getPrivateKey();
+        // Validate key type matches the requested algorithm
+        pkcs11ProviderService.validateKeyType(algorithmType, privateKey);
+
+        // Get the appropriate signing algorithm
+        String signingAlgorithm = pkcs11ProviderService.getSigningAlgorithm(algorithmType, privateKey);
+        log.debug("Using signing algorithm: {}", signingAlgorithm);
 
+        return performSigning(key, dataToSign, signingAlgorithm);
+    }
+
+    /**
+     * Signs a precomputed digest with a raw mechanism. RSA digests are wrapped in a DigestInfo
+     * so the result matches SHAxxxwithRSA; EC digests are passed to the token as-is.
+     */
+    public byte[] signDigestWithKey(TokenKey key, String algorithmType, DigestAlgorithm digestAlgorithm, byte[] digest) {
+        PrivateKey privateKey = key.getPrivateKey();
+        digestAlgorithm.validateDigest(digest);
+
+        // Validate key type matches the requested algorithm
+        pkcs11ProviderService.validateKeyType(algorithmType, privateKey);
+
+        String signingAlgorithm = pkcs11ProviderService.getPrehashedSigningAlgorithm(algorithmType);
+        log.debug("Using signing algorithm: {} over {} digest", signingAlgorithm, digestAlgorithm.getJcaName());
+
+        byte[] payload = "RSA".equalsIgnoreCase(algorithmType) ? digestAlgorithm.toDigestInfo(digest) : digest;
+        return performSigning(key, payload, signingAlgorithm);
+    }
+
+    /**
+     * Performs the actual signing operation, recording its latency and outcome.
+     * If the token lost its session it is recovered and the operation retried once with the new key handle.
+     */
+    private byte[] performSigning(TokenKey key, byte[] dataToSign, String algorithm) {
+        String outcome = SigningMetrics.OUTCOME_ERROR;
+        long start = signingMetrics.begin();
+        try {
+            byte[] signatureBytes;
+            try {
+                signatureBytes = signOnToken(key, dataToSign, algorithm);
+            } catch (SigningException e) {
+                TokenKey recovered = tokenRecovery.onFailure(key, e);
+                if (recovered == null) {
+                    throw e;
+                }
+                log.info("Retrying signing for key: {} on recovered token: {}", key.getKeyLabel(), key.getToken().getName());
+                signatureBytes = signOnToken(recovered, dataToSign, algorithm);
+            }
+            outcome = SigningMetrics.OUTCOME_SUCCESS;
+            return signatureBytes;
+        } catch (OverloadedException e) {
+            outcome = SigningMetrics.OUTCOME_REJECTED;
+            throw e;
+        } finally {
+            signingMetrics.end(key.getAlias(), algorithm, outcome, start);
+        }
+    }
+
+    /**
+     * Signs with a pooled engine, tracking the load and health of the token.
+     * Requests above the key's concurrency limit are rejected before they reach the token.
+     */
+    private byte[] signOnToken(TokenKey key, byte[] dataToSign, String algorithm) {
+        if (tokenRecovery.awaitReady(key.getToken())) {
+            // The token was logged in again while this request waited, replacing its key handles
+            TokenKey recovered = tokenRecovery.reresolve(key);
+            if (recovered != null) {
+                key = recovered;
+            }
+        }
+        AdaptiveConcurrencyLimiter limiter = concurrencyLimiters.acquire(key);
+        SignatureEnginePool.Lease lease = null;
+        Pkcs11Token token = key.getToken();
+        boolean success = false;
+        boolean shed = false;
+        long start = System.nanoTime();
+        token.begin();
+        try {
+            if (signingDispatcher.isEnabled()) {
+                // Hand the job to a worker that owns its session and engines
+                PhaseTimer dispatch = PhaseTimer.start(Phase.DISPATCH);
+                byte[] signatureBytes = signingDispatcher.sign(key, algorithm, dataToSign);
+                dispatch.stop(key.getKeyLabel());
+                success = true;
+                return signatureBytes;
+            }
+            if (signingCoalescer.isEnabled()) {
+                // Join concurrent requests for this key, signed back to back on one engine
+                PhaseTimer coalesce = PhaseTimer.start(Phase.COALESCE);
+                byte[] signatureBytes = signingCoalescer.sign(key, algorithm, dataToSign);
+                coalesce.stop(key.getKeyLabel());
+                success = true;
+                return signatureBytes;
+            }
+
+            // Borrow an engine already initialized with this key
+            PhaseTimer init = PhaseTimer.start(Phase.INIT);
+            lease = signatureEnginePool.acquire(key, algorithm);
+            init.stop(key.getKeyLabel());
+            Signature signature = lease.getSignature();
+
+            PhaseTimer sign = PhaseTimer.start(Phase.SIGN);
             // Update with data to sign
             signature.update(dataToSign);
 
-            // Generate signature
+            // Generate signature; this also resets the engine for reuse
             byte[] signatureBytes = signature.sign();
+            sign.stop(key.getKeyLabel());
+            signatureEnginePool.release(lease);
 
-            log.debug("Generated signature of {} bytes using algorithm: {}",
-                    signatureBytes.length, algorithm);
+            log.debug("Generated signature of {} bytes using algorithm: {} on token: {}",
+                    signatureBytes.length, algorithm, token.getName());
 
+            success = true;
             return signatureBytes;
 
+        } catch (OverloadedException e) {
+            shed = true;
+            throw e;
+        } catch (SigningException e) {
+            log.error("Failed to perform signing operation with algorithm: {} on token: {}: {}",
+                    algorithm, token.getName(), e.getMessage());
+            throw e;
         } catch (Exception e) {
-            log.error("Failed to perform signing operation with algorithm: {}", algorithm, e);
+            if (lease != null) {
+                signatureEnginePool.discard(lease);
+            }
+            log.error("Failed to perform signing operation with algorithm: {} on token: {}: {}",
+                    algorithm, token.getName(), e.getMessage());
             throw new SigningException("Cryptographic signing failed: " + e.getMessage(), e);
+        } finally {
+            if (shed) {
+                token.cancel();
+            } else {
+                token.end(success);
+            }
+            if (limiter != null) {
+                limiter.release(System.nanoTime() - start, success);
+            }
         }
     }
 
@@ -105,10 +387,95 @@ public class SigningService {
         }
     }
 
+    /**
+     * Validates the input data format and, for pre-hashed requests, that the digest length matches the declared hash
+     */
+    public void validateInputData(String base64Data, String digestAlgorithm) {
+        if (digestAlgorithm == null) {
+            validateInputData(base64Data);
+            return;
+        }
+        if (base64Data == null || base64Data.trim().isEmpty()) {
+            throw new IllegalArgumentException("Input data cannot be null or empty");
+        }
+
+        byte[] digest;
+        try {
+            digest = Base64.getDecoder().decode(base64Data);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Input data must be valid base64 encoded", e);
+        }
+        DigestAlgorithm.fromName(digestAlgorithm).validateDigest(digest);
+    }
+
+    /**
+     * Gets the signature engine pool counters
+     */
+    public Map<String, Long> getEngineStatistics() {
+        return signatureEnginePool.getStatistics();
+    }
+
+    /**
+     * Gets the dispatcher queue depth and worker utilisation per token
+     */
+    public Map<String, Map<String, Number>> getDispatcherStatistics() {
+        return signingDispatcher.getStatistics();
+    }
+
+    /**
+     * Gets the number and average size of coalesced batches
+     */
+    public Map<String, Object> getCoalescingStatistics() {
+        return signingCoalescer.getStatistics();
+    }
+
+    /**
+     * Gets the session recovery state and counters per token
+     */
+    public Map<String, Map<String, Object>> getRecoveryStatistics() {
+        return tokenRecovery.getStatistics();
+    }
+
+    /**
+     * Gets the hedge counters and current hedge delays
+     */
+    public Map<String, Object> getHedgingStatistics() {
+        return signingHedger.getStatistics();
+    }
+
+    /**
+     * Gets the fair scheduler's queue depth, admissions and rejections per tenant
+     */
+    public Map<String, Object> getSchedulingStatistics() {
+        return fairScheduler.getStatistics();
+    }
+
+    /**
+     * Gets the signature cache size, lookup counters and hit rate
+     */
+    public Map<String, Object> getSignatureCacheStatistics() {
+        return signatureCache.getStatistics();
+    }
+
+    /**
+     * Gets the adaptive concurrency limit and rejections per key label
+     */
+    public Map<String, Map<String, Number>> getConcurrencyLimitStatistics() {
+        return concurrencyLimiters.getStatistics();
+    }
+
+    /**
+     * Gets the audit journal's sequence and write counters
+     */
+    public Map<String, Object> getAuditStatistics() {
+        return auditJournal.getStatistics();
+    }
+
     /**
      * Gets information about the signing capabilities
      */
     public String getSigningInfo() {
-        return "PKCS#11 Signing Service - Supports RSA and EC algorithms with SHA-256";
+        return "PKCS#11 Signing Service - Supports RSA and EC algorithms with SHA-256, "
+                + "and pre-hashed SHA-256/384/512 digests";
     }
 }
\ No newline at end of file
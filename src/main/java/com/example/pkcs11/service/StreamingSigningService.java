@@ -0,0 +1,172 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.dto.SignResponse;
+import com.example.pkcs11.timing.Phase;
+import com.example.pkcs11.timing.PhaseTimer;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * Signs documents of any size with constant memory per request.
+ * <p>
+ * The document is read in fixed-size chunks and hashed locally; only the final digest is sent to the token
+ * through the pre-hashed signing path, which yields the same signature as SHAxxxwithRSA / SHAxxxwithECDSA
+ * over the whole document.
+ */
+@Slf4j
+@Service
+public class StreamingSigningService {
+
+    @Autowired
+    private SigningService signingService;
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Hashes a raw document stream and signs the digest, returning the raw signature
+     */
+    public byte[] signStream(String keyLabel, String algorithmType, String hashAlgorithm, InputStream document,
+                             String name) throws IOException {
+        DigestAlgorithm digestAlgorithm = resolveHashAlgorithm(hashAlgorithm);
+        MessageDigest messageDigest = digestAlgorithm.newMessageDigest();
+
+        PhaseTimer hash = PhaseTimer.start(Phase.HASH);
+        byte[] buffer = new byte[(int) pkcs11Properties.getStreaming().getBufferSize().toBytes()];
+        long total = 0;
+        int read;
+        while ((read = document.read(buffer)) != -1) {
+            messageDigest.update(buffer, 0, read);
+            total += read;
+        }
+        hash.stop(keyLabel);
+        if (total == 0) {
+            throw new IllegalArgumentException("Input data cannot be null or empty");
+        }
+
+        log.debug("Hashed {} bytes with {} for key: {}", total, digestAlgorithm.getJcaName(), keyLabel);
+        return signingService.signBytes(keyLabel, algorithmType, messageDigest.digest(),
+                digestAlgorithm.getJcaName(), name);
+    }
+
+    /**
+     * Parses a JSON sign request token by token, decoding and hashing the base64 data field as it streams past.
+     * The fields may appear in any order; the data is never held in memory as a whole.
+     */
+    public SignResponse signJsonStream(InputStream body) throws IOException {
+        String keyLabel = null;
+        String algorithm = null;
+        String hashAlgorithm = null;
+        String name = "";
+        byte[] digest = null;
+        DigestAlgorithm digestAlgorithm = null;
+        long total = 0;
+
+        // Parsing, base64 decoding and hashing are interleaved, so they are timed as one phase
+        PhaseTimer hash = PhaseTimer.start(Phase.HASH);
+        JsonFactory jsonFactory = objectMapper.getFactory();
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Request body must be a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "keyLabel":
+                        keyLabel = parser.getValueAsString();
+                        break;
+                    case "algorithm":
+                        algorithm = parser.getValueAsString();
+                        break;
+                    case "name":
+                        name = parser.getValueAsString("");
+                        break;
+                    case "hashAlgorithm":
+                        if (digest != null) {
+                            throw new IllegalArgumentException("hashAlgorithm must come before data");
+                        }
+                        hashAlgorithm = parser.getValueAsString();
+                        break;
+                    case "data":
+                        if (value != JsonToken.VALUE_STRING) {
+                            throw new IllegalArgumentException("Data must be a base64 encoded string");
+                        }
+                        digestAlgorithm = resolveHashAlgorithm(hashAlgorithm);
+                        MessageDigest messageDigest = digestAlgorithm.newMessageDigest();
+                        CountingOutputStream counter = new CountingOutputStream();
+                        try (OutputStream sink = new DigestOutputStream(counter, messageDigest)) {
+                            parser.readBinaryValue(sink);
+                        }
+                        total = counter.count;
+                        digest = messageDigest.digest();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed streaming sign request: " + e.getOriginalMessage(), e);
+        }
+        hash.stop(keyLabel);
+
+        if (keyLabel == null || keyLabel.isBlank()) {
+            throw new IllegalArgumentException("Key label is required");
+        }
+        if (!"RSA".equals(algorithm) && !"EC".equals(algorithm)) {
+            throw new IllegalArgumentException("Algorithm must be either 'RSA' or 'EC'");
+        }
+        if (digest == null || total == 0) {
+            throw new IllegalArgumentException("Input data cannot be null or empty");
+        }
+
+        log.debug("Hashed {} bytes with {} for key: {}", total, digestAlgorithm.getJcaName(), keyLabel);
+        byte[] signature = signingService.signBytes(keyLabel, algorithm, digest, digestAlgorithm.getJcaName(), name);
+        PhaseTimer encode = PhaseTimer.start(Phase.ENCODE);
+        SignResponse response = new SignResponse(Base64.getEncoder().encodeToString(signature));
+        encode.stop(keyLabel);
+        return response;
+    }
+
+    /**
+     * The digest for a streamed document: SHA-256 unless another one is requested
+     */
+    public static DigestAlgorithm resolveHashAlgorithm(String hashAlgorithm) {
+        return hashAlgorithm == null ? DigestAlgorithm.SHA256 : DigestAlgorithm.fromName(hashAlgorithm);
+    }
+
+    /**
+     * Discards the decoded bytes once they have been hashed, keeping only their count
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.pkcs11.service;
+
+import java.security.PrivateKey;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A private key handle resolved on a specific token
+ */
+public final class TokenKey {
+
+    private final Pkcs11Token token;
+    private final String keyLabel;
+    private final String alias;
+    private final PrivateKey privateKey;
+
+    public TokenKey(Pkcs11Token token, String keyLabel, PrivateKey privateKey) {
+        this(token, keyLabel, keyLabel, privateKey);
+    }
+
+    /**
+     * @param keyLabel the label the client asked for
+     * @param alias    the alias of the key on the token the label resolved to
+     */
+    public TokenKey(Pkcs11Token token, String keyLabel, String alias, PrivateKey privateKey) {
+        this.token = token;
+        this.keyLabel = keyLabel;
+        this.alias = alias;
+        this.privateKey = privateKey;
+    }
+
+    public Pkcs11Token getToken() {
+        return token;
+    }
+
+    public String getKeyLabel() {
+        return keyLabel;
+    }
+
+    /**
+     * Gets the alias the key is held under on the token, one of a fixed set unlike the client's label
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    public PrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    /**
+     * Picks the replica on the available token with the fewest outstanding requests.
+     * Ties are broken from a random starting point so idle tokens share the load; if every
+     * token is out of rotation the least loaded one is still returned as a probe.
+     */
+    public static TokenKey leastOutstanding(List<TokenKey> candidates) {
+        int size = candidates.size();
+        if (size == 1) {
+            return candidates.get(0);
+        }
+        int offset = ThreadLocalRandom.current().nextInt(size);
+        TokenKey best = null;
+        boolean bestAvailable = false;
+        for (int i = 0; i < size; i++) {
+            TokenKey candidate = candidates.get((offset + i) % size);
+            boolean available = candidate.token.isAvailable();
+            if (best == null
+                    || (available && !bestAvailable)
+                    || (available == bestAvailable && candidate.token.getOutstanding() < best.token.getOutstanding())) {
+                best = candidate;
+                bestAvailable = available;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenKey{token='" + token.getName() + "', keyLabel='" + keyLabel + "'}";
+    }
+}
@@ -0,0 +1,345 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.TokenUnavailableException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects tokens that lost their session and brings them back without rebuilding the provider.
+ * <p>
+ * A PKCS#11 error such as {@code CKR_SESSION_HANDLE_INVALID} or {@code CKR_USER_NOT_LOGGED_IN} takes the token
+ * out of rotation and starts one background re-login that reloads the KeyStore and key index. Requests for the
+ * token wait up to {@code await} for it and then fail fast with 503, so a restarted HSM is not stampeded with
+ * logins. A failed recovery is retried after a backoff that doubles up to {@code max-backoff}; until then the
+ * circuit stays open. Idle tokens are touched every {@code keep-alive-interval} so the token's own idle timeout
+ * does not close their sessions between requests.
+ */
+@Slf4j
+@Component
+public class TokenRecovery {
+
+    /**
+     * Return values, and SunPKCS11 messages, that mean the session or the key handles resolved in it are gone
+     */
+    private static final String[] SESSION_LOST = {
+            "CKR_SESSION_HANDLE_INVALID",
+            "CKR_SESSION_CLOSED",
+            "CKR_USER_NOT_LOGGED_IN",
+            "CKR_OBJECT_HANDLE_INVALID",
+            "CKR_KEY_HANDLE_INVALID",
+            "CKR_DEVICE_REMOVED",
+            "CKR_DEVICE_ERROR",
+            "CKR_TOKEN_NOT_PRESENT",
+            "CKR_TOKEN_NOT_RECOGNIZED",
+            "Token has been removed"
+    };
+
+    @Autowired
+    private List<Pkcs11Token> pkcs11Tokens;
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    private SignatureEnginePool signatureEnginePool;
+
+    @Autowired
+    private SignatureCache signatureCache;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    private ExecutorService recoveryExecutor;
+
+    private final ConcurrentMap<String, State> states = new ConcurrentHashMap<>();
+
+    /**
+     * Starts the recovery threads and the keep-alive. The threads are owned here rather than taken from the task
+     * scheduler, since a re-login can block for as long as the token takes to come back.
+     */
+    @PostConstruct
+    public void start() {
+        recoveryExecutor = Executors.newCachedThreadPool(new CustomizableThreadFactory("token-recovery-"));
+        Duration interval = pkcs11Properties.getRecovery().getKeepAliveInterval();
+        if (isEnabled() && interval != null && !interval.isZero() && !interval.isNegative()) {
+            log.info("Keeping idle token sessions alive every {}", interval);
+            taskScheduler.scheduleWithFixedDelay(this::keepAlive, interval);
+        }
+    }
+
+    public boolean isEnabled() {
+        return pkcs11Properties.getRecovery().isEnabled();
+    }
+
+    /**
+     * Tells whether a failure means the token lost its session, looking through the whole cause chain
+     */
+    public static boolean isSessionLost(Throwable failure) {
+        int depth = 0;
+        for (Throwable cause = failure; cause != null && depth < 16; cause = cause.getCause(), depth++) {
+            String message = cause.getMessage();
+            if (message == null) {
+                continue;
+            }
+            for (String code : SESSION_LOST) {
+                if (message.contains(code)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for a recovery of the token in progress. Returns at once when the token is healthy.
+     *
+     * @return true if the token was recovered while waiting, so key handles resolved before must be resolved again
+     * @throws TokenUnavailableException if the recovery did not finish in time or is backing off after failing
+     */
+    public boolean awaitReady(Pkcs11Token token) {
+        if (!token.isRecovering()) {
+            return false;
+        }
+        State state = states.get(token.getName());
+        if (state == null) {
+            return false;
+        }
+        CompletableFuture<Boolean> attempt = state.attempt;
+        if (attempt == null) {
+            if (!state.isOpen()) {
+                return false;
+            }
+            throw unavailable(token, state);
+        }
+        if (await(attempt)) {
+            return true;
+        }
+        throw unavailable(token, state);
+    }
+
+    /**
+     * Handles a failed operation. If the token lost its session it is recovered, or the recovery already under
+     * way is joined, for at most {@code await}.
+     *
+     * @return the key resolved again on the recovered token, to retry the operation with, or null if the failure
+     * was not a lost session or the token could not be recovered in time
+     */
+    public TokenKey onFailure(TokenKey key, Throwable failure) {
+        if (!isEnabled() || !isSessionLost(failure)) {
+            return null;
+        }
+        TokenKey current = reresolve(key);
+        if (current != null && current.getPrivateKey() != key.getPrivateKey()) {
+            // The token was recovered after this key was resolved; only the handle was stale
+            return current;
+        }
+        log.warn("Token {} lost its session: {}", key.getToken().getName(), failure.getMessage());
+        stateOf(key.getToken()).detections.increment();
+        if (!await(recover(key.getToken()))) {
+            return null;
+        }
+        return reresolve(key);
+    }
+
+    /**
+     * Starts a re-login of the token unless one is already running, and returns its outcome.
+     * While the circuit is open after a failed recovery this completes with false at once.
+     */
+    public CompletableFuture<Boolean> recover(Pkcs11Token token) {
+        return recover(token, false);
+    }
+
+    /**
+     * @param retry whether this is the retry scheduled after a failed recovery, which runs even if it fires
+     *              slightly before the circuit closes
+     */
+    private CompletableFuture<Boolean> recover(Pkcs11Token token, boolean retry) {
+        State state = stateOf(token);
+        synchronized (state) {
+            if (state.attempt != null) {
+                return state.attempt;
+            }
+            if (retry ? !token.isRecovering() : state.isOpen()) {
+                return CompletableFuture.completedFuture(retry);
+            }
+            token.setRecovering(true);
+            CompletableFuture<Boolean> attempt = new CompletableFuture<>();
+            state.attempt = attempt;
+            recoveryExecutor.execute(() -> attempt.complete(relogin(token, state)));
+            return attempt;
+        }
+    }
+
+    /**
+     * Resolves the key again on its token, from the token's current key index
+     *
+     * @return the key with its current handle, or null if the token no longer holds it
+     */
+    public TokenKey reresolve(TokenKey key) {
+        try {
+            KeyIndex.Entry entry = key.getToken().findKey(key.getKeyLabel());
+            return entry == null ? null : new TokenKey(key.getToken(), key.getKeyLabel(), entry.getAlias(),
+                    entry.getPrivateKey());
+        } catch (Exception e) {
+            log.debug("Failed to resolve key {} again on token {}: {}",
+                    key.getKeyLabel(), key.getToken().getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean relogin(Pkcs11Token token, State state) {
+        long start = System.nanoTime();
+        try {
+            token.relogin();
+            // Engines were initialized with the old key handles, and the keys may have been replaced meanwhile
+            signatureEnginePool.invalidateAll();
+            signatureCache.clear();
+            synchronized (state) {
+                state.failures = 0;
+                state.attempt = null;
+            }
+            token.setRecovering(false);
+            state.recoveries.increment();
+            state.lastRecovered = System.currentTimeMillis();
+            log.info("Token {} recovered in {} ms", token.getName(), (System.nanoTime() - start) / 1_000_000);
+            return true;
+        } catch (Exception e) {
+            Duration backoff;
+            synchronized (state) {
+                state.failures++;
+                backoff = backoff(state.failures);
+                state.openUntil = System.nanoTime() + backoff.toNanos();
+                state.attempt = null;
+            }
+            state.failedRecoveries.increment();
+            log.warn("Recovery of token {} failed, retrying in {}: {}", token.getName(), backoff, e.getMessage());
+            taskScheduler.schedule(() -> recover(token, true), Instant.now().plus(backoff));
+            return false;
+        }
+    }
+
+    private Duration backoff(int failures) {
+        Pkcs11Properties.Recovery config = pkcs11Properties.getRecovery();
+        long nanos = config.getInitialBackoff().toNanos() << Math.min(failures - 1, 20);
+        return Duration.ofNanos(Math.min(nanos, config.getMaxBackoff().toNanos()));
+    }
+
+    private boolean await(CompletableFuture<Boolean> attempt) {
+        try {
+            return attempt.get(pkcs11Properties.getRecovery().getAwait().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private TokenUnavailableException unavailable(Pkcs11Token token, State state) {
+        Duration retryAfter = pkcs11Properties.getRecovery().getAwait();
+        if (state.isOpen()) {
+            retryAfter = Duration.ofNanos(Math.max(0, state.openUntil - System.nanoTime()));
+            return new TokenUnavailableException("Token " + token.getName()
+                    + " is unavailable after failing to recover its session", retryAfter);
+        }
+        return new TokenUnavailableException("Token " + token.getName() + " is recovering its session", retryAfter);
+    }
+
+    /**
+     * Touches every token idle for a whole keep-alive interval; a token found to have lost its session is recovered
+     */
+    void keepAlive() {
+        long idleNanos = pkcs11Properties.getRecovery().getKeepAliveInterval().toNanos();
+        for (Pkcs11Token token : pkcs11Tokens) {
+            if (token.isRecovering() || token.getIdleNanos() < idleNanos) {
+                continue;
+            }
+            try {
+                if (token.keepAlive()) {
+                    log.debug("Kept session alive on token {}", token.getName());
+                }
+            } catch (Exception e) {
+                if (isSessionLost(e)) {
+                    log.warn("Token {} lost its session while idle: {}", token.getName(), e.getMessage());
+                    stateOf(token).detections.increment();
+                    recover(token);
+                } else {
+                    log.debug("Keep-alive failed on token {}: {}", token.getName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private State stateOf(Pkcs11Token token) {
+        return states.computeIfAbsent(token.getName(), name -> new State());
+    }
+
+    /**
+     * Gets the recovery state and counters per token
+     */
+    public Map<String, Map<String, Object>> getStatistics() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        for (Pkcs11Token token : pkcs11Tokens) {
+            State state = states.get(token.getName());
+            Map<String, Object> tokenStats = new LinkedHashMap<>();
+            tokenStats.put("state", state == null || !token.isRecovering() ? "ready"
+                    : state.attempt != null ? "recovering" : "backing-off");
+            tokenStats.put("detections", state == null ? 0L : state.detections.sum());
+            tokenStats.put("recoveries", state == null ? 0L : state.recoveries.sum());
+            tokenStats.put("failedRecoveries", state == null ? 0L : state.failedRecoveries.sum());
+            if (state != null && state.lastRecovered > 0) {
+                tokenStats.put("lastRecovered", Instant.ofEpochMilli(state.lastRecovered).toString());
+            }
+            stats.put(token.getName(), tokenStats);
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        recoveryExecutor.shutdownNow();
+    }
+
+    private static final class State {
+
+        // The recovery in progress, if any; written under the state's monitor
+        private volatile CompletableFuture<Boolean> attempt;
+
+        // Consecutive failed recoveries; written under the state's monitor
+        private volatile int failures;
+
+        // When the circuit closes again after a failed recovery
+        private volatile long openUntil;
+
+        private volatile long lastRecovered;
+
+        private final LongAdder detections = new LongAdder();
+        private final LongAdder recoveries = new LongAdder();
+        private final LongAdder failedRecoveries = new LongAdder();
+
+        private boolean isOpen() {
+            return attempt == null && failures > 0 && System.nanoTime() - openUntil < 0;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.dto.BatchVerifyResponse;
+import com.example.pkcs11.dto.BatchVerifyResult;
+import com.example.pkcs11.dto.MerkleProofStep;
+import com.example.pkcs11.dto.MerkleVerifyRequest;
+import com.example.pkcs11.dto.VerifyRequest;
+import com.example.pkcs11.exception.KeyNotFoundException;
+import com.example.pkcs11.exception.SigningException;
+import com.example.pkcs11.merkle.MerkleBatcher;
+import com.example.pkcs11.merkle.MerkleTree;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Verifies signatures in software with the public keys of the tokens' certificates.
+ * <p>
+ * Public keys come from the key index, where they were extracted once, and the engines are the JDK's
+ * software providers, never the token's, so verification costs no HSM session and scales with the cores.
+ * Each thread keeps its own engines, re-initialized with the key for every call.
+ */
+@Slf4j
+@Service
+public class VerificationService {
+
+    private static final ThreadLocal<Map<String, Signature>> ENGINES = ThreadLocal.withInitial(HashMap::new);
+
+    @Autowired
+    private Pkcs11ProviderService pkcs11ProviderService;
+
+    @Autowired
+    private Pkcs11Properties pkcs11Properties;
+
+    @Autowired
+    @Qualifier("verificationExecutor")
+    private ExecutorService verificationExecutor;
+
+    /**
+     * Verifies a signature with the public key from the key's certificate.
+     * When a digest algorithm is given, the data is the precomputed digest that was signed.
+     */
+    public boolean verify(String keyLabel, String algorithmType, byte[] data, String digestAlgorithm,
+                          byte[] signature) {
+        PublicKey publicKey = pkcs11ProviderService.getPublicKey(keyLabel);
+        if (!algorithmType.equalsIgnoreCase(publicKey.getAlgorithm())) {
+            throw new IllegalArgumentException(String.format(
+                    "Key type mismatch. Expected: %s, Found: %s", algorithmType, publicKey.getAlgorithm()));
+        }
+
+        String verifyAlgorithm;
+        byte[] payload;
+        if (digestAlgorithm == null) {
+            verifyAlgorithm = pkcs11ProviderService.getSigningAlgorithm(algorithmType, null);
+            payload = data;
+        } else {
+            DigestAlgorithm digest = DigestAlgorithm.fromName(digestAlgorithm);
+            digest.validateDigest(data);
+            verifyAlgorithm = pkcs11ProviderService.getPrehashedSigningAlgorithm(algorithmType);
+            payload = "RSA".equalsIgnoreCase(algorithmType) ? digest.toDigestInfo(data) : data;
+        }
+
+        try {
+            Signature verifier = engine(verifyAlgorithm);
+            verifier.initVerify(publicKey);
+            verifier.update(payload);
+            return verifier.verify(signature);
+        } catch (SignatureException e) {
+            // A malformed signature does not verify
+            log.debug("Signature for key: {} is malformed: {}", keyLabel, e.getMessage());
+            return false;
+        } catch (GeneralSecurityException e) {
+            throw new SigningException("Verification failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Verifies a document's Merkle inclusion proof against the root, then the signature over the root
+     */
+    public boolean verifyMerkle(MerkleVerifyRequest request) {
+        byte[] leafHash = MerkleTree.leafHash(MerkleBatcher.documentDigest(
+                decode(request.getData(), "Input data"), request.getDigestAlgorithm()));
+        List<MerkleTree.Step> proof = new ArrayList<>(request.getProof().size());
+        for (MerkleProofStep step : request.getProof()) {
+            proof.add(new MerkleTree.Step(decode(step.getHash(), "Proof hash"),
+                    MerkleProofStep.LEFT.equals(step.getSide())));
+        }
+        byte[] root = decode(request.getRoot(), "Root");
+        if (!MerkleTree.verifyProof(leafHash, proof, root)) {
+            log.debug("Merkle proof for key: {} does not lead to the root", request.getKeyLabel());
+            return false;
+        }
+        return verify(request.getKeyLabel(), request.getAlgorithm(), root, DigestAlgorithm.SHA256.getJcaName(),
+                decode(request.getSignature(), "Signature"));
+    }
+
+    /**
+     * Gets the certificate chain stored with a key as PEM, leaf certificate first
+     */
+    public String getCertificateChainPem(String keyLabel) {
+        StringBuilder pem = new StringBuilder();
+        Base64.Encoder encoder = Base64.getMimeEncoder(64, new byte[]{'\n'});
+        try {
+            for (Certificate certificate : pkcs11ProviderService.getCertificateChain(keyLabel)) {
+                pem.append("-----BEGIN CERTIFICATE-----\n")
+                        .append(encoder.encodeToString(certificate.getEncoded()))
+                        .append("\n-----END CERTIFICATE-----\n");
+            }
+        } catch (CertificateEncodingException e) {
+            throw new SigningException("Failed to encode certificate: " + e.getMessage(), e);
+        }
+        return pem.toString();
+    }
+
+    /**
+     * Verifies every item of a batch, returning per-item results in request order. The items are split
+     * into one contiguous run per verification thread; a failing item is reported in its result slot.
+     */
+    public BatchVerifyResponse verifyBatch(List<VerifyRequest> items) {
+        int maxItems = pkcs11Properties.getVerify().getMaxItems();
+        if (items.size() > maxItems) {
+            throw new IllegalArgumentException(
+                    String.format("Batch contains %d items, maximum is %d", items.size(), maxItems));
+        }
+
+        Instant start = Instant.now();
+        BatchVerifyResult[] results = new BatchVerifyResult[items.size()];
+        int runs = Math.min(items.size(), pkcs11Properties.getVerify().resolveParallelism());
+        List<CompletableFuture<Void>> pending = new ArrayList<>(runs);
+        for (int run = 0; run < runs; run++) {
+            int from = (int) ((long) run * items.size() / runs);
+            int to = (int) ((long) (run + 1) * items.size() / runs);
+            pending.add(CompletableFuture.runAsync(() -> {
+                for (int index = from; index < to; index++) {
+                    results[index] = verifyItem(index, items.get(index));
+                }
+            }, verificationExecutor));
+        }
+
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            // Item failures are captured in verifyItem; this only happens if the executor rejects work
+            throw new SigningException("Batch verification failed: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        int failed = (int) Arrays.stream(results).filter(r -> r.getError() != null).count();
+        int valid = (int) Arrays.stream(results).filter(r -> Boolean.TRUE.equals(r.getValid())).count();
+        log.info("Batch verified {} items in {} runs, valid: {}, failed: {}, duration: {} ms",
+                items.size(), runs, valid, failed, Duration.between(start, Instant.now()).toMillis());
+
+        return new BatchVerifyResponse(valid, results.length - valid - failed, failed, Arrays.asList(results));
+    }
+
+    private BatchVerifyResult verifyItem(int index, VerifyRequest item) {
+        try {
+            boolean valid = verify(item.getKeyLabel(), item.getAlgorithm(), decode(item.getData(), "Input data"),
+                    item.getDigestAlgorithm(), decode(item.getSignature(), "Signature"));
+            return BatchVerifyResult.of(index, valid);
+        } catch (Exception e) {
+            log.warn("Failed to verify batch item {} for key: {}: {}", index, item.getKeyLabel(), e.getMessage());
+            return toFailure(index, e);
+        }
+    }
+
+    /**
+     * Decodes a base64 request field, reporting bad input as an invalid request
+     */
+    public static byte[] decode(String base64, String field) {
+        try {
+            return Base64.getDecoder().decode(base64);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(field + " must be valid base64 encoded", e);
+        }
+    }
+
+    private static Signature engine(String algorithm) throws GeneralSecurityException {
+        Map<String, Signature> engines = ENGINES.get();
+        Signature engine = engines.get(algorithm);
+        if (engine == null) {
+            engine = Signature.getInstance(algorithm, softwareProvider(algorithm));
+            engines.put(algorithm, engine);
+        }
+        return engine;
+    }
+
+    /**
+     * Picks the JDK provider for an algorithm explicitly, so a registered SunPKCS11 provider is never chosen
+     */
+    private static Provider softwareProvider(String algorithm) {
+        if ("NONEwithRSA".equals(algorithm)) {
+            // Implemented by Signature on top of SunJCE's RSA/ECB/PKCS1Padding cipher
+            return Security.getProvider("SunJCE");
+        }
+        if (algorithm.endsWith("withRSA")) {
+            return Security.getProvider("SunRsaSign");
+        }
+        if (algorithm.endsWith("withECDSA")) {
+            return Security.getProvider("SunEC");
+        }
+        throw new IllegalArgumentException("Unsupported verification algorithm: " + algorithm);
+    }
+
+    /**
+     * Maps an item failure to the same error categories as GlobalExceptionHandler
+     */
+    private static BatchVerifyResult toFailure(int index, Exception e) {
+        if (e instanceof KeyNotFoundException) {
+            return BatchVerifyResult.failure(index, "Key not found", e.getMessage());
+        }
+        if (e instanceof IllegalArgumentException) {
+            return BatchVerifyResult.failure(index, "Invalid request", e.getMessage());
+        }
+        if (e instanceof SigningException) {
+            return BatchVerifyResult.failure(index, "Verification failed", e.getMessage());
+        }
+        return BatchVerifyResult.failure(index, "Internal server error", "An unexpected error occurred");
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.pkcs11.timing;
+
+/**
+ * Phases of a signing request, named as they appear in the Server-Timing header
+ */
+public enum Phase {
+
+    /** Request received until its body is read and parsed */
+    READ("read"),
+    /** Base64 decoding of the data to sign */
+    DECODE("decode"),
+    /** Local hashing of a streamed document */
+    HASH("hash"),
+    /** Waiting for the caller's fair share of the tokens */
+    QUEUE("queue"),
+    /** Resolving the private key on the least loaded token */
+    KEY("key"),
+    /** Borrowing a signature engine, running initSign when none is idle */
+    INIT("init"),
+    /** update() and sign() on the token */
+    SIGN("sign"),
+    /** Queueing for and running on a dispatcher worker */
+    DISPATCH("dispatch"),
+    /** Waiting for and signing a batch of coalesced requests */
+    COALESCE("coalesce"),
+    /** Waiting for the first of a request's attempts on replicated tokens */
+    HEDGE("hedge"),
+    /** Base64 encoding of the signature */
+    ENCODE("encode");
+
+    private final String metricName;
+
+    Phase(String metricName) {
+        this.metricName = metricName;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+}
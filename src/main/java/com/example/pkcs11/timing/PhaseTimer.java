@@ -0,0 +1,43 @@
+package com.example.pkcs11.timing;
+
+/**
+ * Times one phase of a signing request.
+ * <p>
+ * Every phase is emitted as a {@link SigningPhaseEvent}. When the calling thread is serving a request with
+ * Server-Timing enabled, its duration is also added to that request's {@link RequestTimings}; phases run on
+ * other threads (batch items, dispatcher workers) only show up in Flight Recorder.
+ */
+public final class PhaseTimer {
+
+    private final Phase phase;
+
+    private final SigningPhaseEvent event = new SigningPhaseEvent();
+
+    private final RequestTimings timings;
+
+    private final long start;
+
+    private PhaseTimer(Phase phase) {
+        this.phase = phase;
+        RequestTimings current = RequestTimings.current();
+        this.timings = current != null && current.isCollecting() ? current : null;
+        this.start = timings == null ? 0 : System.nanoTime();
+        event.begin();
+    }
+
+    public static PhaseTimer start(Phase phase) {
+        return new PhaseTimer(phase);
+    }
+
+    public void stop(String keyLabel) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase.getMetricName();
+            event.keyLabel = keyLabel;
+            event.commit();
+        }
+        if (timings != null) {
+            timings.add(phase, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.pkcs11.timing;
+
+import java.util.Locale;
+
+/**
+ * Phase timings of the request served by the current thread.
+ * <p>
+ * Started by {@link ServerTimingFilter} for every request so the {@link Phase#READ} event can span body
+ * parsing; durations are only collected for the Server-Timing header when it is enabled.
+ */
+public final class RequestTimings {
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final long start = System.nanoTime();
+
+    private final boolean collecting;
+
+    private final long[] nanos;
+
+    private final boolean[] recorded;
+
+    private PhaseTimer read;
+
+    private RequestTimings(boolean collecting) {
+        this.collecting = collecting;
+        this.nanos = collecting ? new long[PHASES.length] : null;
+        this.recorded = collecting ? new boolean[PHASES.length] : null;
+    }
+
+    /**
+     * Binds timings to the current thread and starts the read phase
+     */
+    public static RequestTimings begin(boolean collecting) {
+        RequestTimings timings = new RequestTimings(collecting);
+        CURRENT.set(timings);
+        timings.read = PhaseTimer.start(Phase.READ);
+        return timings;
+    }
+
+    public static RequestTimings current() {
+        return CURRENT.get();
+    }
+
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Ends the read phase once the request body has been parsed and the key label is known
+     */
+    public static void endRead(String keyLabel) {
+        RequestTimings timings = CURRENT.get();
+        if (timings != null && timings.read != null) {
+            timings.read.stop(keyLabel);
+            timings.read = null;
+        }
+    }
+
+    public boolean isCollecting() {
+        return collecting;
+    }
+
+    void add(Phase phase, long durationNanos) {
+        nanos[phase.ordinal()] += durationNanos;
+        recorded[phase.ordinal()] = true;
+    }
+
+    /**
+     * Formats the phases recorded so far plus the total time since the request started,
+     * e.g. {@code read;dur=0.212, key;dur=0.004, sign;dur=1.870, total;dur=2.140}
+     */
+    public String toHeaderValue() {
+        StringBuilder header = new StringBuilder(128);
+        for (Phase phase : PHASES) {
+            if (recorded[phase.ordinal()]) {
+                append(header, phase.getMetricName(), nanos[phase.ordinal()]).append(", ");
+            }
+        }
+        return append(header, "total", System.nanoTime() - start).toString();
+    }
+
+    private static StringBuilder append(StringBuilder header, String name, long durationNanos) {
+        return header.append(name).append(";dur=").append(String.format(Locale.ROOT, "%.3f", durationNanos / 1e6));
+    }
+}
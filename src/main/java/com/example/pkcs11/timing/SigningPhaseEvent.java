@@ -0,0 +1,27 @@
+package com.example.pkcs11.timing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event covering one phase of a signing request. Costs next to nothing unless a recording is running.
+ */
+@Name(SigningPhaseEvent.NAME)
+@Label("Signing Phase")
+@Description("One phase of a PKCS#11 signing request")
+@Category({"PKCS#11", "Signing"})
+@StackTrace(false)
+class SigningPhaseEvent extends Event {
+
+    static final String NAME = "com.example.pkcs11.SigningPhase";
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Key Label")
+    String keyLabel;
+}
@@ -0,0 +1,184 @@
+package com.example.pkcs11.audit;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.SigningException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+
+    private Pkcs11Properties properties;
+
+    @BeforeEach
+    void setUp() {
+        file = directory.resolve("audit.journal");
+        properties = new Pkcs11Properties();
+        properties.getAudit().setFile(file.toString());
+    }
+
+    @Test
+    void testConcurrentRecordsFormOneValidChain() throws Exception {
+        AuditJournal journal = open();
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 500; i++) {
+            byte[] data = ("document-" + i).getBytes(StandardCharsets.UTF_8);
+            clients.execute(() -> record(journal, data, "doc\tname"));
+        }
+        clients.shutdown();
+        assertTrue(clients.awaitTermination(10, TimeUnit.SECONDS));
+        journal.close();
+
+        AuditJournalVerifier.Result result = AuditJournalVerifier.verify(file);
+        assertTrue(result.isValid(), result.getError());
+        assertEquals(500, result.getEntries());
+    }
+
+    @Test
+    void testEditedEntryIsDetected() throws Exception {
+        AuditJournal journal = open();
+        for (int i = 0; i < 3; i++) {
+            record(journal, new byte[]{(byte) i}, "test");
+        }
+        journal.close();
+
+        List<String> lines = Files.readAllLines(file);
+        lines.set(1, lines.get(1).replace("rsa-key", "ecc-key"));
+        Files.write(file, lines);
+
+        AuditJournalVerifier.Result result = AuditJournalVerifier.verify(file);
+        assertFalse(result.isValid());
+        assertEquals(2, result.getEntries());
+    }
+
+    @Test
+    void testRemovedEntryIsDetected() throws Exception {
+        AuditJournal journal = open();
+        for (int i = 0; i < 3; i++) {
+            record(journal, new byte[]{(byte) i}, "test");
+        }
+        journal.close();
+
+        List<String> lines = Files.readAllLines(file);
+        lines.remove(1);
+        Files.write(file, lines);
+
+        assertFalse(AuditJournalVerifier.verify(file).isValid());
+    }
+
+    @Test
+    void testReopenedJournalContinuesChainAfterTornWrite() throws Exception {
+        AuditJournal journal = open();
+        record(journal, new byte[]{1}, "before");
+        journal.close();
+        // A crash in the middle of a write leaves a partial line behind
+        Files.write(file, "2\t2026-01-01T00:00:00Z\trsa-".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        journal = open();
+        record(journal, new byte[]{2}, "after");
+        journal.close();
+
+        AuditJournalVerifier.Result result = AuditJournalVerifier.verify(file);
+        assertTrue(result.isValid(), result.getError());
+        assertEquals(2, result.getEntries());
+    }
+
+    @Test
+    void testFailedWriteIsRetriedWithoutBreakingTheChain() throws Exception {
+        properties.getAudit().setAwaitCommit(true);
+        properties.getAudit().setCommitTimeout(Duration.ofMillis(200));
+        AuditJournal journal = open();
+        record(journal, new byte[]{1}, "before");
+        FileChannel writable = (FileChannel) ReflectionTestUtils.getField(journal, "channel");
+
+        // Writes to a read-only channel fail like a full or failing disk
+        try (FileChannel readOnly = FileChannel.open(file, StandardOpenOption.READ)) {
+            ReflectionTestUtils.setField(journal, "channel", readOnly);
+            // The request being recorded is answered; the ones after it are refused
+            record(journal, new byte[]{2}, "held");
+            assertThrows(SigningException.class, journal::checkWritable);
+            assertEquals(true, journal.getStatistics().get("failing"));
+
+            properties.getAudit().setCommitTimeout(Duration.ofSeconds(10));
+            ReflectionTestUtils.setField(journal, "channel", writable);
+            record(journal, new byte[]{3}, "after");
+        }
+        journal.checkWritable();
+        journal.close();
+
+        AuditJournalVerifier.Result result = AuditJournalVerifier.verify(file);
+        assertTrue(result.isValid(), result.getError());
+        assertEquals(3, result.getEntries());
+    }
+
+    @Test
+    void testRecordOnlyEnqueuesByDefault() throws Exception {
+        AuditJournal journal = open();
+        FileChannel writable = (FileChannel) ReflectionTestUtils.getField(journal, "channel");
+
+        try (FileChannel readOnly = FileChannel.open(file, StandardOpenOption.READ)) {
+            ReflectionTestUtils.setField(journal, "channel", readOnly);
+            long start = System.nanoTime();
+            record(journal, new byte[]{1}, "queued");
+            assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofMillis(100)) < 0);
+            ReflectionTestUtils.setField(journal, "channel", writable);
+        }
+        journal.close();
+
+        AuditJournalVerifier.Result result = AuditJournalVerifier.verify(file);
+        assertTrue(result.isValid(), result.getError());
+        assertEquals(1, result.getEntries());
+    }
+
+    @Test
+    void testPreHashedInputIsRecordedAsGiven() throws Exception {
+        AuditJournal journal = open();
+        journal.record("rsa-key", "RSA", "SHA-256", new byte[]{(byte) 0xab, (byte) 0xcd}, "digest", 1_000,
+                AuditJournal.OUTCOME_SUCCESS);
+        journal.close();
+
+        String line = Files.readAllLines(file).get(0);
+        assertTrue(line.contains("\tSHA-256\tabcd\t"), line);
+    }
+
+    @Test
+    void testDisabledJournalWritesNothing() throws Exception {
+        properties.getAudit().setEnabled(false);
+        AuditJournal journal = open();
+        record(journal, new byte[]{1}, "test");
+        journal.close();
+
+        assertFalse(journal.isEnabled());
+        assertFalse(Files.exists(file));
+    }
+
+    private AuditJournal open() throws Exception {
+        AuditJournal journal = new AuditJournal();
+        ReflectionTestUtils.setField(journal, "pkcs11Properties", properties);
+        journal.open();
+        return journal;
+    }
+
+    private static void record(AuditJournal journal, byte[] data, String name) {
+        journal.record("rsa-key", "RSA", null, data, name, 2_000_000, AuditJournal.OUTCOME_SUCCESS);
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.pkcs11.config;
 
 import com.example.pkcs11.service.Pkcs11ProviderService;
+import com.example.pkcs11.service.Pkcs11Token;
 import org.mockito.Mockito;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
@@ -8,6 +9,9 @@ import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.Profile;
 
 import java.security.Provider;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
 
 @TestConfiguration
 @Profile("test")
@@ -23,6 +27,11 @@ public class TestPkcs11Config {
         return mockProvider;
     }
 
+    @Bean
+    public List<Pkcs11Token> pkcs11Tokens(Provider pkcs11Provider) {
+        return Collections.singletonList(new Pkcs11Token("MockPKCS11", pkcs11Provider, "1234", 3, Duration.ofSeconds(30)));
+    }
+
     @Bean
     @Primary
     public Pkcs11ProviderService pkcs11ProviderService() {
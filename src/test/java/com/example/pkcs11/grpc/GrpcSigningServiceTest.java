@@ -0,0 +1,174 @@
+package com.example.pkcs11.grpc;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.KeyNotFoundException;
+import com.example.pkcs11.exception.OverloadedException;
+import com.example.pkcs11.grpc.v1.SignRequest;
+import com.example.pkcs11.grpc.v1.SignResponse;
+import com.example.pkcs11.grpc.v1.SigningServiceGrpc;
+import com.example.pkcs11.grpc.v1.VerifyRequest;
+import com.example.pkcs11.service.SigningMetrics;
+import com.example.pkcs11.service.SigningService;
+import com.example.pkcs11.service.VerificationService;
+import com.google.protobuf.ByteString;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.when;
+
+class GrpcSigningServiceTest {
+
+    private SigningService signingService;
+
+    private VerificationService verificationService;
+
+    private ExecutorService executor;
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        signingService = Mockito.mock(SigningService.class);
+        verificationService = Mockito.mock(VerificationService.class);
+        Pkcs11Properties properties = new Pkcs11Properties();
+        properties.getGrpc().setMaxInFlightPerStream(4);
+        executor = Executors.newFixedThreadPool(4);
+
+        GrpcSigningService service = new GrpcSigningService();
+        ReflectionTestUtils.setField(service, "signingService", signingService);
+        ReflectionTestUtils.setField(service, "verificationService", verificationService);
+        ReflectionTestUtils.setField(service, "signingMetrics", Mockito.mock(SigningMetrics.class));
+        ReflectionTestUtils.setField(service, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(service, "grpcExecutor", executor);
+
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).executor(executor).addService(service).build().start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        channel.shutdownNow();
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testSign() {
+        when(signingService.signBytes(eq("rsa-key"), eq("RSA"), any(), isNull(), eq("grpc")))
+                .thenReturn(new byte[]{1, 2, 3});
+
+        SignResponse response = SigningServiceGrpc.newBlockingStub(channel).sign(request(7, "rsa-key", "data"));
+
+        assertEquals(7, response.getRequestId());
+        assertEquals(ByteString.copyFrom(new byte[]{1, 2, 3}), response.getSignature());
+    }
+
+    @Test
+    void testSignFailuresMapToStatusCodes() {
+        when(signingService.signBytes(eq("missing"), anyString(), any(), any(), anyString()))
+                .thenThrow(new KeyNotFoundException("Private key not found for label: missing"));
+        when(signingService.signBytes(eq("busy"), anyString(), any(), any(), anyString()))
+                .thenThrow(new OverloadedException("Concurrency limit reached", Duration.ofSeconds(1)));
+        SigningServiceGrpc.SigningServiceBlockingStub stub = SigningServiceGrpc.newBlockingStub(channel);
+
+        assertEquals(Status.Code.NOT_FOUND, statusOf(() -> stub.sign(request(1, "missing", "data"))));
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, statusOf(() -> stub.sign(request(2, "busy", "data"))));
+        assertEquals(Status.Code.INVALID_ARGUMENT, statusOf(() -> stub.sign(request(3, "", "data"))));
+        assertEquals(Status.Code.INVALID_ARGUMENT, statusOf(() -> stub.sign(SignRequest.newBuilder()
+                .setKeyLabel("rsa-key").setAlgorithm("RSA").setData(ByteString.copyFromUtf8("not a digest"))
+                .setDigestAlgorithm("SHA-256").build())));
+    }
+
+    @Test
+    void testSignStreamAnswersEveryRequest() throws Exception {
+        when(signingService.signBytes(eq("rsa-key"), eq("RSA"), any(), isNull(), eq("grpc")))
+                .thenAnswer(invocation -> invocation.getArgument(2));
+        when(signingService.signBytes(eq("missing"), anyString(), any(), any(), anyString()))
+                .thenThrow(new KeyNotFoundException("Private key not found for label: missing"));
+
+        Map<Long, SignResponse> responses = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(1);
+        StreamObserver<SignRequest> requests = SigningServiceGrpc.newStub(channel).signStream(
+                new StreamObserver<SignResponse>() {
+                    @Override
+                    public void onNext(SignResponse response) {
+                        responses.put(response.getRequestId(), response);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        done.countDown();
+                    }
+                });
+
+        // Far more requests than the in-flight window of 4
+        for (int i = 0; i < 100; i++) {
+            requests.onNext(request(i, i == 50 ? "missing" : "rsa-key", "document-" + i));
+        }
+        requests.onCompleted();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(100, responses.size());
+        assertEquals("document-3", responses.get(3L).getSignature().toString(StandardCharsets.UTF_8));
+        assertEquals(Status.Code.NOT_FOUND.value(), responses.get(50L).getError().getCode());
+    }
+
+    @Test
+    void testVerify() {
+        when(verificationService.verify(eq("rsa-key"), eq("RSA"), any(), isNull(), any())).thenReturn(true);
+
+        boolean valid = SigningServiceGrpc.newBlockingStub(channel).verify(VerifyRequest.newBuilder()
+                .setKeyLabel("rsa-key")
+                .setAlgorithm("RSA")
+                .setData(ByteString.copyFromUtf8("data"))
+                .setSignature(ByteString.copyFrom(new byte[]{1, 2, 3}))
+                .build()).getValid();
+
+        assertTrue(valid);
+    }
+
+    private static SignRequest request(long id, String keyLabel, String data) {
+        return SignRequest.newBuilder()
+                .setRequestId(id)
+                .setKeyLabel(keyLabel)
+                .setAlgorithm("RSA")
+                .setData(ByteString.copyFromUtf8(data))
+                .build();
+    }
+
+    private static Status.Code statusOf(Runnable call) {
+        return assertThrows(StatusRuntimeException.class, call::run).getStatus().getCode();
+    }
+}
@@ -2,6 +2,7 @@ package com.example.pkcs11.integration;
 
 import com.example.pkcs11.config.TestPkcs11Config;
 import com.example.pkcs11.dto.SignRequest;
+import com.example.pkcs11.dto.VerifyRequest;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,6 +15,7 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.Base64;
 
+import static org.hamcrest.Matchers.matchesPattern;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -102,6 +104,64 @@ class CryptoControllerIntegrationTest {
                 .andExpect(status().isInternalServerError());
     }
 
+    @Test
+    void testSignBatchEndpoint_InvalidRequest_EmptyItems() throws Exception {
+        mockMvc.perform(post("/v1/crypto/sign/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"items\":[]}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testVerifyEndpoint_InvalidRequest_MissingSignature() throws Exception {
+        VerifyRequest request = new VerifyRequest();
+        request.setKeyLabel("test-key");
+        request.setAlgorithm("RSA");
+        request.setData(Base64.getEncoder().encodeToString("test data".getBytes()));
+
+        mockMvc.perform(post("/v1/crypto/verify")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testSignBinaryEndpoint_InvalidRequest_MissingKeyLabel() throws Exception {
+        mockMvc.perform(post("/v1/crypto/sign")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header("X-Algorithm", "RSA")
+                .content("test data".getBytes()))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Key label is required"));
+    }
+
+    @Test
+    void testSignBinaryEndpoint_InvalidRequest_InvalidAlgorithm() throws Exception {
+        mockMvc.perform(post("/v1/crypto/sign/test-key/INVALID")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .content("test data".getBytes()))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testSignBinaryEndpoint_InvalidRequest_EmptyBody() throws Exception {
+        mockMvc.perform(post("/v1/crypto/sign/test-key/RSA")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .content(new byte[0]))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Input data cannot be null or empty"));
+    }
+
+    @Test
+    void testServerTimingHeader() throws Exception {
+        mockMvc.perform(post("/v1/crypto/sign/test-key/RSA")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header("X-Digest-Algorithm", "SHA-256")
+                .content("not a digest".getBytes()))
+                .andExpect(status().isBadRequest())
+                .andExpect(header().string("Server-Timing", matchesPattern("read;dur=\\d+\\.\\d{3}, total;dur=\\d+\\.\\d{3}")));
+    }
+
     // Note: Actual signing tests would require a real PKCS#11 setup
     // These tests focus on request validation and endpoint availability
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+package com.example.pkcs11.integration;
+
+import com.example.pkcs11.config.TestPkcs11Config;
+import com.example.pkcs11.dto.SignRequest;
+import com.example.pkcs11.dto.SignResponse;
+import com.example.pkcs11.service.Pkcs11ProviderService;
+import com.example.pkcs11.service.Pkcs11Token;
+import com.example.pkcs11.service.TokenKey;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+@AutoConfigureWebTestClient
+@ActiveProfiles("test")
+@Import(TestPkcs11Config.class)
+class ReactiveCryptoControllerIntegrationTest {
+
+    private static KeyPair rsaKeyPair;
+
+    private static KeyPair ecKeyPair;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private Pkcs11ProviderService pkcs11ProviderService;
+
+    @BeforeAll
+    static void generateKey() throws Exception {
+        KeyPairGenerator rsaGenerator = KeyPairGenerator.getInstance("RSA");
+        rsaGenerator.initialize(2048);
+        rsaKeyPair = rsaGenerator.generateKeyPair();
+        KeyPairGenerator ecGenerator = KeyPairGenerator.getInstance("EC");
+        ecGenerator.initialize(256);
+        ecKeyPair = ecGenerator.generateKeyPair();
+    }
+
+    @Test
+    void testHealthEndpoint() {
+        webTestClient.get().uri("/v1/crypto/health")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.status").isEqualTo("UP");
+    }
+
+    @Test
+    void testInfoEndpoint() {
+        webTestClient.get().uri("/v1/crypto/info")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.service").isEqualTo("PKCS#11 Signing Service");
+    }
+
+    @Test
+    void testSignEndpoint() throws Exception {
+        // Software provider stands in for SunPKCS11
+        Pkcs11Token token = new Pkcs11Token("software", Security.getProvider("SunRsaSign"), "1234",
+                3, Duration.ofSeconds(30));
+        when(pkcs11ProviderService.selectKey("rsa-key")).thenReturn(new TokenKey(token, "rsa-key", rsaKeyPair.getPrivate()));
+        when(pkcs11ProviderService.getSigningAlgorithm(eq("RSA"), any())).thenReturn("SHA256withRSA");
+        byte[] data = "Hello, World!".getBytes(StandardCharsets.UTF_8);
+        SignRequest request = new SignRequest("rsa-key", "RSA", Base64.getEncoder().encodeToString(data), "reactive");
+
+        SignResponse response = webTestClient.post().uri("/v1/crypto/sign")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(SignResponse.class)
+                .returnResult().getResponseBody();
+
+        assertTrue(verify("SHA256withRSA", rsaKeyPair, data, Base64.getDecoder().decode(response.getSignature())));
+    }
+
+    @Test
+    void testSignStreamEndpoint() throws Exception {
+        Pkcs11Token token = new Pkcs11Token("software", Security.getProvider("SunEC"), "1234",
+                3, Duration.ofSeconds(30));
+        when(pkcs11ProviderService.selectKey("ecc-key")).thenReturn(new TokenKey(token, "ecc-key", ecKeyPair.getPrivate()));
+        when(pkcs11ProviderService.getPrehashedSigningAlgorithm("EC")).thenReturn("NONEwithECDSA");
+        // Larger than a single network buffer, so the body is hashed in several chunks
+        byte[] data = new byte[300_000];
+
+        byte[] signature = webTestClient.post().uri("/v1/crypto/sign/stream/ecc-key/EC")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .bodyValue(data)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+
+        assertTrue(verify("SHA256withECDSA", ecKeyPair, data, signature));
+    }
+
+    @Test
+    void testSignEndpoint_InvalidRequest_MissingKeyLabel() {
+        SignRequest request = new SignRequest();
+        request.setAlgorithm("RSA");
+        request.setData(Base64.getEncoder().encodeToString("test data".getBytes()));
+
+        webTestClient.post().uri("/v1/crypto/sign")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.keyLabel").isEqualTo("Key label is required");
+    }
+
+    @Test
+    void testSignBinaryEndpoint_InvalidRequest_MissingKeyLabel() {
+        webTestClient.post().uri("/v1/crypto/sign")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header("X-Algorithm", "RSA")
+                .bodyValue("test data".getBytes())
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.message").isEqualTo("Key label is required");
+    }
+
+    @Test
+    void testSignBinaryEndpoint_InvalidRequest_EmptyBody() {
+        webTestClient.post().uri("/v1/crypto/sign/test-key/RSA")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .bodyValue(new byte[0])
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.message").isEqualTo("Input data cannot be null or empty");
+    }
+
+    private static boolean verify(String algorithm, KeyPair keyPair, byte[] data, byte[] signature) throws Exception {
+        Signature verifier = Signature.getInstance(algorithm);
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(data);
+        return verifier.verify(signature);
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.pkcs11.jobs;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.dto.BatchSignResult;
+import com.example.pkcs11.dto.JobStatus;
+import com.example.pkcs11.dto.SignRequest;
+import com.example.pkcs11.exception.JobNotFoundException;
+import com.example.pkcs11.exception.OverloadedException;
+import com.example.pkcs11.service.BatchSigningService;
+import com.example.pkcs11.service.SigningMetrics;
+import com.example.pkcs11.service.SigningService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+class SigningJobServiceTest {
+
+    private static final byte[] SIGNATURE = {1, 2, 3};
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Pkcs11Properties properties;
+
+    private SigningService signingService;
+
+    private SigningJobService jobService;
+
+    @BeforeEach
+    void setUp() {
+        properties = new Pkcs11Properties();
+        properties.getJobs().setDirectory(directory.toString());
+        properties.getJobs().setWorkers(4);
+        signingService = mock(SigningService.class);
+        when(signingService.signBytes(eq("rsa-key"), eq("RSA"), any(), isNull(), any())).thenReturn(SIGNATURE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (jobService != null) {
+            jobService.shutdown();
+        }
+    }
+
+    @Test
+    void testJobIsSignedAndResultsAreWrittenToItsFile() throws Exception {
+        start();
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            ndjson.append(objectMapper.writeValueAsString(item("document " + i))).append("\n\n");
+        }
+
+        JobStatus submitted = jobService.submit(
+                new ByteArrayInputStream(ndjson.toString().getBytes(StandardCharsets.UTF_8)));
+        assertEquals(50, submitted.getTotal());
+
+        JobStatus status = awaitCompletion(submitted.getId());
+        assertEquals(50, status.getSucceeded());
+        assertEquals(0, status.getFailed());
+        assertNotNull(status.getFinishedAt());
+
+        List<BatchSignResult> results = readResults(submitted.getId());
+        assertEquals(50, results.size());
+        assertEquals(50, results.stream().mapToInt(BatchSignResult::getIndex).distinct().count());
+        assertEquals(Base64.getEncoder().encodeToString(SIGNATURE), results.get(0).getSignature());
+        assertTrue(Files.readString(directory.resolve(submitted.getId()).resolve(SigningJob.METADATA_FILE))
+                .contains("finishedAt"));
+    }
+
+    @Test
+    void testUnfinishedJobResumesAfterRestartWithoutSigningDoneItemsAgain() throws Exception {
+        Path job = Files.createDirectory(directory.resolve("job-1"));
+        Files.writeString(job.resolve(SigningJob.METADATA_FILE),
+                "{\"id\":\"job-1\",\"total\":3,\"createdAt\":\"" + Instant.now() + "\"}");
+        Files.writeString(job.resolve(SigningJob.INPUT_FILE), objectMapper.writeValueAsString(item("a")) + "\n"
+                + objectMapper.writeValueAsString(item("b")) + "\n" + objectMapper.writeValueAsString(item("c")) + "\n");
+        // Item 1 finished before the crash; a second result was cut off half written
+        Files.writeString(job.resolve(SigningJob.RESULTS_FILE),
+                objectMapper.writeValueAsString(BatchSignResult.success(1, "AAAA")) + "\n{\"index\":2,\"sig");
+        // A submission that never completed
+        Files.createDirectory(directory.resolve("job-2.tmp"));
+
+        start();
+        JobStatus status = awaitCompletion("job-1");
+
+        assertEquals(3, status.getSucceeded());
+        verify(signingService, times(2)).signBytes(any(), any(), any(), any(), any());
+        verify(signingService, never()).signBytes(any(), any(), any(), any(), eq("b"));
+        assertEquals(3, readResults("job-1").size());
+        assertFalse(Files.exists(directory.resolve("job-2.tmp")));
+    }
+
+    @Test
+    void testResultsBeforeALongTornLineAreKept() throws Exception {
+        Path job = Files.createDirectory(directory.resolve("job-1"));
+        Files.writeString(job.resolve(SigningJob.METADATA_FILE),
+                "{\"id\":\"job-1\",\"total\":2,\"createdAt\":\"" + Instant.now() + "\"}");
+        Files.writeString(job.resolve(SigningJob.INPUT_FILE), objectMapper.writeValueAsString(item("a")) + "\n"
+                + objectMapper.writeValueAsString(item("b")) + "\n");
+        // The torn line is longer than one 64 KB scan of the tail
+        Files.writeString(job.resolve(SigningJob.RESULTS_FILE),
+                objectMapper.writeValueAsString(BatchSignResult.success(0, "AAAA")) + "\n{\"index\":1,\"error\":\""
+                        + "x".repeat(100_000));
+
+        start();
+        JobStatus status = awaitCompletion("job-1");
+
+        assertEquals(2, status.getSucceeded());
+        verify(signingService, times(1)).signBytes(any(), any(), any(), any(), any());
+        verify(signingService, never()).signBytes(any(), any(), any(), any(), eq("a"));
+        assertEquals(2, readResults("job-1").size());
+    }
+
+    @Test
+    void testOverloadedItemsAreRetriedInsteadOfFailed() throws Exception {
+        when(signingService.signBytes(eq("rsa-key"), eq("RSA"), any(), isNull(), any()))
+                .thenThrow(new OverloadedException("Signing quota exceeded", Duration.ofMillis(10)))
+                .thenReturn(SIGNATURE);
+        start();
+
+        JobStatus status = awaitCompletion(jobService.submit(List.of(item("a"))).getId());
+
+        assertEquals(1, status.getSucceeded());
+        verify(signingService, times(2)).signBytes(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void testItemFailuresAreRecordedInTheResults() throws Exception {
+        start();
+        SignRequest invalid = item("bad");
+        invalid.setData("not base64!");
+
+        JobStatus status = awaitCompletion(jobService.submit(List.of(item("good"), invalid)).getId());
+
+        assertEquals(1, status.getSucceeded());
+        assertEquals(1, status.getFailed());
+        BatchSignResult failure = readResults(status.getId()).stream()
+                .filter(result -> result.getIndex() == 1).findFirst().orElseThrow();
+        assertEquals("Invalid request", failure.getError());
+    }
+
+    @Test
+    void testInvalidSubmissionLeavesNoJobBehind() throws Exception {
+        start();
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> jobService.submit(
+                new ByteArrayInputStream((objectMapper.writeValueAsString(item("a")) + "\n{oops\n")
+                        .getBytes(StandardCharsets.UTF_8))));
+
+        assertTrue(e.getMessage().startsWith("Invalid job item on line 2"));
+        try (var entries = Files.list(directory)) {
+            assertEquals(0, entries.count());
+        }
+        assertThrows(JobNotFoundException.class, () -> jobService.getStatus("missing"));
+    }
+
+    @Test
+    void testFinishedJobsAreDeletedAfterTheRetentionPeriod() throws Exception {
+        start();
+        String id = awaitCompletion(jobService.submit(List.of(item("a"))).getId()).getId();
+
+        jobService.purge();
+        assertNotNull(jobService.getStatus(id));
+
+        properties.getJobs().setRetention(Duration.ZERO);
+        Thread.sleep(5);
+        jobService.purge();
+        assertThrows(JobNotFoundException.class, () -> jobService.getStatus(id));
+        assertFalse(Files.exists(directory.resolve(id)));
+    }
+
+    private void start() throws Exception {
+        BatchSigningService batchSigningService = new BatchSigningService();
+        ReflectionTestUtils.setField(batchSigningService, "signingMetrics", mock(SigningMetrics.class));
+
+        jobService = new SigningJobService();
+        ReflectionTestUtils.setField(jobService, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(jobService, "signingService", signingService);
+        ReflectionTestUtils.setField(jobService, "batchSigningService", batchSigningService);
+        ReflectionTestUtils.setField(jobService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(jobService, "taskScheduler", mock(TaskScheduler.class));
+        jobService.start();
+    }
+
+    private JobStatus awaitCompletion(String id) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        JobStatus status = jobService.getStatus(id);
+        while (!SigningJob.STATE_COMPLETED.equals(status.getState())) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for job " + id + ": " + status);
+            Thread.sleep(10);
+            status = jobService.getStatus(id);
+        }
+        return status;
+    }
+
+    private List<BatchSignResult> readResults(String id) throws Exception {
+        List<BatchSignResult> results = new ArrayList<>();
+        try (InputStream in = jobService.openResults(id)) {
+            for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                results.add(objectMapper.readValue(line, BatchSignResult.class));
+            }
+        }
+        return results;
+    }
+
+    private static SignRequest item(String name) {
+        return new SignRequest("rsa-key", "RSA", Base64.getEncoder().encodeToString(name.getBytes()), name);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.pkcs11.merkle;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.dto.MerkleProofStep;
+import com.example.pkcs11.dto.MerkleSignResponse;
+import com.example.pkcs11.exception.KeyNotFoundException;
+import com.example.pkcs11.service.SigningMetrics;
+import com.example.pkcs11.service.SigningService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MerkleBatcherTest {
+
+    private KeyPair keyPair;
+
+    private SigningService signingService;
+
+    private Pkcs11Properties properties;
+
+    private MerkleBatcher batcher;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        keyPair = generator.generateKeyPair();
+
+        properties = new Pkcs11Properties();
+        properties.getMerkle().setMaxBatchSize(4);
+        properties.getMerkle().setMaxWait(Duration.ofMillis(50));
+        signingService = Mockito.mock(SigningService.class);
+        // The root is signed like any SHA-256 digest
+        when(signingService.signBytes(eq("ecc-key"), eq("EC"), any(), eq("SHA-256"), anyString()))
+                .thenAnswer(invocation -> {
+                    Signature signer = Signature.getInstance("NONEwithECDSA");
+                    signer.initSign(keyPair.getPrivate());
+                    signer.update((byte[]) invocation.getArgument(2));
+                    return signer.sign();
+                });
+
+        batcher = new MerkleBatcher();
+        ReflectionTestUtils.setField(batcher, "signingService", signingService);
+        ReflectionTestUtils.setField(batcher, "signingMetrics", Mockito.mock(SigningMetrics.class));
+        ReflectionTestUtils.setField(batcher, "pkcs11Properties", properties);
+        batcher.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        batcher.shutdown();
+    }
+
+    @Test
+    void testDocumentsShareOneRootSignaturePerBatch() throws Exception {
+        List<byte[]> digests = new ArrayList<>();
+        List<CompletableFuture<MerkleSignResponse>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            byte[] digest = MerkleBatcher.documentDigest(("document-" + i).getBytes(StandardCharsets.UTF_8), null);
+            digests.add(digest);
+            results.add(batcher.submit("ecc-key", "EC", digest));
+        }
+
+        // Two full batches of four are signed at once, the last two when the window closes
+        verify(signingService, Mockito.timeout(5000).times(3))
+                .signBytes(eq("ecc-key"), eq("EC"), any(), eq("SHA-256"), anyString());
+        for (int i = 0; i < 10; i++) {
+            MerkleSignResponse response = results.get(i).get();
+            assertEquals(i % 4, response.getLeafIndex());
+            assertEquals(i < 8 ? 4 : 2, response.getTreeSize());
+
+            byte[] root = Base64.getDecoder().decode(response.getRoot());
+            assertTrue(MerkleTree.verifyProof(MerkleTree.leafHash(digests.get(i)), toSteps(response.getProof()), root));
+            Signature verifier = Signature.getInstance("NONEwithECDSA");
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(root);
+            assertTrue(verifier.verify(Base64.getDecoder().decode(response.getSignature())));
+        }
+        assertEquals(3L, batcher.getStatistics().get("batches"));
+        assertEquals(10L, batcher.getStatistics().get("documents"));
+    }
+
+    @Test
+    void testBatchFailureIsReportedToEveryCaller() {
+        when(signingService.signBytes(eq("missing"), anyString(), any(), anyString(), anyString()))
+                .thenThrow(new KeyNotFoundException("Private key not found for label: missing"));
+        byte[] data = "document".getBytes(StandardCharsets.UTF_8);
+
+        CompletableFuture<MerkleSignResponse> first = batcher.submit("missing", "EC",
+                MerkleBatcher.documentDigest(data, null));
+        assertThrows(KeyNotFoundException.class, () -> batcher.sign("missing", "EC", data, null));
+        assertTrue(first.isCompletedExceptionally());
+        verify(signingService, times(1)).signBytes(eq("missing"), anyString(), any(), anyString(), anyString());
+    }
+
+    @Test
+    void testDocumentDigestIsValidated() {
+        assertThrows(IllegalArgumentException.class,
+                () -> MerkleBatcher.documentDigest(new byte[12], "SHA-256"));
+    }
+
+    private static List<MerkleTree.Step> toSteps(List<MerkleProofStep> proof) {
+        List<MerkleTree.Step> steps = new ArrayList<>();
+        for (MerkleProofStep step : proof) {
+            steps.add(new MerkleTree.Step(Base64.getDecoder().decode(step.getHash()),
+                    MerkleProofStep.LEFT.equals(step.getSide())));
+        }
+        return steps;
+    }
+}
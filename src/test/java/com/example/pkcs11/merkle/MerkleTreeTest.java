@@ -0,0 +1,76 @@
+package com.example.pkcs11.merkle;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MerkleTreeTest {
+
+    @Test
+    void testEveryLeafProvesInclusionForAnyTreeSize() {
+        for (int size = 1; size <= 17; size++) {
+            List<byte[]> leaves = leaves(size);
+            MerkleTree tree = MerkleTree.build(leaves);
+
+            assertEquals(size, tree.size());
+            for (int index = 0; index < size; index++) {
+                assertTrue(MerkleTree.verifyProof(leaves.get(index), tree.proof(index), tree.getRoot()),
+                        "leaf " + index + " of " + size);
+            }
+        }
+    }
+
+    @Test
+    void testSingleLeafIsItsOwnRoot() {
+        List<byte[]> leaves = leaves(1);
+        MerkleTree tree = MerkleTree.build(leaves);
+
+        assertArrayEquals(leaves.get(0), tree.getRoot());
+        assertTrue(tree.proof(0).isEmpty());
+    }
+
+    @Test
+    void testRootOfTwoLeavesHashesThemInOrder() {
+        List<byte[]> leaves = leaves(2);
+
+        assertArrayEquals(MerkleTree.nodeHash(leaves.get(0), leaves.get(1)), MerkleTree.build(leaves).getRoot());
+    }
+
+    @Test
+    void testProofDoesNotVerifyAnotherLeafOrPosition() {
+        List<byte[]> leaves = leaves(8);
+        MerkleTree tree = MerkleTree.build(leaves);
+
+        assertFalse(MerkleTree.verifyProof(leaves.get(3), tree.proof(4), tree.getRoot()));
+        List<MerkleTree.Step> swapped = new ArrayList<>();
+        for (MerkleTree.Step step : tree.proof(4)) {
+            swapped.add(new MerkleTree.Step(step.getHash(), !step.isLeft()));
+        }
+        assertFalse(MerkleTree.verifyProof(leaves.get(4), swapped, tree.getRoot()));
+    }
+
+    @Test
+    void testLeafCannotPassAsInteriorNode() {
+        List<byte[]> leaves = leaves(2);
+        byte[] root = MerkleTree.build(leaves).getRoot();
+
+        // The concatenated children hashed as a leaf must not reproduce the root
+        byte[] concatenated = new byte[64];
+        System.arraycopy(leaves.get(0), 0, concatenated, 0, 32);
+        System.arraycopy(leaves.get(1), 0, concatenated, 32, 32);
+        assertFalse(MerkleTree.verifyProof(MerkleTree.leafHash(concatenated), Collections.emptyList(), root));
+    }
+
+    private static List<byte[]> leaves(int count) {
+        List<byte[]> leaves = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            leaves.add(MerkleTree.leafHash(("document-" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        return leaves;
+    }
+}
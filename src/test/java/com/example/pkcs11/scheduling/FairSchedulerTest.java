@@ -0,0 +1,189 @@
+package com.example.pkcs11.scheduling;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.OverloadedException;
+import com.example.pkcs11.service.SigningMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class FairSchedulerTest {
+
+    private Pkcs11Properties properties;
+
+    private SigningMetrics signingMetrics;
+
+    private FairScheduler scheduler;
+
+    private ExecutorService clients;
+
+    @BeforeEach
+    void setUp() {
+        properties = new Pkcs11Properties();
+        properties.getScheduling().setEnabled(true);
+        properties.getScheduling().setPermits(1);
+        properties.getScheduling().setInteractiveReserved(0);
+        properties.getScheduling().getTenants().put("payments", tenant(4, Lane.INTERACTIVE));
+        properties.getScheduling().getTenants().put("reports", tenant(1, Lane.BULK));
+        signingMetrics = mock(SigningMetrics.class);
+
+        scheduler = new FairScheduler();
+        ReflectionTestUtils.setField(scheduler, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(scheduler, "signingMetrics", signingMetrics);
+        clients = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        clients.shutdownNow();
+    }
+
+    @Test
+    void testDisabledSchedulerAdmitsEverything() {
+        properties.getScheduling().setEnabled(false);
+
+        try (FairScheduler.Permit first = scheduler.acquire(null, "payments", null);
+             FairScheduler.Permit second = scheduler.acquire(null, "payments", null)) {
+            assertSame(FairScheduler.Permit.NONE, first);
+            assertSame(FairScheduler.Permit.NONE, second);
+        }
+    }
+
+    @Test
+    void testTenantComesFromTheCallerOrTheRequestName() {
+        try (FairScheduler.Permit permit = scheduler.acquire(TenantContext.fromHeaders("reports", null), "payments", null)) {
+            assertEquals("reports", permit.getTenant());
+            assertEquals(Lane.BULK, permit.getLane());
+        }
+        try (FairScheduler.Permit permit = scheduler.acquire(TenantContext.fromHeaders(null, "bulk"), "payments", null)) {
+            assertEquals("payments", permit.getTenant());
+            assertEquals(Lane.BULK, permit.getLane());
+        }
+        try (FairScheduler.Permit permit = scheduler.acquire(TenantContext.fromHeaders("unknown", null), "x", null)) {
+            assertEquals(FairScheduler.DEFAULT_TENANT, permit.getTenant());
+        }
+    }
+
+    @Test
+    void testInteractiveRequestsOvertakeQueuedBulkRequests() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        FairScheduler.Permit holder = scheduler.acquire(null, "reports", null);
+
+        Future<?> bulk = clients.submit(() -> run("reports", Lane.BULK, order));
+        awaitQueued(1);
+        Future<?> interactive = clients.submit(() -> run("payments", Lane.INTERACTIVE, order));
+        awaitQueued(2);
+        holder.close();
+
+        bulk.get(5, TimeUnit.SECONDS);
+        interactive.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("payments", "reports"), order);
+    }
+
+    @Test
+    void testBulkRequestsCannotTakeTheReservedPermits() throws Exception {
+        properties.getScheduling().setPermits(2);
+        properties.getScheduling().setInteractiveReserved(1);
+        properties.getScheduling().setQueueTimeout(Duration.ofMillis(100));
+
+        try (FairScheduler.Permit bulk = scheduler.acquire(null, "reports", Lane.BULK)) {
+            assertThrows(OverloadedException.class, () -> scheduler.acquire(null, "reports", Lane.BULK));
+            try (FairScheduler.Permit interactive = scheduler.acquire(null, "payments", Lane.INTERACTIVE)) {
+                assertEquals(Lane.INTERACTIVE, interactive.getLane());
+            }
+        }
+        verify(signingMetrics).recordTenantRejected("reports", "timeout");
+    }
+
+    @Test
+    void testTenantsShareTheTokensByWeight() throws Exception {
+        properties.getScheduling().getTenants().put("reports", tenant(1, Lane.INTERACTIVE));
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        FairScheduler.Permit holder = scheduler.acquire(null, FairScheduler.DEFAULT_TENANT, null);
+
+        // The light tenant queued first, yet the tenant with four times the weight gets four turns to its one
+        List<Future<?>> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            requests.add(clients.submit(() -> run("reports", null, order)));
+            awaitQueued(requests.size());
+        }
+        for (int i = 0; i < 4; i++) {
+            requests.add(clients.submit(() -> run("payments", null, order)));
+            awaitQueued(requests.size());
+        }
+        holder.close();
+        for (Future<?> request : requests) {
+            request.get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(List.of("payments", "payments", "payments", "reports", "payments", "reports", "reports", "reports"),
+                order);
+    }
+
+    @Test
+    void testRequestsOverTheQuotaAreRejected() {
+        Pkcs11Properties.Tenant payments = properties.getScheduling().getTenants().get("payments");
+        payments.setRate(1);
+        payments.setBurst(2);
+        properties.getScheduling().setPermits(10);
+
+        scheduler.acquire(null, "payments", null).close();
+        scheduler.acquire(null, "payments", null).close();
+        OverloadedException e = assertThrows(OverloadedException.class,
+                () -> scheduler.acquire(null, "payments", null));
+
+        assertTrue(e.getRetryAfter().compareTo(Duration.ZERO) > 0);
+        verify(signingMetrics).recordTenantRejected("payments", "quota");
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Number>> tenants =
+                (Map<String, Map<String, Number>>) scheduler.getStatistics().get("tenants");
+        assertEquals(1L, tenants.get("payments").get("throttled"));
+        assertEquals(2L, tenants.get("payments").get("admitted"));
+    }
+
+    @Test
+    void testQueueIsBounded() {
+        properties.getScheduling().setMaxQueue(0);
+
+        try (FairScheduler.Permit holder = scheduler.acquire(null, "payments", null)) {
+            assertThrows(OverloadedException.class, () -> scheduler.acquire(null, "payments", null));
+        }
+        verify(signingMetrics).recordTenantRejected("payments", "queue");
+    }
+
+    private void run(String name, Lane lane, List<String> order) {
+        try (FairScheduler.Permit permit = scheduler.acquire(null, name, lane)) {
+            order.add(permit.getTenant());
+        }
+    }
+
+    private void awaitQueued(int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Integer.valueOf(queued).equals(scheduler.getStatistics().get("queued"))) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for queued requests");
+            Thread.sleep(5);
+        }
+    }
+
+    private static Pkcs11Properties.Tenant tenant(double weight, Lane lane) {
+        Pkcs11Properties.Tenant tenant = new Pkcs11Properties.Tenant();
+        tenant.setWeight(weight);
+        tenant.setLane(lane);
+        return tenant;
+    }
+}
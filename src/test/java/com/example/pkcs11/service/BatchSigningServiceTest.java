@@ -0,0 +1,129 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.audit.AuditJournal;
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.dto.BatchSignResponse;
+import com.example.pkcs11.dto.SignRequest;
+import com.example.pkcs11.exception.KeyNotFoundException;
+import com.example.pkcs11.scheduling.FairScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.PrivateKey;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BatchSigningServiceTest {
+
+    @Mock
+    private SigningService signingService;
+
+    @Mock
+    private Pkcs11ProviderService pkcs11ProviderService;
+
+    @Mock
+    private SigningMetrics signingMetrics;
+
+    @Mock
+    private AuditJournal auditJournal;
+
+    @Mock
+    private FairScheduler fairScheduler;
+
+    @Mock
+    private PrivateKey rsaPrivateKey;
+
+    private TokenKey rsaKey;
+
+    @InjectMocks
+    private BatchSigningService batchSigningService;
+
+    private Pkcs11Properties pkcs11Properties;
+
+    private ExecutorService batchSigningExecutor;
+
+    private String validBase64Data;
+
+    @BeforeEach
+    void setUp() {
+        pkcs11Properties = new Pkcs11Properties();
+        batchSigningExecutor = Executors.newFixedThreadPool(4);
+        ReflectionTestUtils.setField(batchSigningService, "pkcs11Properties", pkcs11Properties);
+        ReflectionTestUtils.setField(batchSigningService, "batchSigningExecutor", batchSigningExecutor);
+        rsaKey = new TokenKey(new Pkcs11Token("token-0", null, "1234", 3, Duration.ofSeconds(30)),
+                "rsa-key", rsaPrivateKey);
+        validBase64Data = Base64.getEncoder().encodeToString("Hello, World!".getBytes());
+    }
+
+    @AfterEach
+    void tearDown() {
+        batchSigningExecutor.shutdownNow();
+    }
+
+    @Test
+    void testSignBatch_ResolvesEachKeyOnceAndKeepsOrder() {
+        when(pkcs11ProviderService.resolveKey("rsa-key")).thenReturn(List.of(rsaKey));
+        when(signingService.sign(eq(rsaKey), eq("RSA"), isNull(), any()))
+                .thenReturn(new byte[]{1, 2, 3});
+
+        BatchSignResponse response = batchSigningService.signBatch(Arrays.asList(
+                new SignRequest("rsa-key", "RSA", validBase64Data, "first"),
+                new SignRequest("rsa-key", "RSA", validBase64Data, "second"),
+                new SignRequest("rsa-key", "RSA", validBase64Data, "third")));
+
+        verify(pkcs11ProviderService, times(1)).resolveKey("rsa-key");
+        assertEquals(3, response.getSucceeded());
+        assertEquals(0, response.getFailed());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, response.getResults().get(i).getIndex());
+            assertEquals("AQID", response.getResults().get(i).getSignature());
+        }
+    }
+
+    @Test
+    void testSignBatch_PartialFailuresAreReportedPerItem() {
+        when(pkcs11ProviderService.resolveKey("rsa-key")).thenReturn(List.of(rsaKey));
+        when(pkcs11ProviderService.resolveKey("missing-key"))
+                .thenThrow(new KeyNotFoundException("Private key not found for label: missing-key"));
+        when(signingService.sign(eq(rsaKey), eq("RSA"), isNull(), any()))
+                .thenReturn(new byte[]{1, 2, 3});
+
+        BatchSignResponse response = batchSigningService.signBatch(Arrays.asList(
+                new SignRequest("missing-key", "RSA", validBase64Data, ""),
+                new SignRequest("rsa-key", "RSA", validBase64Data, ""),
+                new SignRequest("rsa-key", "RSA", "invalid-base64!", "")));
+
+        assertEquals(1, response.getSucceeded());
+        assertEquals(2, response.getFailed());
+        assertEquals("Key not found", response.getResults().get(0).getError());
+        assertNotNull(response.getResults().get(1).getSignature());
+        assertEquals("Invalid request", response.getResults().get(2).getError());
+    }
+
+    @Test
+    void testSignBatch_TooManyItems() {
+        pkcs11Properties.getBatch().setMaxItems(1);
+
+        assertThrows(IllegalArgumentException.class, () -> batchSigningService.signBatch(Collections.nCopies(2,
+                new SignRequest("rsa-key", "RSA", validBase64Data, ""))));
+        verifyNoInteractions(pkcs11ProviderService);
+    }
+}
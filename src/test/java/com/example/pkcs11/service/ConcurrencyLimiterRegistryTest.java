@@ -0,0 +1,51 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.OverloadedException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrencyLimiterRegistryTest {
+
+    private Pkcs11Properties properties;
+
+    private ConcurrencyLimiterRegistry registry;
+
+    private Pkcs11Token token;
+
+    @BeforeEach
+    void setUp() {
+        properties = new Pkcs11Properties();
+        properties.getConcurrencyLimit().setEnabled(true);
+        properties.getConcurrencyLimit().setInitialLimit(1);
+        properties.getConcurrencyLimit().setMinLimit(1);
+        registry = new ConcurrencyLimiterRegistry();
+        ReflectionTestUtils.setField(registry, "pkcs11Properties", properties);
+        token = new Pkcs11Token("token-0", null, "1234", 3, Duration.ofSeconds(30));
+    }
+
+    @Test
+    void testSpellingsOfOneKeyShareItsLimit() {
+        assertNotNull(registry.acquire(new TokenKey(token, "rsa-2048", "rsa-2048", null)));
+
+        assertThrows(OverloadedException.class,
+                () -> registry.acquire(new TokenKey(token, "RSA-2048", "rsa-2048", null)));
+        assertEquals(1, registry.getStatistics().size());
+        assertEquals(1, registry.getStatistics().get("token-0/rsa-2048").get("rejected").intValue());
+    }
+
+    @Test
+    void testOverridesGoByAlias() {
+        Pkcs11Properties.KeyLimit off = new Pkcs11Properties.KeyLimit();
+        off.setEnabled(false);
+        properties.getConcurrencyLimit().getKeys().put("rsa-2048", off);
+
+        assertNull(registry.acquire(new TokenKey(token, "RSA-2048", "rsa-2048", null)));
+        assertTrue(registry.getStatistics().isEmpty());
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.pkcs11.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DigestAlgorithmTest {
+
+    private static final byte[] DOCUMENT = "Hello, World!".getBytes(StandardCharsets.UTF_8);
+
+    @ParameterizedTest
+    @EnumSource(DigestAlgorithm.class)
+    void testRawRsaOverDigestInfoMatchesHashingAlgorithm(DigestAlgorithm digestAlgorithm) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        byte[] digest = MessageDigest.getInstance(digestAlgorithm.getJcaName()).digest(DOCUMENT);
+
+        Signature raw = Signature.getInstance("NONEwithRSA");
+        raw.initSign(keyPair.getPrivate());
+        raw.update(digestAlgorithm.toDigestInfo(digest));
+
+        Signature hashing = Signature.getInstance(digestAlgorithm.name() + "withRSA");
+        hashing.initSign(keyPair.getPrivate());
+        hashing.update(DOCUMENT);
+
+        // PKCS#1 v1.5 signatures are deterministic, so both paths must agree byte for byte
+        assertArrayEquals(hashing.sign(), raw.sign());
+    }
+
+    @Test
+    void testRawEcdsaOverDigestVerifiesWithHashingAlgorithm() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        KeyPair keyPair = generator.generateKeyPair();
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(DOCUMENT);
+
+        Signature raw = Signature.getInstance("NONEwithECDSA");
+        raw.initSign(keyPair.getPrivate());
+        raw.update(digest);
+        byte[] signature = raw.sign();
+
+        Signature verifier = Signature.getInstance("SHA256withECDSA");
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(DOCUMENT);
+        assertTrue(verifier.verify(signature));
+    }
+
+    @Test
+    void testValidateDigest_LengthMismatch() {
+        IllegalArgumentException exception = assertThrows(
+                IllegalArgumentException.class,
+                () -> DigestAlgorithm.SHA384.validateDigest(new byte[32])
+        );
+        assertTrue(exception.getMessage().contains("Expected: 48 bytes, Found: 32 bytes"));
+    }
+
+    @Test
+    void testFromName() {
+        assertEquals(DigestAlgorithm.SHA256, DigestAlgorithm.fromName("SHA-256"));
+        assertEquals(DigestAlgorithm.SHA512, DigestAlgorithm.fromName("sha512"));
+        assertThrows(IllegalArgumentException.class, () -> DigestAlgorithm.fromName("MD5"));
+    }
+}
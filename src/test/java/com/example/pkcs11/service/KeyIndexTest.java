@@ -0,0 +1,108 @@
+package com.example.pkcs11.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class KeyIndexTest {
+
+    private PrivateKey rsaKey;
+    private PrivateKey rsaBackupKey;
+    private PrivateKey ecKey;
+    private PublicKey ecPublicKey;
+    private X509Certificate ecCertificate;
+    private KeyIndex keyIndex;
+
+    @BeforeEach
+    void setUp() {
+        rsaKey = mock(PrivateKey.class);
+        rsaBackupKey = mock(PrivateKey.class);
+        ecKey = mock(PrivateKey.class);
+
+        ecPublicKey = mock(PublicKey.class);
+        ecCertificate = mock(X509Certificate.class);
+        when(ecCertificate.getPublicKey()).thenReturn(ecPublicKey);
+        when(ecCertificate.getSubjectX500Principal())
+                .thenReturn(new X500Principal("CN=Signing EC Key, O=Example"));
+
+        keyIndex = KeyIndex.of(Arrays.asList(
+                new KeyIndex.Entry("rsa-2048-backup", rsaBackupKey, null),
+                new KeyIndex.Entry("rsa-2048", rsaKey, null),
+                new KeyIndex.Entry("ec-p256", ecKey, new Certificate[]{ecCertificate})));
+    }
+
+    @Test
+    void testExactAliasWinsOverSubstringMatch() {
+        // The old scan returned whichever alias containing the label came first
+        assertSame(rsaKey, keyIndex.find("rsa-2048").getPrivateKey());
+        assertSame(rsaBackupKey, keyIndex.find("rsa-2048-backup").getPrivateKey());
+    }
+
+    @Test
+    void testCaseInsensitiveAlias() {
+        assertSame(rsaKey, keyIndex.find("RSA-2048").getPrivateKey());
+    }
+
+    @Test
+    void testCertificateSubjectAndCommonName() {
+        assertSame(ecKey, keyIndex.find("CN=Signing EC Key,O=Example").getPrivateKey());
+        assertSame(ecKey, keyIndex.find("signing ec key").getPrivateKey());
+    }
+
+    @Test
+    void testSubstringFallback() {
+        assertSame(ecKey, keyIndex.find("p256").getPrivateKey());
+    }
+
+    @Test
+    void testPublicKeyIsExtractedOnce() {
+        assertSame(ecPublicKey, keyIndex.find("ec-p256").getPublicKey());
+        assertSame(ecPublicKey, keyIndex.find("ec-p256").getPublicKey());
+        assertNull(keyIndex.find("rsa-2048").getPublicKey());
+        verify(ecCertificate, times(1)).getPublicKey();
+    }
+
+    @Test
+    void testResolvedLabelsAreCappedButStillFound() {
+        String first = "signing ec key ";
+        for (int i = 0; i <= KeyIndex.MAX_RESOLVED; i++) {
+            assertSame(ecKey, keyIndex.find(first + " ".repeat(i)).getPrivateKey());
+        }
+        String beyondCap = first + " ".repeat(KeyIndex.MAX_RESOLVED);
+
+        assertSame(ecKey, keyIndex.findCached(first).getPrivateKey());
+        assertNull(keyIndex.findCached(beyondCap));
+        assertSame(ecKey, keyIndex.find(beyondCap).getPrivateKey());
+    }
+
+    @Test
+    void testUnknownLabel() {
+        assertNull(keyIndex.find("unknown-key"));
+    }
+
+    @Test
+    void testHasSameAliases() {
+        KeyIndex same = KeyIndex.of(Arrays.asList(
+                new KeyIndex.Entry("ec-p256", ecKey, null),
+                new KeyIndex.Entry("rsa-2048", rsaKey, null),
+                new KeyIndex.Entry("rsa-2048-backup", rsaBackupKey, null)));
+        KeyIndex changed = KeyIndex.of(Collections.singletonList(new KeyIndex.Entry("rsa-2048", rsaKey, null)));
+
+        assertTrue(keyIndex.hasSameAliases(same));
+        assertFalse(keyIndex.hasSameAliases(changed));
+        assertFalse(keyIndex.hasSameAliases(null));
+    }
+}
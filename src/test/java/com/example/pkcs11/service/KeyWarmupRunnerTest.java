@@ -0,0 +1,105 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.SigningException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.PrivateKey;
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class KeyWarmupRunnerTest {
+
+    @Mock
+    private Pkcs11ProviderService pkcs11ProviderService;
+
+    @Mock
+    private SigningService signingService;
+
+    @Mock
+    private PrivateKey rsaPrivateKey;
+
+    @InjectMocks
+    private KeyWarmupRunner keyWarmupRunner;
+
+    private Pkcs11Properties pkcs11Properties;
+
+    @BeforeEach
+    void setUp() {
+        pkcs11Properties = new Pkcs11Properties();
+        ReflectionTestUtils.setField(keyWarmupRunner, "pkcs11Properties", pkcs11Properties);
+    }
+
+    @Test
+    void testRun_WarmsUpEachPreloadedKey() {
+        pkcs11Properties.getWarmup().setIterations(3);
+        when(rsaPrivateKey.getAlgorithm()).thenReturn("RSA");
+        TokenKey rsaKey = new TokenKey(new Pkcs11Token("token-0", null, "1234", 3, Duration.ofSeconds(30)),
+                "rsa-key", rsaPrivateKey);
+        when(pkcs11ProviderService.preloadKeys(any())).thenReturn(List.of(rsaKey));
+
+        keyWarmupRunner.run(null);
+
+        verify(signingService, times(3)).signWithKey(eq(rsaKey), eq("RSA"), any());
+        verify(signingService, times(3)).signDigestWithKey(eq(rsaKey), eq("RSA"), eq(DigestAlgorithm.SHA256), any());
+    }
+
+    @Test
+    void testRun_FailingKeyDoesNotSkipTheKeysAfterIt() {
+        pkcs11Properties.getWarmup().setIterations(1);
+        when(rsaPrivateKey.getAlgorithm()).thenReturn("RSA");
+        Pkcs11Token token = new Pkcs11Token("token-0", null, "1234", 3, Duration.ofSeconds(30));
+        TokenKey failing = new TokenKey(token, "failing-key", rsaPrivateKey);
+        TokenKey healthy = new TokenKey(token, "rsa-key", rsaPrivateKey);
+        when(pkcs11ProviderService.preloadKeys(any())).thenReturn(List.of(failing, healthy));
+        when(signingService.signWithKey(eq(failing), any(), any())).thenThrow(new SigningException("Token error"));
+
+        keyWarmupRunner.run(null);
+
+        verify(signingService).signWithKey(eq(healthy), eq("RSA"), any());
+        verify(signingService).signDigestWithKey(eq(healthy), eq("RSA"), eq(DigestAlgorithm.SHA256), any());
+    }
+
+    @Test
+    void testRun_UnsupportedKeyTypeIsSkipped() {
+        when(rsaPrivateKey.getAlgorithm()).thenReturn("DSA");
+        TokenKey dsaKey = new TokenKey(new Pkcs11Token("token-0", null, "1234", 3, Duration.ofSeconds(30)),
+                "dsa-key", rsaPrivateKey);
+        when(pkcs11ProviderService.preloadKeys(any())).thenReturn(List.of(dsaKey));
+
+        keyWarmupRunner.run(null);
+
+        verifyNoInteractions(signingService);
+    }
+
+    @Test
+    void testRun_Disabled() {
+        pkcs11Properties.getWarmup().setEnabled(false);
+
+        keyWarmupRunner.run(null);
+
+        verifyNoInteractions(pkcs11ProviderService, signingService);
+    }
+
+    @Test
+    void testRun_FailureDoesNotPreventStartup() {
+        pkcs11Properties.getWarmup().setKeyLabels(List.of("missing-key"));
+        when(pkcs11ProviderService.preloadKeys(List.of("missing-key")))
+                .thenThrow(new RuntimeException("Private key not found for label: missing-key"));
+
+        keyWarmupRunner.run(null);
+
+        verifyNoInteractions(signingService);
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.IdempotencyConflictException;
+import com.example.pkcs11.exception.SigningException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class SignatureCacheTest {
+
+    private Pkcs11Properties properties;
+
+    private SigningMetrics signingMetrics;
+
+    private SignatureCache cache;
+
+    private ExecutorService clients;
+
+    private final AtomicInteger signed = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        properties = new Pkcs11Properties();
+        properties.getSignatureCache().setEnabled(true);
+        signingMetrics = mock(SigningMetrics.class);
+
+        cache = new SignatureCache();
+        ReflectionTestUtils.setField(cache, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(cache, "signingMetrics", signingMetrics);
+        clients = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        clients.shutdownNow();
+    }
+
+    @Test
+    void testRepeatedRequestIsServedFromTheCache() {
+        SignatureCache.Lookup first = sign("rsa-key", "document", null);
+        SignatureCache.Lookup second = sign("rsa-key", "document", null);
+        SignatureCache.Lookup otherKey = sign("other-key", "document", null);
+
+        assertFalse(first.isCached());
+        assertTrue(second.isCached());
+        assertArrayEquals(first.getSignature(), second.getSignature());
+        assertFalse(otherKey.isCached());
+        assertEquals(2, signed.get());
+        assertEquals(1L, cache.getStatistics().get("hits"));
+        assertEquals(1.0 / 3, (double) cache.getStatistics().get("hitRate"), 1e-9);
+        verify(signingMetrics).recordSignatureCache(SigningMetrics.CACHE_HIT);
+    }
+
+    @Test
+    void testSignaturesExpireAfterTheKeysTtl() throws Exception {
+        Pkcs11Properties.KeyCache shortLived = new Pkcs11Properties.KeyCache();
+        shortLived.setTtl(Duration.ofMillis(1));
+        properties.getSignatureCache().getKeys().put("rsa-key", shortLived);
+
+        sign("rsa-key", "document", null);
+        Thread.sleep(5);
+
+        assertFalse(sign("rsa-key", "document", null).isCached());
+        assertEquals(2, signed.get());
+        assertEquals(1L, cache.getStatistics().get("expirations"));
+    }
+
+    @Test
+    void testLeastRecentlyUsedSignatureIsEvicted() {
+        properties.getSignatureCache().setMaxEntries(2);
+
+        sign("rsa-key", "a", null);
+        sign("rsa-key", "b", null);
+        sign("rsa-key", "a", null);
+        sign("rsa-key", "c", null);
+
+        assertTrue(sign("rsa-key", "a", null).isCached());
+        assertFalse(sign("rsa-key", "b", null).isCached());
+        assertEquals(2, cache.getStatistics().get("size"));
+        assertEquals(2L, cache.getStatistics().get("evictions"));
+    }
+
+    @Test
+    void testCachingCanBeTurnedOnOrOffPerKey() {
+        Pkcs11Properties.KeyCache off = new Pkcs11Properties.KeyCache();
+        off.setEnabled(false);
+        properties.getSignatureCache().getKeys().put("ec-key", off);
+
+        assertTrue(cache.isEnabled("rsa-key"));
+        assertFalse(cache.isEnabled("ec-key"));
+
+        properties.getSignatureCache().setEnabled(false);
+        Pkcs11Properties.KeyCache on = new Pkcs11Properties.KeyCache();
+        on.setEnabled(true);
+        properties.getSignatureCache().getKeys().put("rsa-key", on);
+        assertTrue(cache.isEnabled("rsa-key"));
+        assertFalse(cache.isEnabled("other-key"));
+    }
+
+    @Test
+    void testIdempotencyKeyReturnsTheFirstSignatureAndRefusesDifferentData() {
+        SignatureCache.Lookup first = sign("rsa-key", "document", "order-42");
+        SignatureCache.Lookup retry = sign("rsa-key", "document", "order-42");
+
+        assertTrue(retry.isCached());
+        assertArrayEquals(first.getSignature(), retry.getSignature());
+        assertThrows(IdempotencyConflictException.class, () -> sign("rsa-key", "other document", "order-42"));
+        assertEquals(1, signed.get());
+    }
+
+    @Test
+    void testConcurrentIdenticalRequestsReachTheTokenOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<SignatureCache.Lookup> leader = clients.submit(() -> cache.sign("rsa-key", "RSA", null,
+                bytes("document"), null, () -> {
+                    await(release);
+                    return signature("document");
+                }));
+        awaitInFlight();
+
+        List<Future<SignatureCache.Lookup>> followers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            followers.add(clients.submit(() -> sign("rsa-key", "document", null)));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((long) cache.getStatistics().get("coalesced") < 4) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for coalesced requests");
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        assertFalse(leader.get(5, TimeUnit.SECONDS).isCached());
+        for (Future<SignatureCache.Lookup> follower : followers) {
+            SignatureCache.Lookup lookup = follower.get(5, TimeUnit.SECONDS);
+            assertTrue(lookup.isCached());
+            assertArrayEquals(signature("document"), lookup.getSignature());
+        }
+        assertEquals(0, signed.get());
+        verify(signingMetrics, atLeastOnce()).recordSignatureCache(SigningMetrics.CACHE_COALESCED);
+    }
+
+    @Test
+    void testClearDropsSignaturesIncludingOneBeingMade() {
+        sign("rsa-key", "document", null);
+        SignatureCache.Lookup signedAcrossClear = cache.sign("rsa-key", "RSA", null, bytes("other"), null, () -> {
+            // The key is replaced while this request is on the token
+            cache.clear();
+            return signature("other");
+        });
+
+        assertFalse(signedAcrossClear.isCached());
+        assertEquals(0, cache.getStatistics().get("size"));
+        assertFalse(sign("rsa-key", "document", null).isCached());
+        assertFalse(sign("rsa-key", "other", null).isCached());
+    }
+
+    @Test
+    void testFailuresAreNotCached() {
+        assertThrows(SigningException.class, () -> cache.sign("rsa-key", "RSA", null, bytes("document"), null, () -> {
+            throw new SigningException("Token failed");
+        }));
+
+        assertFalse(sign("rsa-key", "document", null).isCached());
+        assertEquals(1, signed.get());
+    }
+
+    private SignatureCache.Lookup sign(String keyLabel, String data, String idempotencyKey) {
+        return cache.sign(keyLabel, "RSA", null, bytes(data), idempotencyKey, () -> {
+            signed.incrementAndGet();
+            return signature(data);
+        });
+    }
+
+    private void awaitInFlight() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((long) cache.getStatistics().get("misses") < 1) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for the first request");
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] bytes(String data) {
+        return data.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] signature(String data) {
+        return ("signature of " + data).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.Signature;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignatureEnginePoolTest {
+
+    private static final String ALGORITHM = "SHA256withRSA";
+
+    private static KeyPair keyPair;
+
+    private Pkcs11Properties properties;
+
+    private SignatureEnginePool pool;
+
+    private TokenKey rsaKey;
+
+    @BeforeAll
+    static void generateKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+    }
+
+    @BeforeEach
+    void setUp() {
+        properties = new Pkcs11Properties();
+        pool = new SignatureEnginePool();
+        ReflectionTestUtils.setField(pool, "pkcs11Properties", properties);
+        rsaKey = new TokenKey(softwareToken(), "rsa-key", keyPair.getPrivate());
+    }
+
+    @Test
+    void testReleasedEngineIsReusedAndStillSignsCorrectly() throws Exception {
+        byte[] data = "Hello, World!".getBytes(StandardCharsets.UTF_8);
+
+        SignatureEnginePool.Lease first = pool.acquire(rsaKey, ALGORITHM);
+        first.getSignature().update(data);
+        byte[] firstSignature = first.getSignature().sign();
+        pool.release(first);
+
+        SignatureEnginePool.Lease second = pool.acquire(rsaKey, ALGORITHM);
+        assertSame(first.getSignature(), second.getSignature());
+        second.getSignature().update(data);
+        byte[] secondSignature = second.getSignature().sign();
+
+        assertArrayEquals(firstSignature, secondSignature);
+        Signature verifier = Signature.getInstance(ALGORITHM);
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(data);
+        assertTrue(verifier.verify(secondSignature));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    void testInvalidateAllDropsIdleAndCheckedOutEngines() throws Exception {
+        SignatureEnginePool.Lease idle = pool.acquire(rsaKey, ALGORITHM);
+        SignatureEnginePool.Lease checkedOut = pool.acquire(rsaKey, ALGORITHM);
+        pool.release(idle);
+
+        pool.invalidateAll();
+        pool.release(checkedOut);
+
+        assertEquals(0, pool.getIdleCount());
+        pool.acquire(rsaKey, ALGORITHM);
+        assertEquals(0, pool.getHits());
+        assertEquals(3, pool.getMisses());
+    }
+
+    @Test
+    void testEngineForReplacedKeyHandleIsNotReused() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair replacement = generator.generateKeyPair();
+
+        pool.release(pool.acquire(rsaKey, ALGORITHM));
+        TokenKey reResolved = new TokenKey(rsaKey.getToken(), "rsa-key", replacement.getPrivate());
+        SignatureEnginePool.Lease lease = pool.acquire(reResolved, ALGORITHM);
+
+        assertNotNull(lease.getSignature());
+        assertEquals(0, pool.getHits());
+        assertEquals(1, pool.getDiscards());
+    }
+
+    @Test
+    void testIdleEnginesAreBoundedPerKey() throws Exception {
+        properties.getSignaturePool().setMaxIdlePerKey(1);
+
+        SignatureEnginePool.Lease first = pool.acquire(rsaKey, ALGORITHM);
+        SignatureEnginePool.Lease second = pool.acquire(rsaKey, ALGORITHM);
+        pool.release(first);
+        pool.release(second);
+
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, pool.getDiscards());
+    }
+
+    @Test
+    void testSpellingsOfOneKeyShareItsEngines() throws Exception {
+        TokenKey otherSpelling = new TokenKey(rsaKey.getToken(), "RSA-KEY", "rsa-key", keyPair.getPrivate());
+
+        pool.release(pool.acquire(rsaKey, ALGORITHM));
+        pool.release(pool.acquire(otherSpelling, ALGORITHM));
+
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    void testEnginesAreKeptPerToken() throws Exception {
+        TokenKey replica = new TokenKey(softwareToken(), "rsa-key", keyPair.getPrivate());
+
+        pool.release(pool.acquire(rsaKey, ALGORITHM));
+        pool.acquire(replica, ALGORITHM);
+
+        assertEquals(0, pool.getHits());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    private static Pkcs11Token softwareToken() {
+        // Software provider stands in for SunPKCS11
+        return new Pkcs11Token("token-" + System.nanoTime(), Security.getProvider("SunRsaSign"), "1234",
+                3, Duration.ofSeconds(30));
+    }
+}
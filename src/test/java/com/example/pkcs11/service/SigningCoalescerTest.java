@@ -0,0 +1,220 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.SigningException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+
+class SigningCoalescerTest {
+
+    private static final String ALGORITHM = "SHA256withRSA";
+
+    private Pkcs11Properties properties;
+
+    private SigningMetrics signingMetrics;
+
+    private SigningCoalescer coalescer;
+
+    private KeyPair keyPair;
+
+    private TokenKey rsaKey;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        properties = new Pkcs11Properties();
+        properties.getCoalescing().setEnabled(true);
+        properties.getCoalescing().setWindow(Duration.ofMillis(50));
+        properties.getCoalescing().setMaxBatchSize(8);
+
+        SignatureEnginePool pool = new SignatureEnginePool();
+        ReflectionTestUtils.setField(pool, "pkcs11Properties", properties);
+        signingMetrics = Mockito.mock(SigningMetrics.class);
+        coalescer = new SigningCoalescer();
+        ReflectionTestUtils.setField(coalescer, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(coalescer, "signatureEnginePool", pool);
+        ReflectionTestUtils.setField(coalescer, "signingMetrics", signingMetrics);
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        // Software provider stands in for SunPKCS11
+        rsaKey = new TokenKey(new Pkcs11Token("token-0", Security.getProvider("SunRsaSign"), "1234",
+                3, Duration.ofSeconds(30)), "rsa-key", keyPair.getPrivate());
+    }
+
+    @Test
+    void testConcurrentRequestsAreSignedInBatches() throws Exception {
+        int clientCount = 24;
+        ExecutorService clients = Executors.newFixedThreadPool(clientCount);
+        CyclicBarrier start = new CyclicBarrier(clientCount);
+        // Another spelling of the same key joins the same batches
+        TokenKey otherSpelling = new TokenKey(rsaKey.getToken(), "RSA-KEY", "rsa-key", rsaKey.getPrivateKey());
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < clientCount; i++) {
+                byte[] data = ("document-" + i).getBytes(StandardCharsets.UTF_8);
+                TokenKey key = i % 2 == 0 ? rsaKey : otherSpelling;
+                results.add(clients.submit(() -> {
+                    // As in SigningService, the request counts as outstanding on the token while it waits
+                    rsaKey.getToken().begin();
+                    try {
+                        start.await();
+                        return isValid(data, coalescer.sign(key, ALGORITHM, data));
+                    } finally {
+                        rsaKey.getToken().end(true);
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+
+        assertEquals(24L, coalescer.getStatistics().get("requests"));
+        // Batches hold at most eight requests, and with everyone arriving at once most are full
+        long batches = (Long) coalescer.getStatistics().get("batches");
+        assertTrue(batches >= 3 && batches < clientCount, "batches: " + batches);
+        verify(signingMetrics, atLeastOnce()).recordCoalescedBatch(anyInt());
+        // Groups are dropped once idle
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(coalescer, "groups")).isEmpty());
+    }
+
+    @Test
+    void testLoneRequestDoesNotWaitForTheWindow() throws Exception {
+        properties.getCoalescing().setWindow(Duration.ofSeconds(5));
+        byte[] data = "Hello, World!".getBytes(StandardCharsets.UTF_8);
+
+        long start = System.nanoTime();
+        byte[] signature = coalescer.sign(rsaKey, ALGORITHM, data);
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(1)) < 0);
+        assertTrue(isValid(data, signature));
+    }
+
+    @Test
+    void testFailureIsReportedToCaller() {
+        assertThrows(GeneralSecurityException.class,
+                () -> coalescer.sign(rsaKey, "NoSuchAlgorithm", new byte[]{1}));
+        assertThrows(GeneralSecurityException.class,
+                () -> coalescer.sign(rsaKey, "NoSuchAlgorithm", new byte[]{1}));
+    }
+
+    @Test
+    void testInterruptedWaiterGivesUpWithoutSpinning() throws Exception {
+        properties.getCoalescing().setWindow(Duration.ofSeconds(1));
+        properties.getCoalescing().setTimeout(Duration.ofSeconds(30));
+        byte[] data = "document".getBytes(StandardCharsets.UTF_8);
+        AtomicReference<byte[]> leaderSignature = new AtomicReference<>();
+        AtomicReference<Exception> waiterFailure = new AtomicReference<>();
+        AtomicBoolean waiterInterrupted = new AtomicBoolean();
+
+        Thread leader = client(() -> leaderSignature.set(coalescer.sign(rsaKey, ALGORITHM, data)));
+        awaitParked(leader);
+        Thread waiter = client(() -> {
+            try {
+                coalescer.sign(rsaKey, ALGORITHM, data);
+            } catch (SigningException e) {
+                waiterFailure.set(e);
+            }
+            waiterInterrupted.set(Thread.currentThread().isInterrupted());
+        });
+        awaitParked(waiter);
+
+        long start = System.nanoTime();
+        waiter.interrupt();
+        waiter.join(5000);
+
+        assertFalse(waiter.isAlive());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(1)) < 0);
+        assertTrue(waiterFailure.get().getMessage().contains("Interrupted"));
+        assertTrue(waiterInterrupted.get());
+        // The leader signs alone once the window has passed
+        leader.join(5000);
+        assertTrue(isValid(data, leaderSignature.get()));
+        assertEquals(1L, coalescer.getStatistics().get("requests"));
+    }
+
+    @Test
+    void testInterruptedLeaderSignsAtOnceAndKeepsTheInterrupt() throws Exception {
+        properties.getCoalescing().setWindow(Duration.ofSeconds(30));
+        byte[] data = "document".getBytes(StandardCharsets.UTF_8);
+        AtomicReference<byte[]> signature = new AtomicReference<>();
+        AtomicBoolean interrupted = new AtomicBoolean();
+
+        Thread leader = client(() -> {
+            signature.set(coalescer.sign(rsaKey, ALGORITHM, data));
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        awaitParked(leader);
+        leader.interrupt();
+        leader.join(5000);
+
+        assertFalse(leader.isAlive());
+        assertTrue(isValid(data, signature.get()));
+        assertTrue(interrupted.get());
+    }
+
+    /**
+     * Starts a client that counts as outstanding on the token alongside one other request,
+     * so a leader waits out the window
+     */
+    private Thread client(Executable request) {
+        Thread thread = new Thread(() -> {
+            rsaKey.getToken().begin();
+            rsaKey.getToken().begin();
+            try {
+                request.execute();
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            } finally {
+                rsaKey.getToken().end(true);
+                rsaKey.getToken().end(true);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitParked(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for " + thread.getName() + " to park");
+            Thread.sleep(5);
+        }
+    }
+
+    private boolean isValid(byte[] data, byte[] signature) throws Exception {
+        Signature verifier = Signature.getInstance(ALGORITHM);
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(data);
+        return verifier.verify(signature);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.SigningException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SigningDispatcherTest {
+
+    private static final String ALGORITHM = "SHA256withRSA";
+
+    private SigningDispatcher dispatcher;
+
+    private KeyPair keyPair;
+
+    private TokenKey rsaKey;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Pkcs11Properties properties = new Pkcs11Properties();
+        properties.getDispatcher().setEnabled(true);
+        properties.getDispatcher().setWorkersPerToken(2);
+
+        SignatureEnginePool pool = new SignatureEnginePool();
+        ReflectionTestUtils.setField(pool, "pkcs11Properties", properties);
+        dispatcher = new SigningDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(dispatcher, "signatureEnginePool", pool);
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        // Software provider stands in for SunPKCS11
+        rsaKey = new TokenKey(new Pkcs11Token("token-0", Security.getProvider("SunRsaSign"), "1234",
+                3, Duration.ofSeconds(30)), "rsa-key", keyPair.getPrivate());
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void testConcurrentRequestsAreSignedByWorkers() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                byte[] data = ("document-" + i).getBytes(StandardCharsets.UTF_8);
+                results.add(clients.submit(() -> verify(data, dispatcher.sign(rsaKey, ALGORITHM, data))));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+
+        Map<String, Number> stats = dispatcher.getStatistics().get("token-0");
+        assertEquals(2, stats.get("workers"));
+        assertEquals(40L, stats.get("completed"));
+        assertEquals(0, dispatcher.getQueueDepth("token-0"));
+    }
+
+    @Test
+    void testFailureIsReportedToCaller() {
+        assertThrows(SigningException.class,
+                () -> dispatcher.sign(rsaKey, "NoSuchAlgorithm", new byte[]{1}));
+    }
+
+    @Test
+    void testErrorIsReportedToCallerAndTheWorkerKeepsRunning() throws Exception {
+        PrivateKey brokenKey = mock(PrivateKey.class);
+        when(brokenKey.getAlgorithm()).thenThrow(new AssertionError("Broken key handle"));
+        TokenKey broken = new TokenKey(rsaKey.getToken(), "broken-key", brokenKey);
+
+        // More failures than workers, so a worker that died would leave later requests waiting
+        for (int i = 0; i < 4; i++) {
+            assertThrows(SigningException.class, () -> dispatcher.sign(broken, ALGORITHM, new byte[]{1}));
+        }
+
+        byte[] data = "document".getBytes(StandardCharsets.UTF_8);
+        assertTrue(verify(data, dispatcher.sign(rsaKey, ALGORITHM, data)));
+        assertEquals(0, dispatcher.getStatistics().get("token-0").get("busyWorkers"));
+    }
+
+    private boolean verify(byte[] data, byte[] signature) throws Exception {
+        Signature verifier = Signature.getInstance(ALGORITHM);
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(data);
+        return verifier.verify(signature);
+    }
+}
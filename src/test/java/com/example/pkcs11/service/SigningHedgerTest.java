@@ -0,0 +1,233 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.SigningException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class SigningHedgerTest {
+
+    private Pkcs11Properties properties;
+
+    private SigningMetrics signingMetrics;
+
+    private ThreadPoolExecutor executor;
+
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    private SigningHedger hedger;
+
+    private List<TokenKey> replicas;
+
+    @BeforeEach
+    void setUp() {
+        properties = new Pkcs11Properties();
+        properties.getHedging().setEnabled(true);
+        properties.getHedging().setDelay(Duration.ofMillis(20));
+        properties.getHedging().setBudget(1);
+        signingMetrics = mock(SigningMetrics.class);
+        executor = new ThreadPoolExecutor(0, 2, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+        taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.initialize();
+
+        hedger = new SigningHedger();
+        ReflectionTestUtils.setField(hedger, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(hedger, "signingMetrics", signingMetrics);
+        ReflectionTestUtils.setField(hedger, "hedgingExecutor", executor);
+        ReflectionTestUtils.setField(hedger, "taskScheduler", taskScheduler);
+
+        PrivateKey key = mock(PrivateKey.class);
+        replicas = Arrays.asList(new TokenKey(token("token-a"), "rsa-key", key),
+                new TokenKey(token("token-b"), "rsa-key", key));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        taskScheduler.shutdown();
+    }
+
+    @Test
+    void testStalledAttemptIsHedgedOnTheOtherToken() {
+        Thread caller = Thread.currentThread();
+        AtomicInteger calls = new AtomicInteger();
+
+        long start = System.nanoTime();
+        byte[] signature = hedger.sign("rsa-key", replicas, replica -> {
+            // Both attempts run in the pool, so the caller is free to take the first signature
+            assertNotSame(caller, Thread.currentThread());
+            if (calls.getAndIncrement() == 0) {
+                sleep(300);
+            }
+            return replica.getToken().getName().getBytes(StandardCharsets.UTF_8);
+        });
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis < 200, "returned after " + elapsedMillis + " ms");
+        assertEquals(2, calls.get());
+        Map<String, Object> stats = hedger.getStatistics();
+        assertEquals(1L, stats.get("hedged"));
+        assertEquals(1L, stats.get("hedgeWins"));
+        assertNotNull(signature);
+        verify(signingMetrics).recordHedge(SigningMetrics.HEDGE_WON);
+    }
+
+    @Test
+    void testHedgeThatComesBackLaterIsIgnored() {
+        AtomicInteger calls = new AtomicInteger();
+
+        byte[] signature = hedger.sign("rsa-key", replicas, replica -> {
+            int call = calls.getAndIncrement();
+            sleep(call == 0 ? 100 : 300);
+            return new byte[]{(byte) call};
+        });
+
+        assertArrayEquals(new byte[]{0}, signature);
+        assertEquals(1L, hedger.getStatistics().get("hedged"));
+        assertEquals(0L, hedger.getStatistics().get("hedgeWins"));
+        verify(signingMetrics).recordHedge(SigningMetrics.HEDGE_LOST);
+    }
+
+    @Test
+    void testHedgeSignatureReplacesAFailedAttempt() {
+        AtomicInteger calls = new AtomicInteger();
+
+        byte[] signature = hedger.sign("rsa-key", replicas, replica -> {
+            if (calls.getAndIncrement() == 0) {
+                sleep(200);
+                throw new SigningException("Cryptographic signing failed on " + replica.getToken().getName());
+            }
+            return new byte[]{2};
+        });
+
+        assertArrayEquals(new byte[]{2}, signature);
+        assertEquals(1L, hedger.getStatistics().get("hedgeWins"));
+    }
+
+    @Test
+    void testRequestIsNotHedgedWhileThePoolIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(2);
+        for (int i = 0; i < executor.getMaximumPoolSize(); i++) {
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        AtomicInteger calls = new AtomicInteger();
+
+        byte[] signature = hedger.sign("rsa-key", replicas, replica -> {
+            calls.incrementAndGet();
+            sleep(100);
+            return new byte[]{1};
+        });
+        release.countDown();
+        release.countDown();
+
+        assertArrayEquals(new byte[]{1}, signature);
+        assertEquals(1, calls.get());
+        assertEquals(0L, hedger.getStatistics().get("hedged"));
+    }
+
+    @Test
+    void testFastAttemptIsNotHedged() {
+        AtomicInteger calls = new AtomicInteger();
+
+        hedger.sign("rsa-key", replicas, replica -> {
+            calls.incrementAndGet();
+            return new byte[]{1};
+        });
+
+        assertEquals(1, calls.get());
+        assertEquals(0L, hedger.getStatistics().get("hedged"));
+    }
+
+    @Test
+    void testHedgesStopWhenTheBudgetIsSpent() {
+        properties.getHedging().setBudget(0);
+        AtomicInteger calls = new AtomicInteger();
+
+        byte[] signature = hedger.sign("rsa-key", replicas, replica -> {
+            calls.incrementAndGet();
+            sleep(100);
+            return new byte[]{1};
+        });
+
+        assertArrayEquals(new byte[]{1}, signature);
+        assertEquals(1, calls.get());
+        assertEquals(1L, hedger.getStatistics().get("budgetExhausted"));
+    }
+
+    @Test
+    void testFailureIsReportedWhenBothAttemptsFail() {
+        SigningException e = assertThrows(SigningException.class, () -> hedger.sign("rsa-key", replicas, replica -> {
+            sleep(50);
+            throw new SigningException("Cryptographic signing failed on " + replica.getToken().getName());
+        }));
+
+        assertTrue(e.getMessage().startsWith("Cryptographic signing failed"));
+    }
+
+    @Test
+    void testSingleReplicaRunsOnTheCallingThread() {
+        Thread caller = Thread.currentThread();
+
+        hedger.sign("rsa-key", Collections.singletonList(replicas.get(0)), replica -> {
+            assertSame(caller, Thread.currentThread());
+            return new byte[]{1};
+        });
+
+        assertEquals(0L, hedger.getStatistics().get("requests"));
+    }
+
+    @Test
+    void testAdaptiveDelayIsThePercentileOfRecentLatencies() {
+        SigningHedger.LatencyWindow window = new SigningHedger.LatencyWindow();
+        for (int i = 1; i < SigningHedger.MIN_SAMPLES; i++) {
+            window.record(i);
+        }
+        assertEquals(-1, window.percentile(0.95));
+
+        for (int i = SigningHedger.MIN_SAMPLES; i <= 100; i++) {
+            window.record(i);
+        }
+        assertEquals(95, window.percentile(0.95));
+        assertEquals(50, window.percentile(0.5));
+    }
+
+    private static Pkcs11Token token(String name) {
+        // Software provider stands in for SunPKCS11
+        return new Pkcs11Token(name, Security.getProvider("SunRsaSign"), "1234", 3, Duration.ofSeconds(30));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.KeyNotFoundException;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.Security;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SigningMetricsTest {
+
+    private SimpleMeterRegistry registry;
+
+    private SigningMetrics signingMetrics;
+
+    private Pkcs11Token token;
+
+    @BeforeEach
+    void setUp() {
+        Pkcs11Properties properties = new Pkcs11Properties();
+        SignatureEnginePool pool = new SignatureEnginePool();
+        ReflectionTestUtils.setField(pool, "pkcs11Properties", properties);
+        SigningDispatcher dispatcher = new SigningDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "pkcs11Properties", properties);
+        token = new Pkcs11Token("token-0", Security.getProvider("SunRsaSign"), "1234", 3, Duration.ofSeconds(30));
+
+        registry = new SimpleMeterRegistry();
+        signingMetrics = new SigningMetrics();
+        ReflectionTestUtils.setField(signingMetrics, "meterRegistry", registry);
+        ReflectionTestUtils.setField(signingMetrics, "signatureEnginePool", pool);
+        ReflectionTestUtils.setField(signingMetrics, "signingDispatcher", dispatcher);
+        ReflectionTestUtils.setField(signingMetrics, "pkcs11Tokens", List.of(token));
+        signingMetrics.registerGauges();
+    }
+
+    @Test
+    void testSigningIsTimedPerKeyAlgorithmAndOutcome() {
+        long first = signingMetrics.begin();
+        assertEquals(1.0, registry.get("pkcs11.sign.in.flight").gauge().value());
+        signingMetrics.end("rsa-key", "SHA256withRSA", SigningMetrics.OUTCOME_SUCCESS, first);
+        long second = signingMetrics.begin();
+        signingMetrics.end("rsa-key", "SHA256withRSA", SigningMetrics.OUTCOME_SUCCESS, second);
+        long third = signingMetrics.begin();
+        signingMetrics.end("rsa-key", "SHA256withRSA", SigningMetrics.OUTCOME_REJECTED, third);
+
+        Timer success = registry.get("pkcs11.sign")
+                .tags("key", "rsa-key", "algorithm", "SHA256withRSA", "outcome", "success").timer();
+        assertEquals(2, success.count());
+        assertEquals(1, registry.get("pkcs11.sign").tag("outcome", "rejected").timer().count());
+        assertEquals(0.0, registry.get("pkcs11.sign.in.flight").gauge().value());
+    }
+
+    @Test
+    void testErrorsAreCountedByType() {
+        signingMetrics.recordError(new KeyNotFoundException("missing"));
+        signingMetrics.recordError(new KeyNotFoundException("missing"));
+        signingMetrics.recordError(new IllegalArgumentException("bad"));
+
+        assertEquals(2.0, registry.get("pkcs11.errors").tag("type", "KeyNotFoundException").counter().count());
+        assertEquals(1.0, registry.get("pkcs11.errors").tag("type", "IllegalArgumentException").counter().count());
+    }
+
+    @Test
+    void testTokenStateIsExposedAsGauges() {
+        token.begin();
+
+        assertEquals(1.0, registry.get("pkcs11.token.outstanding").tag("token", "token-0").gauge().value());
+        assertEquals(1.0, registry.get("pkcs11.token.available").tag("token", "token-0").gauge().value());
+        assertEquals(0.0, registry.get("pkcs11.key.cache.requests")
+                .tags("token", "token-0", "result", "hit").functionCounter().count());
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SigningRequestLogTest {
+
+    private Pkcs11Properties properties;
+
+    private SigningRequestLog signingRequestLog;
+
+    @BeforeEach
+    void setUp() {
+        properties = new Pkcs11Properties();
+        signingRequestLog = new SigningRequestLog();
+        ReflectionTestUtils.setField(signingRequestLog, "pkcs11Properties", properties);
+    }
+
+    @Test
+    void testAllModeLogsEverySuccess() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(signingRequestLog.shouldLogSuccess());
+        }
+    }
+
+    @Test
+    void testSampledModeLogsAboutTheSampleRate() {
+        properties.getRequestLogging().setSuccess(Pkcs11Properties.SuccessLogging.SAMPLED);
+        properties.getRequestLogging().setSampleRate(0.1);
+
+        int logged = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (signingRequestLog.shouldLogSuccess()) {
+                logged++;
+            }
+        }
+
+        assertTrue(logged > 8_000 && logged < 12_000, "logged " + logged);
+    }
+
+    @Test
+    void testAggregatedModeCollectsAndResetsPerKey() {
+        properties.getRequestLogging().setSuccess(Pkcs11Properties.SuccessLogging.AGGREGATED);
+        assertFalse(signingRequestLog.shouldLogSuccess());
+
+        signingRequestLog.recordSuccess("rsa-key", 2_000_000);
+        signingRequestLog.recordSuccess("rsa-key", 4_000_000);
+        signingRequestLog.recordSuccess("ec-key", 1_000_000);
+        assertEquals(2L, count("rsa-key"));
+
+        signingRequestLog.logSummaries();
+
+        assertEquals(0L, count("rsa-key"));
+        assertEquals(0L, count("ec-key"));
+    }
+
+    @Test
+    void testOtherModesDoNotAggregate() {
+        signingRequestLog.recordSuccess("rsa-key", 2_000_000);
+
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(signingRequestLog, "aggregates")).isEmpty());
+    }
+
+    private long count(String alias) {
+        Map<?, ?> aggregates = (Map<?, ?>) ReflectionTestUtils.getField(signingRequestLog, "aggregates");
+        Object aggregate = aggregates.get(alias);
+        return ((LongAdder) ReflectionTestUtils.getField(aggregate, "count")).sum();
+    }
+}
@@ -1,6 +1,8 @@
 package com.example.pkcs11.service;
 
+import com.example.pkcs11.audit.AuditJournal;
 import com.example.pkcs11.exception.SigningException;
+import com.example.pkcs11.scheduling.FairScheduler;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -9,6 +11,7 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.security.PrivateKey;
+import java.time.Duration;
 import java.util.Base64;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -21,6 +24,39 @@ class SigningServiceTest {
     @Mock
     private Pkcs11ProviderService pkcs11ProviderService;
 
+    @Mock
+    private SignatureEnginePool signatureEnginePool;
+
+    @Mock
+    private SigningDispatcher signingDispatcher;
+
+    @Mock
+    private SigningCoalescer signingCoalescer;
+
+    @Mock
+    private TokenRecovery tokenRecovery;
+
+    @Mock
+    private SigningHedger signingHedger;
+
+    @Mock
+    private FairScheduler fairScheduler;
+
+    @Mock
+    private SignatureCache signatureCache;
+
+    @Mock
+    private ConcurrencyLimiterRegistry concurrencyLimiters;
+
+    @Mock
+    private SigningMetrics signingMetrics;
+
+    @Mock
+    private SigningRequestLog signingRequestLog;
+
+    @Mock
+    private AuditJournal auditJournal;
+
     @Mock
     private PrivateKey mockPrivateKey;
 
@@ -66,6 +102,18 @@ class SigningServiceTest {
         assertTrue(exception.getMessage().contains("Input data must be valid base64 encoded"));
     }
 
+    @Test
+    void testValidateInputData_DigestLengthMatchesDeclaredHash() {
+        String sha256Digest = Base64.getEncoder().encodeToString(new byte[32]);
+
+        assertDoesNotThrow(() -> signingService.validateInputData(sha256Digest, "SHA-256"));
+        IllegalArgumentException exception = assertThrows(
+            IllegalArgumentException.class,
+            () -> signingService.validateInputData(sha256Digest, "SHA-512")
+        );
+        assertTrue(exception.getMessage().contains("Digest length mismatch for SHA-512"));
+    }
+
     @Test
     void testGetSigningInfo() {
         String info = signingService.getSigningInfo();
@@ -77,7 +125,7 @@ class SigningServiceTest {
 
     @Test
     void testSignData_KeyNotFound() {
-        when(pkcs11ProviderService.getPrivateKey("nonexistent-key"))
+        when(pkcs11ProviderService.selectKey("nonexistent-key"))
             .thenThrow(new RuntimeException("Key not found"));
 
         assertThrows(SigningException.class, () -> 
@@ -87,7 +135,8 @@ class SigningServiceTest {
 
     @Test
     void testSignData_InvalidAlgorithm() {
-        when(pkcs11ProviderService.getPrivateKey("test-key")).thenReturn(mockPrivateKey);
+        when(pkcs11ProviderService.selectKey("test-key")).thenReturn(new TokenKey(
+            new Pkcs11Token("token-0", null, "1234", 3, Duration.ofSeconds(30)), "test-key", mockPrivateKey));
         doThrow(new IllegalArgumentException("Unsupported algorithm"))
             .when(pkcs11ProviderService).validateKeyType(anyString(), any());
 
@@ -95,4 +144,14 @@ class SigningServiceTest {
             signingService.signData("test-key", "INVALID", validBase64Data, "testSignData_InvalidAlgorithm")
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    void testSignBytes_KeyNotFound() {
+        when(pkcs11ProviderService.selectKey("nonexistent-key"))
+            .thenThrow(new RuntimeException("Key not found"));
+
+        assertThrows(SigningException.class, () ->
+            signingService.signBytes("nonexistent-key", "RSA", "Hello, World!".getBytes(), null, "testSignBytes_KeyNotFound")
+        );
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StreamingSigningServiceTest {
+
+    @Mock
+    private SigningService signingService;
+
+    @InjectMocks
+    private StreamingSigningService streamingSigningService;
+
+    private byte[] document;
+
+    @BeforeEach
+    void setUp() {
+        Pkcs11Properties properties = new Pkcs11Properties();
+        // Much smaller than the document so it is read in many chunks
+        properties.getStreaming().setBufferSize(DataSize.ofBytes(1000));
+        ReflectionTestUtils.setField(streamingSigningService, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(streamingSigningService, "objectMapper", new ObjectMapper());
+
+        document = new byte[100_000];
+        new Random(42).nextBytes(document);
+    }
+
+    @Test
+    void testSignStream_SignsDigestOfWholeDocument() throws Exception {
+        byte[] expectedDigest = MessageDigest.getInstance("SHA-256").digest(document);
+        when(signingService.signBytes(eq("rsa-key"), eq("RSA"), aryEq(expectedDigest), eq("SHA-256"), eq("doc")))
+                .thenReturn(new byte[]{1, 2, 3});
+
+        byte[] signature = streamingSigningService.signStream("rsa-key", "RSA", null,
+                new ByteArrayInputStream(document), "doc");
+
+        assertArrayEquals(new byte[]{1, 2, 3}, signature);
+    }
+
+    @Test
+    void testSignStream_EmptyDocument() {
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> streamingSigningService.signStream("rsa-key", "RSA", null, new ByteArrayInputStream(new byte[0]), "doc"));
+        assertEquals("Input data cannot be null or empty", exception.getMessage());
+        verifyNoInteractions(signingService);
+    }
+
+    @Test
+    void testSignJsonStream_DataBeforeOtherFields() throws Exception {
+        byte[] expectedDigest = MessageDigest.getInstance("SHA-384").digest(document);
+        when(signingService.signBytes(eq("ec-key"), eq("EC"), aryEq(expectedDigest), eq("SHA-384"), eq("doc")))
+                .thenReturn(new byte[]{4, 5, 6});
+        String json = "{\"hashAlgorithm\":\"SHA-384\",\"data\":\"" + Base64.getEncoder().encodeToString(document)
+                + "\",\"keyLabel\":\"ec-key\",\"algorithm\":\"EC\",\"name\":\"doc\",\"ignored\":{\"a\":[1]}}";
+
+        String signature = streamingSigningService.signJsonStream(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))).getSignature();
+
+        assertEquals(Base64.getEncoder().encodeToString(new byte[]{4, 5, 6}), signature);
+    }
+
+    @Test
+    void testSignJsonStream_InvalidRequests() {
+        assertThrows(IllegalArgumentException.class, () -> signJson("{\"algorithm\":\"RSA\",\"data\":\"AAEC\"}"));
+        assertThrows(IllegalArgumentException.class, () -> signJson("{\"keyLabel\":\"k\",\"algorithm\":\"DSA\",\"data\":\"AAEC\"}"));
+        assertThrows(IllegalArgumentException.class, () -> signJson("{\"keyLabel\":\"k\",\"algorithm\":\"RSA\",\"data\":\"!!\"}"));
+        assertThrows(IllegalArgumentException.class, () -> signJson("{\"keyLabel\":\"k\",\"algorithm\":\"RSA\""));
+        verifyNoInteractions(signingService);
+    }
+
+    private void signJson(String json) throws Exception {
+        streamingSigningService.signJsonStream(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
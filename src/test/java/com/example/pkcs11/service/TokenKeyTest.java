@@ -0,0 +1,75 @@
+package com.example.pkcs11.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenKeyTest {
+
+    @Test
+    void testLeastOutstandingPrefersIdleReplica() {
+        TokenKey busy = replica(token("slot-0"));
+        TokenKey idle = replica(token("slot-1"));
+        busy.getToken().begin();
+        busy.getToken().begin();
+        idle.getToken().begin();
+
+        for (int i = 0; i < 10; i++) {
+            assertSame(idle, TokenKey.leastOutstanding(List.of(busy, idle)));
+        }
+    }
+
+    @Test
+    void testFailingTokenIsTakenOutOfRotation() {
+        TokenKey failing = replica(token("slot-0"));
+        TokenKey healthy = replica(token("slot-1"));
+        for (int i = 0; i < 5; i++) {
+            healthy.getToken().begin();
+        }
+        for (int i = 0; i < 3; i++) {
+            failing.getToken().begin();
+            failing.getToken().end(false);
+        }
+
+        assertFalse(failing.getToken().isAvailable());
+        assertSame(healthy, TokenKey.leastOutstanding(List.of(failing, healthy)));
+    }
+
+    @Test
+    void testSuccessResetsFailureCount() {
+        Pkcs11Token token = token("slot-0");
+        for (int i = 0; i < 2; i++) {
+            token.begin();
+            token.end(false);
+        }
+        token.begin();
+        token.end(true);
+        token.begin();
+        token.end(false);
+
+        assertTrue(token.isAvailable());
+        assertEquals(0, token.getOutstanding());
+    }
+
+    @Test
+    void testQuarantinedTokenIsStillUsedWhenNoOtherReplicaIsAvailable() {
+        TokenKey only = replica(token("slot-0"));
+        for (int i = 0; i < 3; i++) {
+            only.getToken().begin();
+            only.getToken().end(false);
+        }
+
+        assertSame(only, TokenKey.leastOutstanding(List.of(only)));
+    }
+
+    private static Pkcs11Token token(String name) {
+        return new Pkcs11Token(name, null, "1234", 3, Duration.ofMinutes(1));
+    }
+
+    private static TokenKey replica(Pkcs11Token token) {
+        return new TokenKey(token, "rsa-key", null);
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.exception.SigningException;
+import com.example.pkcs11.exception.TokenUnavailableException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.PrivateKey;
+import java.security.ProviderException;
+import java.security.Security;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class TokenRecoveryTest {
+
+    private static final String KEY_LABEL = "rsa-key";
+
+    private TokenRecovery tokenRecovery;
+
+    private TaskScheduler taskScheduler;
+
+    private SignatureCache signatureCache;
+
+    private Pkcs11Token token;
+
+    // The key handle the token currently hands out; replaced by each re-login
+    private final AtomicReference<PrivateKey> handle = new AtomicReference<>(mock(PrivateKey.class));
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Pkcs11Properties properties = new Pkcs11Properties();
+        properties.getRecovery().setKeepAliveInterval(Duration.ZERO);
+        properties.getRecovery().setAwait(Duration.ofSeconds(5));
+
+        token = spy(new Pkcs11Token("token-0", Security.getProvider("SunRsaSign"), "1234", 3, Duration.ofSeconds(30)));
+        doAnswer(invocation -> new KeyIndex.Entry(KEY_LABEL, handle.get(), null)).when(token).findKey(KEY_LABEL);
+
+        SignatureEnginePool pool = new SignatureEnginePool();
+        ReflectionTestUtils.setField(pool, "pkcs11Properties", properties);
+        taskScheduler = mock(TaskScheduler.class);
+        signatureCache = mock(SignatureCache.class);
+        tokenRecovery = new TokenRecovery();
+        ReflectionTestUtils.setField(tokenRecovery, "pkcs11Tokens", Collections.singletonList(token));
+        ReflectionTestUtils.setField(tokenRecovery, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(tokenRecovery, "signatureEnginePool", pool);
+        ReflectionTestUtils.setField(tokenRecovery, "signatureCache", signatureCache);
+        ReflectionTestUtils.setField(tokenRecovery, "taskScheduler", taskScheduler);
+        tokenRecovery.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        tokenRecovery.shutdown();
+    }
+
+    @Test
+    void testSessionLossIsFoundAnywhereInTheCauseChain() {
+        Exception lost = new SigningException("Cryptographic signing failed",
+                new ProviderException("sign() failed", new Exception("CKR_SESSION_HANDLE_INVALID")));
+
+        assertTrue(TokenRecovery.isSessionLost(lost));
+        assertTrue(TokenRecovery.isSessionLost(new ProviderException("Token has been removed")));
+        assertFalse(TokenRecovery.isSessionLost(new SigningException("Cryptographic signing failed",
+                new Exception("CKR_DATA_LEN_RANGE"))));
+        assertFalse(TokenRecovery.isSessionLost(new IllegalArgumentException()));
+    }
+
+    @Test
+    void testConcurrentFailuresShareOneReloginAndGetTheNewHandle() throws Exception {
+        PrivateKey recoveredHandle = mock(PrivateKey.class);
+        doAnswer(invocation -> {
+            Thread.sleep(200);
+            handle.set(recoveredHandle);
+            return null;
+        }).when(token).relogin();
+        TokenKey staleKey = new TokenKey(token, KEY_LABEL, handle.get());
+        Exception failure = new SigningException("Cryptographic signing failed",
+                new Exception("CKR_USER_NOT_LOGGED_IN"));
+
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<TokenKey>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(clients.submit(() -> tokenRecovery.onFailure(staleKey, failure)));
+            }
+            for (Future<TokenKey> result : results) {
+                assertSame(recoveredHandle, result.get().getPrivateKey());
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+
+        verify(token, times(1)).relogin();
+        verify(signatureCache).clear();
+        assertTrue(token.isAvailable());
+        assertFalse(tokenRecovery.awaitReady(token));
+        assertEquals("ready", tokenRecovery.getStatistics().get("token-0").get("state"));
+        assertEquals(1L, tokenRecovery.getStatistics().get("token-0").get("recoveries"));
+    }
+
+    @Test
+    void testFailedRecoveryOpensTheCircuitAndSchedulesARetry() throws Exception {
+        doThrow(new SigningException("Failed to load KeyStore: CKR_TOKEN_NOT_PRESENT")).when(token).relogin();
+        TokenKey key = new TokenKey(token, KEY_LABEL, handle.get());
+
+        assertNull(tokenRecovery.onFailure(key, new ProviderException("CKR_DEVICE_REMOVED")));
+
+        assertFalse(token.isAvailable());
+        TokenUnavailableException e = assertThrows(TokenUnavailableException.class,
+                () -> tokenRecovery.awaitReady(token));
+        assertFalse(e.getRetryAfter().isNegative());
+        // Further requests fail fast instead of logging in again
+        assertFalse(tokenRecovery.recover(token).get());
+        verify(token, times(1)).relogin();
+        verify(taskScheduler).schedule(any(Runnable.class), any(Instant.class));
+        assertEquals("backing-off", tokenRecovery.getStatistics().get("token-0").get("state"));
+    }
+
+    @Test
+    void testScheduledRetryRunsEvenIfItFiresBeforeTheBackoffEnds() throws Exception {
+        doThrow(new SigningException("Failed to load KeyStore: CKR_TOKEN_NOT_PRESENT"))
+                .doNothing().when(token).relogin();
+        assertFalse(tokenRecovery.recover(token).get());
+
+        ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+        verify(taskScheduler).schedule(retry.capture(), any(Instant.class));
+        // The scheduler's wall clock can run ahead of the circuit's monotonic deadline
+        retry.getValue().run();
+
+        verify(token, timeout(5000).times(2)).relogin();
+        // Joins the retry if it is still finishing
+        assertTrue(tokenRecovery.recover(token).get());
+        assertTrue(token.isAvailable());
+        assertEquals("ready", tokenRecovery.getStatistics().get("token-0").get("state"));
+    }
+
+    @Test
+    void testOtherFailuresAreNotRecovered() throws Exception {
+        TokenKey key = new TokenKey(token, KEY_LABEL, handle.get());
+
+        assertNull(tokenRecovery.onFailure(key, new SigningException("Key type mismatch")));
+
+        verify(token, never()).relogin();
+        assertFalse(tokenRecovery.awaitReady(token));
+    }
+
+    @Test
+    void testKeepAliveRecoversATokenThatLostItsSessionWhileIdle() throws Exception {
+        doThrow(new ProviderException("nextBytes() failed", new Exception("CKR_SESSION_CLOSED")))
+                .when(token).keepAlive();
+        doNothing().when(token).relogin();
+
+        tokenRecovery.keepAlive();
+
+        verify(token, timeout(5000)).relogin();
+        assertEquals(1L, tokenRecovery.getStatistics().get("token-0").get("detections"));
+    }
+}
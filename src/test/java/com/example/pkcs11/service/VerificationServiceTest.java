@@ -0,0 +1,183 @@
+package com.example.pkcs11.service;
+
+import com.example.pkcs11.config.Pkcs11Properties;
+import com.example.pkcs11.dto.BatchVerifyResponse;
+import com.example.pkcs11.dto.MerkleProofStep;
+import com.example.pkcs11.dto.MerkleVerifyRequest;
+import com.example.pkcs11.dto.VerifyRequest;
+import com.example.pkcs11.exception.KeyNotFoundException;
+import com.example.pkcs11.merkle.MerkleTree;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+class VerificationServiceTest {
+
+    private static KeyPair rsaKeyPair;
+
+    private static KeyPair ecKeyPair;
+
+    private Pkcs11ProviderService pkcs11ProviderService;
+
+    private ExecutorService executor;
+
+    private VerificationService verificationService;
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+        rsa.initialize(2048);
+        rsaKeyPair = rsa.generateKeyPair();
+        KeyPairGenerator ec = KeyPairGenerator.getInstance("EC");
+        ec.initialize(256);
+        ecKeyPair = ec.generateKeyPair();
+    }
+
+    @BeforeEach
+    void setUp() {
+        Pkcs11Properties properties = new Pkcs11Properties();
+        properties.getVerify().setParallelism(4);
+        properties.getVerify().setMaxItems(100);
+        executor = Executors.newFixedThreadPool(4);
+
+        pkcs11ProviderService = Mockito.mock(Pkcs11ProviderService.class);
+        lenient().when(pkcs11ProviderService.getPublicKey("rsa-key")).thenReturn(rsaKeyPair.getPublic());
+        lenient().when(pkcs11ProviderService.getPublicKey("ecc-key")).thenReturn(ecKeyPair.getPublic());
+        lenient().when(pkcs11ProviderService.getSigningAlgorithm("RSA", null)).thenReturn("SHA256withRSA");
+        lenient().when(pkcs11ProviderService.getSigningAlgorithm("EC", null)).thenReturn("SHA256withECDSA");
+        lenient().when(pkcs11ProviderService.getPrehashedSigningAlgorithm("RSA")).thenReturn("NONEwithRSA");
+        lenient().when(pkcs11ProviderService.getPrehashedSigningAlgorithm("EC")).thenReturn("NONEwithECDSA");
+
+        verificationService = new VerificationService();
+        ReflectionTestUtils.setField(verificationService, "pkcs11ProviderService", pkcs11ProviderService);
+        ReflectionTestUtils.setField(verificationService, "pkcs11Properties", properties);
+        ReflectionTestUtils.setField(verificationService, "verificationExecutor", executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testVerifyUsesCertificatePublicKey() throws Exception {
+        byte[] data = "Hello, World!".getBytes(StandardCharsets.UTF_8);
+        byte[] signature = sign(ecKeyPair.getPrivate(), "SHA256withECDSA", data);
+
+        assertTrue(verificationService.verify("ecc-key", "EC", data, null, signature));
+        assertTrue(verificationService.verify("ecc-key", "EC", sha256(data), "SHA-256", signature));
+        assertFalse(verificationService.verify("ecc-key", "EC", "tampered".getBytes(StandardCharsets.UTF_8),
+                null, signature));
+        assertFalse(verificationService.verify("ecc-key", "EC", data, null, new byte[]{1, 2, 3}));
+    }
+
+    @Test
+    void testVerifyPrehashedRsaSignature() throws Exception {
+        byte[] data = "Hello, World!".getBytes(StandardCharsets.UTF_8);
+        byte[] signature = sign(rsaKeyPair.getPrivate(), "SHA256withRSA", data);
+
+        assertTrue(verificationService.verify("rsa-key", "RSA", sha256(data), "SHA-256", signature));
+        assertFalse(verificationService.verify("rsa-key", "RSA", sha256("other".getBytes(StandardCharsets.UTF_8)),
+                "SHA-256", signature));
+    }
+
+    @Test
+    void testVerifyRejectsKeyTypeMismatch() {
+        assertThrows(IllegalArgumentException.class,
+                () -> verificationService.verify("rsa-key", "EC", new byte[]{1}, null, new byte[]{1}));
+    }
+
+    @Test
+    void testBatchKeepsOrderAndReportsItemFailures() throws Exception {
+        when(pkcs11ProviderService.getPublicKey("missing"))
+                .thenThrow(new KeyNotFoundException("Certificate not found for label: missing"));
+        List<VerifyRequest> items = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] data = ("document-" + i).getBytes(StandardCharsets.UTF_8);
+            byte[] signature = sign(rsaKeyPair.getPrivate(), "SHA256withRSA", data);
+            if (i % 5 == 1) {
+                // Signature over another document
+                data = ("other-" + i).getBytes(StandardCharsets.UTF_8);
+            }
+            items.add(new VerifyRequest("rsa-key", "RSA", base64(data), null, base64(signature)));
+        }
+        items.set(7, new VerifyRequest("missing", "RSA", base64(new byte[]{1}), null, base64(new byte[]{1})));
+        items.set(9, new VerifyRequest("rsa-key", "RSA", "not base64!", null, base64(new byte[]{1})));
+
+        BatchVerifyResponse response = verificationService.verifyBatch(items);
+
+        assertEquals(14, response.getValid());
+        assertEquals(4, response.getInvalid());
+        assertEquals(2, response.getFailed());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(i, response.getResults().get(i).getIndex());
+        }
+        assertFalse(response.getResults().get(1).getValid());
+        assertEquals("Key not found", response.getResults().get(7).getError());
+        assertEquals("Invalid request", response.getResults().get(9).getError());
+    }
+
+    @Test
+    void testVerifyMerkleChecksProofAndRootSignature() throws Exception {
+        List<byte[]> leaves = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            leaves.add(MerkleTree.leafHash(sha256(("document-" + i).getBytes(StandardCharsets.UTF_8))));
+        }
+        MerkleTree tree = MerkleTree.build(leaves);
+        byte[] rootSignature = sign(ecKeyPair.getPrivate(), "NONEwithECDSA", tree.getRoot());
+        List<MerkleProofStep> proof = new ArrayList<>();
+        for (MerkleTree.Step step : tree.proof(2)) {
+            proof.add(new MerkleProofStep(base64(step.getHash()), step.isLeft() ? "left" : "right"));
+        }
+        MerkleVerifyRequest request = new MerkleVerifyRequest("ecc-key", "EC",
+                base64("document-2".getBytes(StandardCharsets.UTF_8)), null, base64(rootSignature),
+                base64(tree.getRoot()), proof);
+
+        assertTrue(verificationService.verifyMerkle(request));
+        request.setData(base64("document-3".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(verificationService.verifyMerkle(request));
+    }
+
+    @Test
+    void testBatchRejectsTooManyItems() {
+        List<VerifyRequest> items = new ArrayList<>();
+        for (int i = 0; i < 101; i++) {
+            items.add(new VerifyRequest("rsa-key", "RSA", "AA==", null, "AA=="));
+        }
+        assertThrows(IllegalArgumentException.class, () -> verificationService.verifyBatch(items));
+    }
+
+    private static byte[] sign(PrivateKey key, String algorithm, byte[] data) throws Exception {
+        Signature signer = Signature.getInstance(algorithm);
+        signer.initSign(key);
+        signer.update(data);
+        return signer.sign();
+    }
+
+    private static byte[] sha256(byte[] data) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+
+    private static String base64(byte[] data) {
+        return Base64.getEncoder().encodeToString(data);
+    }
+}
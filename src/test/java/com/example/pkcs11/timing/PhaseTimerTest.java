@@ -0,0 +1,81 @@
+package com.example.pkcs11.timing;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhaseTimerTest {
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void tearDown() {
+        RequestTimings.clear();
+    }
+
+    @Test
+    void testPhasesAreRecordedAsFlightRecorderEvents() throws Exception {
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(SigningPhaseEvent.NAME);
+            recording.start();
+            PhaseTimer.start(Phase.KEY).stop("rsa-key");
+            PhaseTimer.start(Phase.SIGN).stop("rsa-key");
+            recording.stop();
+
+            Path file = directory.resolve("phases.jfr");
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        }
+
+        List<String> phases = events.stream()
+                .filter(e -> e.getEventType().getName().equals(SigningPhaseEvent.NAME))
+                .map(e -> e.getString("phase") + ":" + e.getString("keyLabel"))
+                .collect(Collectors.toList());
+        assertEquals(List.of("key:rsa-key", "sign:rsa-key"), phases);
+    }
+
+    @Test
+    void testServerTimingListsRecordedPhasesInOrder() {
+        RequestTimings timings = RequestTimings.begin(true);
+        RequestTimings.endRead("rsa-key");
+        PhaseTimer.start(Phase.SIGN).stop("rsa-key");
+        PhaseTimer.start(Phase.KEY).stop("rsa-key");
+
+        assertTrue(timings.toHeaderValue()
+                .matches("read;dur=\\d+\\.\\d{3}, key;dur=\\d+\\.\\d{3}, sign;dur=\\d+\\.\\d{3}, total;dur=\\d+\\.\\d{3}"));
+    }
+
+    @Test
+    void testRepeatedPhaseIsSummed() throws Exception {
+        RequestTimings timings = RequestTimings.begin(true);
+        for (int i = 0; i < 2; i++) {
+            PhaseTimer timer = PhaseTimer.start(Phase.INIT);
+            Thread.sleep(5);
+            timer.stop("rsa-key");
+        }
+
+        String header = timings.toHeaderValue();
+        double init = Double.parseDouble(header.substring("init;dur=".length(), header.indexOf(',')));
+        assertTrue(init >= 10, header);
+    }
+
+    @Test
+    void testNothingIsCollectedWithoutServerTiming() {
+        RequestTimings.begin(false);
+        RequestTimings.endRead("rsa-key");
+        PhaseTimer.start(Phase.SIGN).stop("rsa-key");
+
+        assertFalse(RequestTimings.current().isCollecting());
+    }
+}